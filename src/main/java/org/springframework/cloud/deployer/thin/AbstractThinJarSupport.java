@@ -16,12 +16,30 @@
 
 package org.springframework.cloud.deployer.thin;
 
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import org.springframework.boot.loader.thin.ThinJarLauncher;
 import org.springframework.cloud.deployer.spi.app.AppDeployer;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
 import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.cloud.deployer.spi.task.LaunchState;
+import org.springframework.cloud.deployer.thin.LogRingBuffer.Overflow;
+import org.springframework.util.ObjectUtils;
 import org.springframework.util.StringUtils;
 
 /**
@@ -30,14 +48,192 @@ import org.springframework.util.StringUtils;
  */
 public class AbstractThinJarSupport {
 
+	private static final Log logger = LogFactory.getLog(AbstractThinJarSupport.class);
+
 	private static final String JMX_DEFAULT_DOMAIN_KEY = "spring.jmx.default-domain";
 
-	private Map<String, ThinJarAppWrapper> apps = new LinkedHashMap<>();
+	/**
+	 * Deployment property to keep the class loader warm when an app finishes (so the next
+	 * launch of the same jar can use it again).
+	 */
+	public static final String KEEP_WARM_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.keep-warm";
+
+	/**
+	 * Deployment property to send the app's console logging through a per-app buffer
+	 * that is written asynchronously.
+	 */
+	public static final String ASYNC_LOG_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.log.async";
+
+	/**
+	 * Deployment property for the number of lines buffered when logging asynchronously.
+	 */
+	public static final String LOG_BUFFER_SIZE_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.log.buffer-size";
+
+	/**
+	 * Deployment property for the policy (drop or block) when the log buffer is full.
+	 */
+	public static final String LOG_OVERFLOW_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.log.overflow";
+
+	/**
+	 * Deployment property to give the app access to the in-memory channels shared with
+	 * other apps in the same JVM.
+	 */
+	public static final String LOCAL_CHANNELS_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.channels.local";
+
+	/**
+	 * Deployment property to exclude auto-configurations that did not match the last
+	 * time the same jar was deployed with the same properties.
+	 */
+	public static final String PRUNE_AUTOCONFIG_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.autoconfig.prune";
+
+	/**
+	 * Deployment property to start the app with lazy bean initialization and create the
+	 * remaining singletons in the background.
+	 */
+	public static final String LAZY_INIT_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.lazy-init";
+
+	/**
+	 * Deployment property to process the web requests of the app in a pool of threads
+	 * shared by all the apps in the deployer.
+	 */
+	public static final String SHARED_WEB_EXECUTOR_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.web.shared-executor";
+
+	/**
+	 * Deployment property for the context path of a web app (so that apps sharing a host
+	 * can be told apart).
+	 */
+	public static final String CONTEXT_PATH_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.web.context-path";
+
+	/**
+	 * Deployment property for the maximum number of request processing threads in the
+	 * app's web server (limited by the {@link ThreadBudget}).
+	 */
+	public static final String MAX_THREADS_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.web.max-threads";
+
+	/**
+	 * Deployment property for the maximum queue length for incoming connections to the
+	 * app's web server when all threads are busy.
+	 */
+	public static final String ACCEPT_COUNT_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.web.accept-count";
+
+	/**
+	 * Deployment property for the maximum number of connections that the app's web
+	 * server accepts.
+	 */
+	public static final String MAX_CONNECTIONS_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.web.max-connections";
+
+	/**
+	 * Deployment property to start the app in a virtual thread and to process its web
+	 * requests in virtual threads, if the JVM supports them.
+	 */
+	public static final String VIRTUAL_THREADS_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.virtual-threads";
+
+	/**
+	 * Deployment property for what to do if there is not enough memory to start the app
+	 * ("queue", "reject" or "none" to start it anyway).
+	 */
+	public static final String MEMORY_POLICY_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.memory.policy";
+
+	/**
+	 * Deployment property for how long (millis) the health of the app is cached before
+	 * its health indicators are asked again.
+	 */
+	public static final String HEALTH_TTL_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.health.ttl";
+
+	/**
+	 * Deployment property to profile the startup of the app: the time each bean takes to
+	 * create and initialize, and the time each phase of the startup takes.
+	 */
+	public static final String PROFILE_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.profile";
+
+	/**
+	 * Deployment property for the number of slowest beans to show in the status
+	 * attributes of a profiled app.
+	 */
+	public static final String PROFILE_TOP_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.profile.top";
+
+	/**
+	 * Deployment property to download the dependencies listed in the jar in parallel
+	 * before resolving its classpath.
+	 */
+	public static final String PREFETCH_PROPERTY_KEY = AppDeployer.PREFIX
+			+ "thin.prefetch";
+
+	/**
+	 * The size of Tomcat's request processing thread pool if the app does not set it.
+	 */
+	private static final int DEFAULT_MAX_THREADS = 200;
+
+	private Map<String, ThinJarAppWrapper> apps = new ConcurrentHashMap<>();
+
+	private Map<String, AppDeploymentRequest> requests = new ConcurrentHashMap<>();
+
+	private List<String> restartPrefixes = new ArrayList<>(Arrays.asList("server.",
+			"management.port", "management.address", "spring.main.",
+			"spring.profiles.", "spring.application.name", "spring.jmx.",
+			"spring.autoconfigure.", "spring.cloud.deployer."));
 
 	private String name = "thin";
 
 	private String[] profiles = new String[0];
 
+	private ArchiveCache archiveCache = ArchiveCache.getInstance();
+
+	private ClassLoaderPool classLoaderPool = new ClassLoaderPool();
+
+	private boolean keepWarm = false;
+
+	private AppLogPipeline logPipeline = AppLogPipeline.getInstance();
+
+	private LocalChannelRegistry localChannelRegistry = LocalChannelRegistry
+			.getInstance();
+
+	private AppResourceMonitor resourceMonitor = AppResourceMonitor.getInstance();
+
+	private ClassPreloader classPreloader = ClassPreloader.withDefaults();
+
+	private SharedWebExecutor sharedWebExecutor = SharedWebExecutor.getInstance();
+
+	private ThreadBudget threadBudget = ThreadBudget.getInstance();
+
+	private int maxThreads = 0;
+
+	private ArtifactFetcher artifactFetcher = ArtifactFetcher.getInstance();
+
+	private boolean prefetch = false;
+
+	private DeploymentJournal journal;
+
+	private long healthTtl = 5000;
+
+	private int profileTop = 10;
+
+	private MemoryAdmission memoryAdmission = MemoryAdmission.getInstance();
+
+	private MemoryAdmission.Policy memoryPolicy = MemoryAdmission.Policy.QUEUE;
+
+	private int restoreThreads = Math.max(1,
+			Math.min(4, Runtime.getRuntime().availableProcessors()));
+
+	private long recoveryTime = -1;
+
 	public AbstractThinJarSupport() {
 		this("thin");
 	}
@@ -47,18 +243,495 @@ public class AbstractThinJarSupport {
 		this.profiles = profiles;
 	}
 
+	/**
+	 * The cache used to share extracted nested classes between deployments (defaults to
+	 * a single instance for the whole JVM).
+	 *
+	 * @param archiveCache the archive cache to set
+	 */
+	public void setArchiveCache(ArchiveCache archiveCache) {
+		this.archiveCache = archiveCache;
+	}
+
+	public ArchiveCache getArchiveCache() {
+		return this.archiveCache;
+	}
+
+	/**
+	 * Flag to say that class loaders should be kept warm by default when apps finish
+	 * (can be overridden per deployment with {@link #KEEP_WARM_PROPERTY_KEY}).
+	 *
+	 * @param keepWarm the flag value to set
+	 */
+	public void setKeepWarm(boolean keepWarm) {
+		this.keepWarm = keepWarm;
+	}
+
+	public void setClassLoaderPool(ClassLoaderPool classLoaderPool) {
+		this.classLoaderPool = classLoaderPool;
+	}
+
+	public ClassLoaderPool getClassLoaderPool() {
+		return this.classLoaderPool;
+	}
+
+	/**
+	 * The pipeline used for apps that log asynchronously (defaults to a single instance
+	 * for the whole JVM, writing to the console).
+	 *
+	 * @param logPipeline the log pipeline to set
+	 */
+	public void setLogPipeline(AppLogPipeline logPipeline) {
+		this.logPipeline = logPipeline;
+	}
+
+	/**
+	 * The in-memory channels for apps that use them (defaults to a single instance for
+	 * the whole JVM).
+	 *
+	 * @param localChannelRegistry the channel registry to set
+	 */
+	public void setLocalChannelRegistry(LocalChannelRegistry localChannelRegistry) {
+		this.localChannelRegistry = localChannelRegistry;
+	}
+
+	public LocalChannelRegistry getLocalChannelRegistry() {
+		return this.localChannelRegistry;
+	}
+
+	/**
+	 * The monitor that accounts for CPU, memory and threads used by each app (defaults
+	 * to a single instance for the whole JVM). Set it to null to switch off accounting.
+	 *
+	 * @param resourceMonitor the resource monitor to set
+	 */
+	public void setResourceMonitor(AppResourceMonitor resourceMonitor) {
+		this.resourceMonitor = resourceMonitor;
+	}
+
+	/**
+	 * The preloader that records the classes each app loads when it starts and loads
+	 * them in parallel the next time. Set it to null to switch off preloading.
+	 *
+	 * @param classPreloader the class preloader to set
+	 */
+	public void setClassPreloader(ClassPreloader classPreloader) {
+		this.classPreloader = classPreloader;
+	}
+
+	/**
+	 * The pool of request processing threads for web apps that share one (defaults to a
+	 * single instance for the whole JVM).
+	 *
+	 * @param sharedWebExecutor the shared executor to set
+	 */
+	public void setSharedWebExecutor(SharedWebExecutor sharedWebExecutor) {
+		this.sharedWebExecutor = sharedWebExecutor;
+	}
+
+	public SharedWebExecutor getSharedWebExecutor() {
+		return this.sharedWebExecutor;
+	}
+
+	/**
+	 * The budget of request processing threads for all web apps (defaults to a single
+	 * instance for the whole JVM, with no limit).
+	 *
+	 * @param threadBudget the thread budget to set
+	 */
+	public void setThreadBudget(ThreadBudget threadBudget) {
+		this.threadBudget = threadBudget;
+	}
+
+	public ThreadBudget getThreadBudget() {
+		return this.threadBudget;
+	}
+
+	/**
+	 * The maximum number of request processing threads for a web app, unless it is set
+	 * with {@link #MAX_THREADS_PROPERTY_KEY}. Default 0, which leaves it to the app,
+	 * unless the {@link ThreadBudget} has a limit, in which case Tomcat's default (200)
+	 * is reserved. An app that sets a lower value itself keeps it.
+	 *
+	 * @param maxThreads the maximum number of threads to set
+	 */
+	public void setMaxThreads(int maxThreads) {
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * The fetcher used to download dependencies in parallel (defaults to a single
+	 * instance for the whole JVM, using Maven Central).
+	 *
+	 * @param artifactFetcher the artifact fetcher to set
+	 */
+	public void setArtifactFetcher(ArtifactFetcher artifactFetcher) {
+		this.artifactFetcher = artifactFetcher;
+	}
+
+	/**
+	 * Flag to say that dependencies should be downloaded in parallel before resolving
+	 * the classpath of an app (can be overridden per deployment with
+	 * {@link #PREFETCH_PROPERTY_KEY}).
+	 *
+	 * @param prefetch the flag value to set
+	 */
+	public void setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+	}
+
+	/**
+	 * The admission control that checks there is enough memory to start an app
+	 * (defaults to a single instance for the whole JVM, null to switch it off).
+	 *
+	 * @param memoryAdmission the admission control to set
+	 */
+	public void setMemoryAdmission(MemoryAdmission memoryAdmission) {
+		this.memoryAdmission = memoryAdmission;
+	}
+
+	/**
+	 * What to do by default if there is not enough memory to start an app (can be
+	 * overridden per deployment with {@link #MEMORY_POLICY_PROPERTY_KEY}).
+	 *
+	 * @param memoryPolicy the policy to set
+	 */
+	public void setMemoryPolicy(MemoryAdmission.Policy memoryPolicy) {
+		this.memoryPolicy = memoryPolicy;
+	}
+
+	/**
+	 * How long (millis) the health of an app is cached by default (can be overridden per
+	 * deployment with {@link #HEALTH_TTL_PROPERTY_KEY}).
+	 *
+	 * @param healthTtl the time to live to set
+	 */
+	public void setHealthTtl(long healthTtl) {
+		this.healthTtl = healthTtl;
+	}
+
+	/**
+	 * The number of slowest beans to show in the status attributes of an app deployed
+	 * with {@link #PROFILE_PROPERTY_KEY} (can be overridden per deployment with
+	 * {@link #PROFILE_TOP_PROPERTY_KEY}).
+	 *
+	 * @param profileTop the number of beans to set
+	 */
+	public void setProfileTop(int profileTop) {
+		this.profileTop = profileTop;
+	}
+
+	/**
+	 * A journal to record the apps that are deployed, so they can be restored (with
+	 * {@link #restore()}) if the deployer restarts. Default null (no journal).
+	 *
+	 * @param journal the journal to set
+	 */
+	public void setJournal(DeploymentJournal journal) {
+		this.journal = journal;
+	}
+
+	/**
+	 * @param restoreThreads the number of apps to start at the same time when restoring
+	 * from the journal
+	 */
+	public void setRestoreThreads(int restoreThreads) {
+		this.restoreThreads = restoreThreads;
+	}
+
+	/**
+	 * @return the time (millis) it took to restore all the apps in the journal the last
+	 * time {@link #restore()} was called (or -1 if it has not been called)
+	 */
+	public long getRecoveryTime() {
+		return this.recoveryTime;
+	}
+
+	/**
+	 * The prefixes of properties that cannot be changed in a running app (changing one
+	 * of them with {@link #update(String, Map)} restarts the app). Defaults to the
+	 * server, profiles, JMX and auto-configuration properties, and a few others that are
+	 * only read when the app starts.
+	 *
+	 * @param restartPrefixes the prefixes to set
+	 */
+	public void setRestartPrefixes(List<String> restartPrefixes) {
+		this.restartPrefixes = new ArrayList<>(restartPrefixes);
+	}
+
 	public String deploy(AppDeploymentRequest request) {
-		ThinJarAppWrapper wrapper = new ThinJarAppWrapper(request.getResource(), getName(request),
-				getProfiles(request));
+		ThinJarAppWrapper wrapper = createWrapper(null, request);
 		String id = wrapper.getId();
-		if (!apps.containsKey(id)) {
-			apps.put(id, wrapper);
+		synchronized (this) {
+			ThinJarAppWrapper existing = apps.get(id);
+			if (existing != null) {
+				LaunchState state = existing.getState();
+				AppDeploymentRequest current = this.requests.get(id);
+				if (state == LaunchState.launching) {
+					// Another deployment of the same app is in progress
+					return id;
+				}
+				if (state == LaunchState.running && current != null) {
+					// Already running: apply the new request, restarting only if
+					// necessary
+					apply(existing, current, request);
+					return id;
+				}
+			}
+			replace(existing, wrapper, request);
+		}
+		run(wrapper, request);
+		return id;
+	}
+
+	/**
+	 * Swap a wrapper for a new one, which has the configuration from the latest request
+	 * (the deployment properties are only read when a wrapper is created), stopping the
+	 * old one if it is still running. The new one is marked as launching, so callers
+	 * holding the lock on this can tell that it is about to be run.
+	 */
+	private void replace(ThinJarAppWrapper existing, ThinJarAppWrapper wrapper,
+			AppDeploymentRequest request) {
+		if (existing != null) {
+			existing.cancel();
+		}
+		apps.put(wrapper.getId(), wrapper);
+		this.requests.put(wrapper.getId(), request);
+		wrapper.launching();
+	}
+
+	/**
+	 * Change some properties of a running app. If none of them need a restart (see
+	 * {@link #setRestartPrefixes(List)}) they are added to the environment of the
+	 * running app and its <code>@ConfigurationProperties</code> beans are bound again.
+	 * Otherwise the app is restarted with the new properties.
+	 *
+	 * @param id the app id
+	 * @param properties the properties to change
+	 * @return true if the app had to be restarted
+	 * @throws IllegalStateException if the app is not running
+	 */
+	public boolean update(String id, Map<String, String> properties) {
+		ThinJarAppWrapper wrapper = apps.get(id);
+		AppDeploymentRequest current = this.requests.get(id);
+		if (wrapper == null || current == null
+				|| wrapper.getState() != LaunchState.running) {
+			throw new IllegalStateException("App is not running: " + id);
+		}
+		Map<String, String> merged = new LinkedHashMap<>(
+				current.getDefinition().getProperties());
+		merged.putAll(properties);
+		return apply(wrapper, current,
+				new AppDeploymentRequest(
+						new AppDefinition(current.getDefinition().getName(), merged),
+						current.getResource(), current.getDeploymentProperties(),
+						current.getCommandlineArguments()));
+	}
+
+	private synchronized boolean apply(ThinJarAppWrapper wrapper,
+			AppDeploymentRequest current, AppDeploymentRequest request) {
+		Map<String, String> before = current.getDefinition().getProperties();
+		Map<String, String> after = request.getDefinition().getProperties();
+		Map<String, String> changes = new LinkedHashMap<>();
+		for (Map.Entry<String, String> entry : after.entrySet()) {
+			if (!ObjectUtils.nullSafeEquals(entry.getValue(),
+					before.get(entry.getKey()))) {
+				changes.put(entry.getKey(), entry.getValue());
+			}
+		}
+		boolean restart = !after.keySet().containsAll(before.keySet())
+				|| !ObjectUtils.nullSafeEquals(current.getDeploymentProperties(),
+						request.getDeploymentProperties())
+				|| !ObjectUtils.nullSafeEquals(current.getCommandlineArguments(),
+						request.getCommandlineArguments())
+				|| !ObjectUtils.nullSafeEquals(current.getResource(),
+						request.getResource());
+		for (String key : changes.keySet()) {
+			restart = restart || needsRestart(key);
+		}
+		if (restart) {
+			logger.info("Restarting " + wrapper.getId() + " to apply changes");
+			// A new wrapper, so the new deployment properties are applied as well
+			ThinJarAppWrapper replacement = createWrapper(wrapper.getId(), request);
+			replace(wrapper, replacement, request);
+			run(replacement, request);
+			return true;
 		}
-		else {
-			wrapper = apps.get(id);
+		if (!changes.isEmpty()) {
+			wrapper.update(changes);
+			this.requests.put(wrapper.getId(), request);
+			if (this.journal != null) {
+				record(wrapper, request);
+			}
 		}
+		return false;
+	}
+
+	private boolean needsRestart(String key) {
+		for (String prefix : this.restartPrefixes) {
+			if (key.startsWith(prefix)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Deploy all the apps in the journal (if there is one), in parallel, using the
+	 * classpath recorded when they were last deployed. Apps that fail to start are
+	 * removed from the journal.
+	 *
+	 * @return the ids of the apps that were restored and are running
+	 */
+	public List<String> restore() {
+		if (this.journal == null) {
+			return Collections.emptyList();
+		}
+		long start = System.nanoTime();
+		List<DeploymentJournal.Entry> entries = this.journal.load();
+		ExecutorService executor = Executors.newFixedThreadPool(this.restoreThreads);
+		List<String> restored = new ArrayList<>();
+		try {
+			List<Future<ThinJarAppWrapper>> futures = new ArrayList<>();
+			for (DeploymentJournal.Entry entry : entries) {
+				futures.add(executor.submit(() -> restore(entry)));
+			}
+			for (int i = 0; i < futures.size(); i++) {
+				String id = entries.get(i).getId();
+				try {
+					ThinJarAppWrapper wrapper = futures.get(i).get();
+					if (wrapper.getState() == LaunchState.running) {
+						restored.add(id);
+					}
+					else {
+						this.journal.remove(id);
+					}
+				}
+				catch (Exception e) {
+					logger.error("Cannot restore " + id, e);
+					this.journal.remove(id);
+				}
+			}
+		}
+		finally {
+			executor.shutdown();
+		}
+		this.recoveryTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		logger.info("Restored " + restored.size() + " of " + entries.size()
+				+ " apps in " + this.recoveryTime + "ms");
+		return restored;
+	}
+
+	private ThinJarAppWrapper restore(DeploymentJournal.Entry entry) {
+		AppDeploymentRequest request = entry.toRequest();
+		ThinJarAppWrapper wrapper = createWrapper(entry.getId(), request);
+		wrapper.setClasspath(entry.getClasspath(), entry.getMainClass());
+		synchronized (this) {
+			ThinJarAppWrapper existing = apps.get(entry.getId());
+			if (existing != null && (existing.getState() == LaunchState.running
+					|| existing.getState() == LaunchState.launching)) {
+				return existing;
+			}
+			replace(existing, wrapper, request);
+		}
+		run(wrapper, request);
+		return wrapper;
+	}
+
+	protected ThinJarAppWrapper createWrapper(String id, AppDeploymentRequest request) {
+		ThinJarAppWrapper wrapper = new ThinJarAppWrapper(id, request.getResource(),
+				getName(request), getProfiles(request), this.archiveCache);
+		wrapper.setResourceMonitor(this.resourceMonitor);
+		wrapper.setClassPreloader(this.classPreloader);
+		String maxThreads = request.getDeploymentProperties()
+				.get(MAX_THREADS_PROPERTY_KEY);
+		int limit = maxThreads == null ? this.maxThreads : Integer.parseInt(maxThreads);
+		boolean budget = this.threadBudget != null && this.threadBudget.getMax() > 0;
+		// With an external executor the connector's own thread pool is not used
+		if (!hasExternalExecutor(request) && (limit > 0 || budget)) {
+			wrapper.setThreadBudget(budget ? this.threadBudget : null,
+					limit > 0 ? limit : DEFAULT_MAX_THREADS);
+		}
+		String prefetch = request.getDeploymentProperties().get(PREFETCH_PROPERTY_KEY);
+		if (prefetch != null ? Boolean.valueOf(prefetch) : this.prefetch) {
+			wrapper.setArtifactFetcher(this.artifactFetcher);
+		}
+		if (isKeepWarm(request)) {
+			wrapper.setClassLoaderPool(this.classLoaderPool);
+		}
+		String healthTtl = request.getDeploymentProperties()
+				.get(HEALTH_TTL_PROPERTY_KEY);
+		wrapper.setHealthTtl(
+				healthTtl == null ? this.healthTtl : Long.parseLong(healthTtl));
+		String policy = request.getDeploymentProperties()
+				.get(MEMORY_POLICY_PROPERTY_KEY);
+		if (this.memoryAdmission != null && !"none".equalsIgnoreCase(policy)) {
+			wrapper.setMemoryAdmission(this.memoryAdmission,
+					policy == null ? this.memoryPolicy
+							: MemoryAdmission.Policy.valueOf(policy.toUpperCase()));
+		}
+		Map<String, String> deployment = request.getDeploymentProperties();
+		if (Boolean.valueOf(deployment.get(ASYNC_LOG_PROPERTY_KEY))) {
+			String size = deployment.get(LOG_BUFFER_SIZE_PROPERTY_KEY);
+			String overflow = deployment.get(LOG_OVERFLOW_PROPERTY_KEY);
+			wrapper.setLogPipeline(this.logPipeline,
+					size == null ? 8192 : Integer.parseInt(size),
+					overflow == null ? Overflow.DROP
+							: Overflow.valueOf(overflow.toUpperCase()));
+		}
+		wrapper.setLazyInit(Boolean.valueOf(deployment.get(LAZY_INIT_PROPERTY_KEY)));
+		if (Boolean.valueOf(deployment.get(PROFILE_PROPERTY_KEY))) {
+			String top = deployment.get(PROFILE_TOP_PROPERTY_KEY);
+			wrapper.setProfile(
+					Math.max(1, top == null ? this.profileTop : Integer.parseInt(top)));
+		}
+		wrapper.setVirtualThreads(
+				Boolean.valueOf(deployment.get(VIRTUAL_THREADS_PROPERTY_KEY))
+						&& VirtualThreads.isAvailable());
+		if (Boolean.valueOf(deployment.get(PRUNE_AUTOCONFIG_PROPERTY_KEY))) {
+			wrapper.setAutoConfigurationPruner(
+					new AutoConfigurationPruner(this.archiveCache));
+		}
+		if (Boolean.valueOf(deployment.get(SHARED_WEB_EXECUTOR_PROPERTY_KEY))) {
+			wrapper.addBean(SharedWebExecutor.BEAN_NAME,
+					this.sharedWebExecutor.getExecutor());
+		}
+		if (Boolean.valueOf(deployment.get(LOCAL_CHANNELS_PROPERTY_KEY))) {
+			wrapper.setLocalChannels(this.localChannelRegistry);
+		}
+		return wrapper;
+	}
+
+	protected void run(ThinJarAppWrapper wrapper, AppDeploymentRequest request) {
+		this.requests.put(wrapper.getId(), request);
 		wrapper.run(getProperties(request), request.getCommandlineArguments());
-		return id;
+		if (this.journal != null && wrapper.getState() == LaunchState.running) {
+			record(wrapper, request);
+		}
+	}
+
+	private void record(ThinJarAppWrapper wrapper, AppDeploymentRequest request) {
+		try {
+			this.journal.save(new DeploymentJournal.Entry(wrapper.getId(),
+					request.getResource().getFile(), request.getDefinition().getName(),
+					request.getDefinition().getProperties(),
+					request.getDeploymentProperties(),
+					request.getCommandlineArguments(), wrapper.getClasspath(),
+					wrapper.getMainClass(),
+					wrapper.getProperties().get("server.port")));
+		}
+		catch (IOException e) {
+			logger.warn("Cannot record " + wrapper.getId(), e);
+		}
+	}
+
+	protected void register(ThinJarAppWrapper wrapper) {
+		apps.put(wrapper.getId(), wrapper);
+	}
+
+	protected ThinJarAppWrapper unregister(String id) {
+		this.requests.remove(id);
+		return apps.remove(id);
 	}
 
 	protected Map<String, String> getProperties(AppDeploymentRequest request) {
@@ -74,12 +747,37 @@ public class AbstractThinJarSupport {
 		properties.put(JMX_DEFAULT_DOMAIN_KEY, deploymentId);
 		properties.put("endpoints.shutdown.enabled", "true");
 		properties.put("endpoints.jmx.unique-names", "true");
+		// The app does not need its own copy of the resolver (if it has one)
+		properties.put("spring.cloud.deployer.thin.resolver.eager", "false");
+		String contextPath = request.getDeploymentProperties()
+				.get(CONTEXT_PATH_PROPERTY_KEY);
+		if (contextPath != null) {
+			properties.put("server.context-path", contextPath);
+		}
+		if (Boolean.valueOf(request.getDeploymentProperties()
+				.get(VIRTUAL_THREADS_PROPERTY_KEY))) {
+			properties.put(VIRTUAL_THREADS_PROPERTY_KEY, "true");
+		}
+		limit(request, properties, ACCEPT_COUNT_PROPERTY_KEY,
+				"server.tomcat.accept-count");
+		limit(request, properties, MAX_CONNECTIONS_PROPERTY_KEY,
+				"server.tomcat.max-connections");
 		if (group != null) {
 			properties.put("spring.cloud.application.group", group);
 		}
 		return properties;
 	}
 
+	private void limit(AppDeploymentRequest request, Map<String, String> properties,
+			String key, String serverKey) {
+		String value = request.getDeploymentProperties().get(key);
+		if (value != null) {
+			// The deployment property is enforced by ThinJarTomcatAutoConfiguration
+			properties.put(key, value);
+			properties.put(serverKey, value);
+		}
+	}
+
 	private String[] getProfiles(AppDeploymentRequest request) {
 		if (request.getDeploymentProperties()
 				.containsKey(AppDeployer.PREFIX + ThinJarLauncher.THIN_PROFILE)) {
@@ -90,6 +788,18 @@ public class AbstractThinJarSupport {
 		return this.profiles;
 	}
 
+	private boolean hasExternalExecutor(AppDeploymentRequest request) {
+		Map<String, String> deployment = request.getDeploymentProperties();
+		return Boolean.valueOf(deployment.get(SHARED_WEB_EXECUTOR_PROPERTY_KEY))
+				|| Boolean.valueOf(deployment.get(VIRTUAL_THREADS_PROPERTY_KEY))
+						&& VirtualThreads.isAvailable();
+	}
+
+	private boolean isKeepWarm(AppDeploymentRequest request) {
+		String value = request.getDeploymentProperties().get(KEEP_WARM_PROPERTY_KEY);
+		return value != null ? Boolean.valueOf(value) : this.keepWarm;
+	}
+
 	private String getName(AppDeploymentRequest request) {
 		if (request.getDeploymentProperties()
 				.containsKey(AppDeployer.PREFIX + ThinJarLauncher.THIN_NAME)) {
@@ -100,13 +810,21 @@ public class AbstractThinJarSupport {
 	}
 
 	public void cancel(String id) {
+		this.requests.remove(id);
 		if (apps.containsKey(id)) {
 			apps.get(id).cancel();
 		}
+		if (this.journal != null) {
+			this.journal.remove(id);
+		}
 	}
 
 	protected ThinJarAppWrapper getWrapper(String id) {
 		return apps.get(id);
 	}
 
+	protected Collection<ThinJarAppWrapper> getWrappers() {
+		return apps.values();
+	}
+
 }
\ No newline at end of file
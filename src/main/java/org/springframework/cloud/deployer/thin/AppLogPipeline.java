@@ -0,0 +1,190 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import org.springframework.cloud.deployer.thin.LogRingBuffer.Overflow;
+
+/**
+ * Asynchronous logging for deployed apps. Each app gets its own {@link LogRingBuffer},
+ * and a single shared writer thread drains them all to the console, tagging every line
+ * with the deployment id, so that chatty apps do not contend on a shared synchronous
+ * appender. The writer waits without spinning when there is nothing to write, and is
+ * woken up by the next line.
+ *
+ * @author Dave Syer
+ *
+ */
+public class AppLogPipeline {
+
+	private static final AppLogPipeline INSTANCE = new AppLogPipeline(System.out);
+
+	private static final int BATCH_SIZE = 256;
+
+	private final PrintStream output;
+
+	private final List<LogRingBuffer> buffers = new CopyOnWriteArrayList<>();
+
+	private volatile Thread writer;
+
+	private volatile boolean waiting;
+
+	public AppLogPipeline(PrintStream output) {
+		this.output = output;
+	}
+
+	/**
+	 * The shared instance used by default by all deployers in this JVM.
+	 *
+	 * @return the shared pipeline
+	 */
+	public static AppLogPipeline getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Create a buffer for a deployed app and start draining it.
+	 *
+	 * @param id the deployment id
+	 * @param capacity the capacity of the buffer
+	 * @param overflow the policy when the buffer is full
+	 * @return a buffer
+	 */
+	public LogRingBuffer register(String id, int capacity, Overflow overflow) {
+		LogRingBuffer buffer = new LogRingBuffer(id, capacity, overflow, this::signal);
+		this.buffers.add(buffer);
+		start();
+		return buffer;
+	}
+
+	/**
+	 * Stop accepting lines from the buffer provided. Lines that are already in the
+	 * buffer are still written.
+	 *
+	 * @param buffer a buffer that was registered
+	 */
+	public void unregister(LogRingBuffer buffer) {
+		buffer.close();
+		// So the writer can discard it
+		signal();
+	}
+
+	/**
+	 * @param buffer a buffer (may be null)
+	 * @return metrics for the buffer (lines logged and dropped and the recent rate)
+	 */
+	public static Map<String, String> getMetrics(LogRingBuffer buffer) {
+		Map<String, String> metrics = new LinkedHashMap<>();
+		if (buffer != null) {
+			metrics.put("log.events", String.valueOf(buffer.getEvents()));
+			metrics.put("log.dropped", String.valueOf(buffer.getDropped()));
+			metrics.put("log.rate",
+					String.format(Locale.ROOT, "%.1f", buffer.getRate()));
+		}
+		return metrics;
+	}
+
+	private synchronized void start() {
+		if (this.writer == null) {
+			this.writer = new Thread(this::write, "thin-log-writer");
+			this.writer.setDaemon(true);
+			this.writer.start();
+		}
+	}
+
+	/**
+	 * Wake up the writer if it is waiting for lines.
+	 */
+	private void signal() {
+		if (this.waiting) {
+			Thread writer = this.writer;
+			if (writer != null) {
+				LockSupport.unpark(writer);
+			}
+		}
+	}
+
+	private void write() {
+		long sample = TimeUnit.SECONDS.toNanos(1);
+		long lastSample = System.nanoTime();
+		while (true) {
+			int count = 0;
+			for (LogRingBuffer buffer : this.buffers) {
+				String prefix = "[" + buffer.getId() + "] ";
+				count += buffer.drain(line -> {
+					this.output.print(prefix);
+					this.output.print(line);
+				}, BATCH_SIZE);
+				if (buffer.isClosed() && buffer.isEmpty()) {
+					this.buffers.remove(buffer);
+				}
+			}
+			if (count > 0) {
+				this.output.flush();
+			}
+			else {
+				this.waiting = true;
+				// Check again after setting the flag, so a signal cannot be missed
+				if (isIdle()) {
+					if (isQuiet()) {
+						LockSupport.park(this);
+					}
+					else {
+						// Wake up anyway in time to sample the rates
+						LockSupport.parkNanos(this, Math.max(0,
+								sample - (System.nanoTime() - lastSample)));
+					}
+				}
+				this.waiting = false;
+			}
+			long now = System.nanoTime();
+			if (now - lastSample > sample) {
+				for (LogRingBuffer buffer : this.buffers) {
+					buffer.sample();
+				}
+				lastSample = now;
+			}
+		}
+	}
+
+	private boolean isIdle() {
+		for (LogRingBuffer buffer : this.buffers) {
+			if (!buffer.isEmpty() || buffer.isClosed()) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private boolean isQuiet() {
+		// No need to sample the rates again until there are more lines
+		for (LogRingBuffer buffer : this.buffers) {
+			if (buffer.getRate() > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+}
@@ -0,0 +1,258 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accounts for the CPU time, allocated memory and threads of each deployed app. Every
+ * app runs in its own {@link ThreadGroup}, so threads it starts (and threads they start)
+ * are tied to it. The threads in each group are sampled periodically, and the totals
+ * include threads that have already finished.
+ *
+ * @author Dave Syer
+ *
+ */
+public class AppResourceMonitor {
+
+	private static final AppResourceMonitor INSTANCE = new AppResourceMonitor(
+			TimeUnit.SECONDS.toMillis(1));
+
+	private final ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+
+	private final List<Usage> usages = new CopyOnWriteArrayList<>();
+
+	private final long period;
+
+	private ScheduledExecutorService sampler;
+
+	/**
+	 * @param period the sampling period in millis
+	 */
+	public AppResourceMonitor(long period) {
+		this.period = period;
+	}
+
+	/**
+	 * The shared instance used by default by all deployers in this JVM.
+	 *
+	 * @return the shared monitor
+	 */
+	public static AppResourceMonitor getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Start monitoring a new app.
+	 *
+	 * @param id the deployment id
+	 * @return the usage of the app, with a thread group to run it in
+	 */
+	public Usage register(String id) {
+		Usage usage = new Usage(new ThreadGroup("thin-" + id));
+		this.usages.add(usage);
+		start();
+		return usage;
+	}
+
+	/**
+	 * Stop monitoring an app (after taking a final sample).
+	 *
+	 * @param usage the usage of the app
+	 */
+	public void unregister(Usage usage) {
+		usage.sample(this.threads);
+		this.usages.remove(usage);
+	}
+
+	private synchronized void start() {
+		if (this.sampler == null) {
+			if (this.threads.isThreadCpuTimeSupported()
+					&& !this.threads.isThreadCpuTimeEnabled()) {
+				this.threads.setThreadCpuTimeEnabled(true);
+			}
+			this.sampler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "thin-resource-monitor");
+				thread.setDaemon(true);
+				return thread;
+			});
+			this.sampler.scheduleWithFixedDelay(this::sample, this.period, this.period,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void sample() {
+		for (Usage usage : this.usages) {
+			usage.sample(this.threads);
+		}
+	}
+
+	/**
+	 * The resources used by one app.
+	 */
+	public static class Usage {
+
+		private final ThreadGroup threadGroup;
+
+		/**
+		 * CPU time (nanos) and allocated bytes of live threads at the last sample, keyed
+		 * by thread id.
+		 */
+		private Map<Long, long[]> live = new HashMap<>();
+
+		private long retiredCpuTime;
+
+		private long retiredAllocated;
+
+		private long cpuTime;
+
+		private long allocated;
+
+		private int liveThreads;
+
+		private int peakThreads;
+
+		private long lastSampleTime = System.nanoTime();
+
+		private double cpuUsage;
+
+		Usage(ThreadGroup threadGroup) {
+			this.threadGroup = threadGroup;
+		}
+
+		public ThreadGroup getThreadGroup() {
+			return this.threadGroup;
+		}
+
+		synchronized void sample(ThreadMXBean bean) {
+			Thread[] threads = new Thread[this.threadGroup.activeCount() + 8];
+			int count = this.threadGroup.enumerate(threads, true);
+			long[] ids = new long[count];
+			for (int i = 0; i < count; i++) {
+				ids[i] = threads[i].getId();
+			}
+			long[] cpu = cpuTimes(bean, ids);
+			long[] bytes = allocatedBytes(bean, ids);
+			Map<Long, long[]> current = new HashMap<>();
+			long cpuTotal = 0;
+			long bytesTotal = 0;
+			for (int i = 0; i < count; i++) {
+				long[] values = new long[] { Math.max(cpu[i], 0), Math.max(bytes[i], 0) };
+				current.put(ids[i], values);
+				cpuTotal += values[0];
+				bytesTotal += values[1];
+			}
+			for (Map.Entry<Long, long[]> entry : this.live.entrySet()) {
+				if (!current.containsKey(entry.getKey())) {
+					// Finished since the last sample
+					this.retiredCpuTime += entry.getValue()[0];
+					this.retiredAllocated += entry.getValue()[1];
+				}
+			}
+			this.live = current;
+			long now = System.nanoTime();
+			long cpuTime = this.retiredCpuTime + cpuTotal;
+			if (now > this.lastSampleTime) {
+				this.cpuUsage = (double) (cpuTime - this.cpuTime)
+						/ (now - this.lastSampleTime);
+			}
+			this.lastSampleTime = now;
+			this.cpuTime = cpuTime;
+			this.allocated = this.retiredAllocated + bytesTotal;
+			this.liveThreads = count;
+			this.peakThreads = Math.max(this.peakThreads, count);
+		}
+
+		private long[] cpuTimes(ThreadMXBean bean, long[] ids) {
+			long[] result = new long[ids.length];
+			if (bean.isThreadCpuTimeSupported()) {
+				if (bean instanceof com.sun.management.ThreadMXBean) {
+					return ((com.sun.management.ThreadMXBean) bean).getThreadCpuTime(ids);
+				}
+				for (int i = 0; i < ids.length; i++) {
+					result[i] = bean.getThreadCpuTime(ids[i]);
+				}
+			}
+			return result;
+		}
+
+		private long[] allocatedBytes(ThreadMXBean bean, long[] ids) {
+			if (bean instanceof com.sun.management.ThreadMXBean) {
+				com.sun.management.ThreadMXBean sun = (com.sun.management.ThreadMXBean) bean;
+				if (sun.isThreadAllocatedMemorySupported()
+						&& sun.isThreadAllocatedMemoryEnabled()) {
+					return sun.getThreadAllocatedBytes(ids);
+				}
+			}
+			return new long[ids.length];
+		}
+
+		/**
+		 * @return total CPU time (nanos) of all threads in the app so far
+		 */
+		public synchronized long getCpuTime() {
+			return this.cpuTime;
+		}
+
+		/**
+		 * @return total bytes allocated by all threads in the app so far
+		 */
+		public synchronized long getAllocated() {
+			return this.allocated;
+		}
+
+		public synchronized int getLiveThreads() {
+			return this.liveThreads;
+		}
+
+		public synchronized int getPeakThreads() {
+			return this.peakThreads;
+		}
+
+		/**
+		 * @return the CPU usage (in cores) over the last sampling period
+		 */
+		public synchronized double getCpuUsage() {
+			return this.cpuUsage;
+		}
+
+		public Map<String, String> getMetrics() {
+			Map<String, String> metrics = new LinkedHashMap<>();
+			synchronized (this) {
+				metrics.put("cpu.time", String.valueOf(
+						TimeUnit.NANOSECONDS.toMillis(this.cpuTime)));
+				metrics.put("cpu.usage",
+						String.format(Locale.ROOT, "%.3f", this.cpuUsage));
+				metrics.put("memory.allocated", String.valueOf(this.allocated));
+				metrics.put("threads.live", String.valueOf(this.liveThreads));
+				metrics.put("threads.peak", String.valueOf(this.peakThreads));
+			}
+			return metrics;
+		}
+
+	}
+
+}
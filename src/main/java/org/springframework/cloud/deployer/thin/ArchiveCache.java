@@ -0,0 +1,473 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.util.DigestUtils;
+import org.springframework.util.FileSystemUtils;
+import org.springframework.util.StreamUtils;
+
+/**
+ * A content-addressed cache of nested class roots (e.g. <code>BOOT-INF/classes/</code>)
+ * extracted from deployed jars. Each distinct jar (by content digest) is materialized
+ * once into a directory under the cache root, and every deployment of the same artifact
+ * shares that copy. The cache is bounded by total size on disk and evicts the least
+ * recently used entries, as long as they are not in use by a deployed app. Entries left
+ * in the cache directory by earlier runs are counted (and evicted first) when the cache
+ * is first used. Other processes can share the same directory: each one holds a shared
+ * file lock on the digests it is using, and an entry is only deleted if an exclusive
+ * lock can be taken.
+ *
+ * @author Dave Syer
+ *
+ */
+public class ArchiveCache {
+
+	private static final Log logger = LogFactory.getLog(ArchiveCache.class);
+
+	private static final long DEFAULT_MAX_SIZE = 512L * 1024 * 1024;
+
+	private static final ArchiveCache INSTANCE = new ArchiveCache(
+			new File(System.getProperty("java.io.tmpdir"), "thin-deployer"),
+			DEFAULT_MAX_SIZE);
+
+	private final File directory;
+
+	private final long maxSize;
+
+	/**
+	 * Digests of jar files keyed by path, length and modification time, so that an
+	 * unchanged file is only ever read once to compute its digest.
+	 */
+	private final Map<String, String> digests = new ConcurrentHashMap<>();
+
+	/**
+	 * Entries in access order (guarded by this).
+	 */
+	private final Map<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+
+	/**
+	 * Shared file locks on the digests of the entries in use, i.e. with references
+	 * (guarded by this).
+	 */
+	private final Map<String, FileLock> locks = new HashMap<>();
+
+	private long size = 0;
+
+	private boolean scanned;
+
+	public ArchiveCache(File directory, long maxSize) {
+		this.directory = directory;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * The shared instance used by default by all deployers in this JVM.
+	 *
+	 * @return the shared cache
+	 */
+	public static ArchiveCache getInstance() {
+		return INSTANCE;
+	}
+
+	public File getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * A directory that can be used to store data associated with a particular archive
+	 * digest. Lives alongside (but is not managed by) the nested class cache.
+	 *
+	 * @param digest the digest of an archive
+	 * @return a directory (created if necessary)
+	 */
+	public File getDirectory(String digest) {
+		File dir = new File(new File(this.directory, "data"), digest);
+		dir.mkdirs();
+		return dir;
+	}
+
+	/**
+	 * Compute (or look up) a content digest for the file provided.
+	 *
+	 * @param file a file
+	 * @return a hex digest of the file contents
+	 */
+	public String digest(File file) {
+		String key = file.getAbsolutePath() + ":" + file.length() + ":"
+				+ file.lastModified();
+		return this.digests.computeIfAbsent(key, k -> computeDigest(file));
+	}
+
+	/**
+	 * Acquire a URL for the nested class root with the given prefix in the jar file,
+	 * extracting it if necessary. Callers must {@link #release(String) release} the key
+	 * returned when they no longer need the URL.
+	 *
+	 * @param jar a jar file
+	 * @param prefix the path of the nested class root (ending in "/")
+	 * @return the key of the cache entry or null if there is no such root
+	 */
+	public String acquire(File jar, String prefix) {
+		String digest = digest(jar);
+		String key = digest + "/" + prefix;
+		Entry entry;
+		synchronized (this) {
+			scan();
+			entry = this.entries.get(key);
+			if (entry == null) {
+				Entry stale = this.entries.remove(digest + "/");
+				if (stale != null) {
+					// Left over from an earlier run, so the new entry takes it over
+					this.size -= stale.size;
+				}
+				entry = new Entry(digest, new File(this.directory, key));
+				this.entries.put(key, entry);
+			}
+			entry.references++;
+			share(digest);
+		}
+		boolean added;
+		try {
+			added = entry.populate(jar, prefix);
+		}
+		catch (RuntimeException e) {
+			release(key);
+			throw e;
+		}
+		if (!entry.exists()) {
+			release(key);
+			return null;
+		}
+		if (added) {
+			synchronized (this) {
+				this.size += entry.size;
+				evict();
+			}
+		}
+		return key;
+	}
+
+	/**
+	 * The URL of a previously acquired entry.
+	 *
+	 * @param key the key of an entry
+	 * @return a URL for the extracted class root
+	 */
+	public URL getUrl(String key) {
+		Entry entry;
+		synchronized (this) {
+			entry = this.entries.get(key);
+		}
+		if (entry == null) {
+			throw new IllegalStateException("No such cache entry: " + key);
+		}
+		try {
+			return entry.root.toURI().toURL();
+		}
+		catch (MalformedURLException e) {
+			throw new IllegalStateException("Cannot create URL", e);
+		}
+	}
+
+	public synchronized void release(String key) {
+		Entry entry = this.entries.get(key);
+		if (entry != null && entry.references > 0) {
+			entry.references--;
+			if (!isInUse(entry.digest)) {
+				unshare(entry.digest);
+			}
+		}
+		evict();
+	}
+
+	public synchronized long getSize() {
+		return this.size;
+	}
+
+	private void scan() {
+		if (this.scanned) {
+			return;
+		}
+		this.scanned = true;
+		File[] children = this.directory.listFiles(
+				file -> file.isDirectory() && file.getName().matches("[0-9a-f]{32}"));
+		if (children == null) {
+			return;
+		}
+		// Oldest first so they are the first to be evicted
+		Arrays.sort(children, Comparator.comparingLong(File::lastModified));
+		for (File child : children) {
+			Entry entry = new Entry(child.getName(), child);
+			entry.populated = true;
+			entry.size = Entry.sizeOf(child);
+			this.entries.put(child.getName() + "/", entry);
+			this.size += entry.size;
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Found " + children.length + " cached archives (" + this.size
+					+ " bytes) in " + this.directory);
+		}
+		evict();
+	}
+
+	private void evict() {
+		for (Iterator<Entry> iterator = this.entries.values().iterator(); iterator
+				.hasNext() && this.size > this.maxSize;) {
+			Entry entry = iterator.next();
+			if (entry.references > 0 || isShared(entry)) {
+				continue;
+			}
+			iterator.remove();
+			this.size -= entry.size;
+			if (delete(entry)) {
+				if (logger.isDebugEnabled()) {
+					logger.debug("Evicted cached classes: " + entry.root);
+				}
+			}
+			else if (logger.isDebugEnabled()) {
+				logger.debug("Cached classes in use by another process: " + entry.root);
+			}
+		}
+	}
+
+	private boolean isInUse(String digest) {
+		for (Entry entry : this.entries.values()) {
+			if (entry.references > 0 && entry.digest.equals(digest)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isShared(Entry entry) {
+		for (Entry other : this.entries.values()) {
+			if (other != entry && other.digest.equals(entry.digest)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private void share(String digest) {
+		if (this.locks.containsKey(digest)) {
+			return;
+		}
+		FileChannel channel = null;
+		try {
+			channel = open(digest);
+			this.locks.put(digest, channel.lock(0, Long.MAX_VALUE, true));
+		}
+		catch (IOException e) {
+			close(channel);
+			if (logger.isDebugEnabled()) {
+				logger.debug("Cannot lock cached classes for " + digest, e);
+			}
+		}
+	}
+
+	private void unshare(String digest) {
+		FileLock lock = this.locks.remove(digest);
+		if (lock != null) {
+			close(lock.channel());
+		}
+	}
+
+	private boolean delete(Entry entry) {
+		try (FileChannel channel = open(entry.digest)) {
+			if (channel.tryLock() == null) {
+				return false;
+			}
+			// The lock is released when the channel is closed
+			FileSystemUtils.deleteRecursively(entry.root);
+			return true;
+		}
+		catch (OverlappingFileLockException e) {
+			return false;
+		}
+		catch (IOException e) {
+			// No file locks on this file system, so assume nobody else is using it
+			FileSystemUtils.deleteRecursively(entry.root);
+			return true;
+		}
+	}
+
+	private FileChannel open(String digest) throws IOException {
+		this.directory.mkdirs();
+		return FileChannel.open(new File(this.directory, digest + ".lock").toPath(),
+				StandardOpenOption.CREATE, StandardOpenOption.READ,
+				StandardOpenOption.WRITE);
+	}
+
+	private static void close(FileChannel channel) {
+		if (channel != null) {
+			try {
+				channel.close();
+			}
+			catch (IOException e) {
+				// ignore
+			}
+		}
+	}
+
+	private static String computeDigest(File file) {
+		try (InputStream stream = new FileInputStream(file)) {
+			return DigestUtils.md5DigestAsHex(stream);
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Cannot compute digest of " + file, e);
+		}
+	}
+
+	private static class Entry {
+
+		private final String digest;
+
+		private final File root;
+
+		private boolean populated;
+
+		private boolean empty;
+
+		private long size;
+
+		private int references;
+
+		Entry(String digest, File root) {
+			this.digest = digest;
+			this.root = root;
+		}
+
+		boolean exists() {
+			return !this.empty;
+		}
+
+		/**
+		 * Extract the nested entries if this is the first time (concurrent callers
+		 * for the same entry wait for the first one to finish).
+		 *
+		 * @return true if the entry was populated by this call
+		 */
+		synchronized boolean populate(File jar, String prefix) {
+			if (this.populated) {
+				return false;
+			}
+			if (!this.root.exists()) {
+				extract(jar, prefix);
+			}
+			this.empty = !this.root.exists();
+			this.size = this.empty ? 0 : sizeOf(this.root);
+			this.populated = true;
+			return true;
+		}
+
+		private void extract(File jar, String prefix) {
+			File temp = new File(this.root.getParentFile(),
+					this.root.getName() + "." + System.nanoTime() + ".tmp");
+			boolean found = false;
+			try (JarFile jarFile = new JarFile(jar)) {
+				String base = temp.getCanonicalPath() + File.separator;
+				for (Enumeration<JarEntry> iterator = jarFile.entries(); iterator
+						.hasMoreElements();) {
+					JarEntry entry = iterator.nextElement();
+					if (!entry.getName().startsWith(prefix)
+							|| entry.getName().length() == prefix.length()) {
+						continue;
+					}
+					found = true;
+					File target = new File(temp,
+							entry.getName().substring(prefix.length()));
+					if (!target.getCanonicalPath().startsWith(base)) {
+						throw new IllegalStateException("Entry " + entry.getName()
+								+ " is outside " + prefix + " in " + jar);
+					}
+					if (entry.isDirectory()) {
+						target.mkdirs();
+						continue;
+					}
+					target.getParentFile().mkdirs();
+					try (InputStream input = jarFile.getInputStream(entry);
+							OutputStream output = new FileOutputStream(target)) {
+						StreamUtils.copy(input, output);
+					}
+				}
+				if (found) {
+					try {
+						// Atomic so that other processes sharing the cache never see
+						// a partial copy
+						Files.move(temp.toPath(), this.root.toPath(),
+								StandardCopyOption.ATOMIC_MOVE);
+					}
+					catch (IOException e) {
+						if (!this.root.exists()) {
+							throw e;
+						}
+					}
+				}
+			}
+			catch (IOException e) {
+				throw new IllegalStateException("Cannot extract " + prefix + " from "
+						+ jar, e);
+			}
+			finally {
+				FileSystemUtils.deleteRecursively(temp);
+			}
+		}
+
+		private static long sizeOf(File file) {
+			if (file.isFile()) {
+				return file.length();
+			}
+			long total = 0;
+			File[] children = file.listFiles();
+			if (children != null) {
+				for (File child : children) {
+					total += sizeOf(child);
+				}
+			}
+			return total;
+		}
+
+	}
+
+}
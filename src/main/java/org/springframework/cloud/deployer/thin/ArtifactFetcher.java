@@ -0,0 +1,460 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import javax.xml.parsers.DocumentBuilderFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+import org.springframework.util.StreamUtils;
+import org.springframework.util.StringUtils;
+import org.springframework.util.SystemPropertyUtils;
+
+/**
+ * Downloads the dependencies of a jar into the local Maven repository in parallel,
+ * before the dependency resolver needs them, so that it finds them locally instead of
+ * fetching them one at a time. The dependencies are taken from the fully resolved
+ * listings that build plugins leave in the jar
+ * (<code>META-INF/maven/dependencies.properties</code>, or versioned coordinates in
+ * <code>META-INF/thin.properties</code>). Every download is verified against the SHA-1
+ * checksum published in the repository (an artifact without one is not downloaded), and
+ * concurrent requests for the same artifact share a single download.
+ *
+ * @author Dave Syer
+ *
+ */
+public class ArtifactFetcher {
+
+	private static final Log logger = LogFactory.getLog(ArtifactFetcher.class);
+
+	private static final String CENTRAL = "https://repo1.maven.org/maven2/";
+
+	private static final ArtifactFetcher INSTANCE = fromSettings(
+			new File(System.getProperty("user.home"), ".m2/settings.xml"), 8);
+
+	private final File localRepository;
+
+	private final List<String> remoteRepositories;
+
+	private final ExecutorService executor;
+
+	private final Map<String, CompletableFuture<File>> downloads = new ConcurrentHashMap<>();
+
+	private final AtomicInteger downloaded = new AtomicInteger();
+
+	/**
+	 * @param localRepository the local repository to download into
+	 * @param remoteRepositories the base URLs of the remote repositories, in order
+	 * @param threads the maximum number of concurrent downloads
+	 */
+	public ArtifactFetcher(File localRepository, List<String> remoteRepositories,
+			int threads) {
+		this.localRepository = localRepository;
+		this.remoteRepositories = new ArrayList<>();
+		for (String repository : remoteRepositories) {
+			this.remoteRepositories
+					.add(repository.endsWith("/") ? repository : repository + "/");
+		}
+		AtomicInteger count = new AtomicInteger();
+		this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+			Thread thread = new Thread(runnable,
+					"thin-fetch-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	/**
+	 * The shared instance used by default by all deployers in this JVM (configured from
+	 * <code>~/.m2/settings.xml</code>).
+	 *
+	 * @return the shared fetcher
+	 */
+	public static ArtifactFetcher getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Create a fetcher that uses the same repositories as the dependency resolver. The
+	 * local repository is <code>${thin.root}/repository</code> if the
+	 * <code>thin.root</code> system property is set, otherwise the one in the Maven
+	 * settings (defaulting to <code>~/.m2/repository</code>). The remote repositories are
+	 * the ones in the active profiles of the settings followed by Maven Central, with the
+	 * mirrors from the settings applied.
+	 *
+	 * @param settings the Maven settings file (which need not exist)
+	 * @param threads the maximum number of concurrent downloads
+	 * @return a fetcher
+	 */
+	public static ArtifactFetcher fromSettings(File settings, int threads) {
+		Element root = null;
+		if (settings.exists()) {
+			try {
+				root = DocumentBuilderFactory.newInstance().newDocumentBuilder()
+						.parse(settings).getDocumentElement();
+			}
+			catch (Exception e) {
+				logger.warn("Cannot read Maven settings from " + settings, e);
+			}
+		}
+		File local = new File(System.getProperty("user.home"), ".m2/repository");
+		String path = text(root, "localRepository");
+		if (path != null) {
+			local = new File(SystemPropertyUtils.resolvePlaceholders(path, true));
+		}
+		String thinRoot = System.getProperty("thin.root");
+		if (StringUtils.hasText(thinRoot)) {
+			local = new File(thinRoot, "repository");
+		}
+		Map<String, String> repositories = new LinkedHashMap<>();
+		List<String> active = new ArrayList<>();
+		for (Element element : children(child(root, "activeProfiles"),
+				"activeProfile")) {
+			active.add(element.getTextContent().trim());
+		}
+		for (Element profile : children(child(root, "profiles"), "profile")) {
+			if (!active.contains(text(profile, "id")) && !"true".equals(
+					text(child(profile, "activation"), "activeByDefault"))) {
+				continue;
+			}
+			for (Element repository : children(child(profile, "repositories"),
+					"repository")) {
+				String url = text(repository, "url");
+				if (url != null) {
+					repositories.putIfAbsent(text(repository, "id"), url);
+				}
+			}
+		}
+		repositories.putIfAbsent("central", CENTRAL);
+		List<String> urls = new ArrayList<>();
+		for (Map.Entry<String, String> repository : repositories.entrySet()) {
+			String url = mirror(root, repository.getKey(), repository.getValue());
+			if (!urls.contains(url)) {
+				urls.add(url);
+			}
+		}
+		if (logger.isDebugEnabled()) {
+			logger.debug("Fetching artifacts from " + urls + " into " + local);
+		}
+		return new ArtifactFetcher(local, urls, threads);
+	}
+
+	/**
+	 * Download any dependencies of a jar (and their poms) that are missing from the local
+	 * repository, and wait for them.
+	 *
+	 * @param jar the jar
+	 * @return the number of artifacts that could not be downloaded
+	 */
+	public int prefetch(File jar) {
+		Set<String> artifacts = new LinkedHashSet<>();
+		for (String artifact : dependencies(jar)) {
+			artifacts.add(artifact);
+			String[] parts = artifact.split(":");
+			// The resolver needs the pom to compute transitive dependencies
+			artifacts.add(parts[0] + ":" + parts[1] + ":pom:" + parts[parts.length - 1]);
+		}
+		return fetch(artifacts);
+	}
+
+	/**
+	 * Download any of the artifacts that are missing from the local repository, and wait
+	 * for them.
+	 *
+	 * @param artifacts artifact coordinates (<code>group:artifact:version</code> or
+	 * <code>group:artifact:type:version</code>)
+	 * @return the number of artifacts that could not be downloaded
+	 */
+	public int fetch(Collection<String> artifacts) {
+		List<CompletableFuture<File>> futures = new ArrayList<>();
+		for (String artifact : artifacts) {
+			String path = path(artifact);
+			if (path == null || new File(this.localRepository, path).exists()) {
+				continue;
+			}
+			futures.add(this.downloads.computeIfAbsent(path,
+					key -> CompletableFuture.supplyAsync(() -> download(key),
+							this.executor)));
+		}
+		int failed = 0;
+		for (CompletableFuture<File> future : futures) {
+			try {
+				future.join();
+			}
+			catch (Exception e) {
+				failed++;
+			}
+		}
+		return failed;
+	}
+
+	/**
+	 * @return the number of artifacts downloaded so far
+	 */
+	public int getDownloaded() {
+		return this.downloaded.get();
+	}
+
+	/**
+	 * @param jar a jar file
+	 * @return the coordinates of the fully resolved runtime dependencies listed in the jar
+	 */
+	public Set<String> dependencies(File jar) {
+		Set<String> result = new LinkedHashSet<>();
+		try (JarFile file = new JarFile(jar)) {
+			Enumeration<JarEntry> entries = file.entries();
+			while (entries.hasMoreElements()) {
+				JarEntry entry = entries.nextElement();
+				String name = entry.getName();
+				if (name.startsWith("META-INF/maven/")
+						&& name.endsWith("/dependencies.properties")) {
+					listed(load(file, entry), result);
+				}
+				else if (name.startsWith("META-INF/thin")
+						&& name.endsWith(".properties")) {
+					computed(load(file, entry), result);
+				}
+			}
+		}
+		catch (IOException e) {
+			logger.debug("Cannot read dependencies of " + jar, e);
+		}
+		return result;
+	}
+
+	private Properties load(JarFile file, JarEntry entry) throws IOException {
+		Properties properties = new Properties();
+		try (InputStream stream = file.getInputStream(entry)) {
+			properties.load(stream);
+		}
+		return properties;
+	}
+
+	private void listed(Properties properties, Set<String> result) {
+		for (String key : properties.stringPropertyNames()) {
+			if (!key.endsWith("/version")) {
+				continue;
+			}
+			String prefix = key.substring(0, key.length() - "/version".length());
+			String[] ga = prefix.split("/");
+			String scope = properties.getProperty(prefix + "/scope", "compile");
+			if (ga.length != 2 || "test".equals(scope) || "provided".equals(scope)
+					|| "system".equals(scope)
+					|| !properties.containsKey(prefix + "/type")) {
+				continue;
+			}
+			result.add(ga[0] + ":" + ga[1] + ":"
+					+ properties.getProperty(prefix + "/type") + ":"
+					+ properties.getProperty(key));
+		}
+	}
+
+	private void computed(Properties properties, Set<String> result) {
+		for (String key : properties.stringPropertyNames()) {
+			if (key.startsWith("dependencies.")) {
+				String value = properties.getProperty(key).trim();
+				// Only coordinates with a version
+				if (StringUtils.countOccurrencesOf(value, ":") >= 2) {
+					result.add(value);
+				}
+			}
+		}
+	}
+
+	private String path(String artifact) {
+		String[] parts = artifact.split(":");
+		if (parts.length < 3 || parts.length > 5) {
+			return null;
+		}
+		String version = parts[parts.length - 1];
+		String type = parts.length > 3 ? parts[2] : "jar";
+		String classifier = parts.length > 4 ? "-" + parts[3] : "";
+		if (!"jar".equals(type) && !"pom".equals(type)) {
+			return null;
+		}
+		return parts[0].replace('.', '/') + "/" + parts[1] + "/" + version + "/"
+				+ parts[1] + "-" + version + classifier + "." + type;
+	}
+
+	private File download(String path) {
+		try {
+			File target = new File(this.localRepository, path);
+			if (target.exists()) {
+				// Someone else got there first
+				return target;
+			}
+			for (String repository : this.remoteRepositories) {
+				if (download(new URL(repository + path), target)) {
+					this.downloaded.incrementAndGet();
+					return target;
+				}
+			}
+			throw new FileNotFoundException("Cannot download " + path);
+		}
+		catch (IOException e) {
+			logger.debug("Cannot download " + path, e);
+			throw new IllegalStateException("Cannot download " + path, e);
+		}
+		finally {
+			this.downloads.remove(path);
+		}
+	}
+
+	private boolean download(URL url, File target) throws IOException {
+		String expected = checksum(new URL(url + ".sha1"));
+		if (expected == null) {
+			// Nothing to verify it against, so leave it to the resolver
+			logger.debug("No checksum for " + url);
+			return false;
+		}
+		target.getParentFile().mkdirs();
+		File tmp = File.createTempFile(target.getName(), ".tmp",
+				target.getParentFile());
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-1");
+			try (InputStream stream = new DigestInputStream(url.openStream(), digest)) {
+				Files.copy(stream, tmp.toPath(), StandardCopyOption.REPLACE_EXISTING);
+			}
+			catch (FileNotFoundException e) {
+				return false;
+			}
+			String actual = hex(digest.digest());
+			if (!expected.equalsIgnoreCase(actual)) {
+				logger.warn("Checksum mismatch for " + url + ": expected " + expected
+						+ " but was " + actual);
+				return false;
+			}
+			Files.move(tmp.toPath(), target.toPath(),
+					StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+			return true;
+		}
+		catch (NoSuchAlgorithmException e) {
+			throw new IllegalStateException("No SHA-1 available", e);
+		}
+		finally {
+			tmp.delete();
+		}
+	}
+
+	private String checksum(URL url) {
+		try (InputStream stream = url.openStream()) {
+			String value = StreamUtils.copyToString(stream, StandardCharsets.UTF_8)
+					.trim();
+			// Some repositories add the file name after the checksum
+			int space = value.indexOf(' ');
+			return space > 0 ? value.substring(0, space) : value;
+		}
+		catch (IOException e) {
+			return null;
+		}
+	}
+
+	private static String mirror(Element settings, String id, String url) {
+		for (Element mirror : children(child(settings, "mirrors"), "mirror")) {
+			String mirrorOf = text(mirror, "mirrorOf");
+			String location = text(mirror, "url");
+			if (mirrorOf != null && location != null && matches(mirrorOf, id, url)) {
+				return location;
+			}
+		}
+		return url;
+	}
+
+	private static boolean matches(String mirrorOf, String id, String url) {
+		boolean result = false;
+		for (String pattern : StringUtils.commaDelimitedListToStringArray(mirrorOf)) {
+			pattern = pattern.trim();
+			if (pattern.equals("!" + id)) {
+				return false;
+			}
+			if (pattern.equals("*") || pattern.equals(id)) {
+				result = true;
+			}
+			else if (pattern.equals("external:*") && !url.startsWith("file:")
+					&& !url.contains("://localhost") && !url.contains("://127.0.0.1")) {
+				result = true;
+			}
+		}
+		return result;
+	}
+
+	private static List<Element> children(Element parent, String name) {
+		List<Element> result = new ArrayList<>();
+		if (parent != null) {
+			for (Node node = parent.getFirstChild(); node != null; node = node
+					.getNextSibling()) {
+				if (node instanceof Element && name.equals(node.getNodeName())) {
+					result.add((Element) node);
+				}
+			}
+		}
+		return result;
+	}
+
+	private static Element child(Element parent, String name) {
+		List<Element> children = children(parent, name);
+		return children.isEmpty() ? null : children.get(0);
+	}
+
+	private static String text(Element parent, String name) {
+		Element child = child(parent, name);
+		if (child == null) {
+			return null;
+		}
+		String value = child.getTextContent().trim();
+		return value.isEmpty() ? null : value;
+	}
+
+	private String hex(byte[] bytes) {
+		StringBuilder builder = new StringBuilder();
+		for (byte b : bytes) {
+			builder.append(String.format("%02x", b));
+		}
+		return builder.toString();
+	}
+
+}
@@ -0,0 +1,57 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.util.function.Consumer;
+
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.core.Ordered;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Listener that redirects the console logging of a deployed app to a sink owned by the
+ * deployer, once the logging system has been initialized.
+ * 
+ * @author Dave Syer
+ *
+ */
+class AsyncLoggingInitializer
+		implements ApplicationListener<ApplicationEnvironmentPreparedEvent>, Ordered {
+
+	private static final String LOGBACK_CLASS = "ch.qos.logback.classic.LoggerContext";
+
+	private final Consumer<String> sink;
+
+	AsyncLoggingInitializer(Consumer<String> sink) {
+		this.sink = sink;
+	}
+
+	@Override
+	public int getOrder() {
+		// After the LoggingApplicationListener
+		return Ordered.LOWEST_PRECEDENCE;
+	}
+
+	@Override
+	public void onApplicationEvent(ApplicationEnvironmentPreparedEvent event) {
+		if (ClassUtils.isPresent(LOGBACK_CLASS, getClass().getClassLoader())) {
+			LogbackSinkAppender.install(this.sink);
+		}
+	}
+
+}
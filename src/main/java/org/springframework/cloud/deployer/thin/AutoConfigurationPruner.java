@@ -0,0 +1,205 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.cloud.deployer.spi.app.AppDeployer;
+import org.springframework.util.DigestUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * Learns which auto-configurations never match for a jar, so they can be excluded up
+ * front the next time it is deployed with the same inputs, and the conditions do not
+ * have to be evaluated again. The decision is keyed by the digest of the jar, the thin
+ * name and profiles, and the properties and arguments of the deployment (apart from the
+ * ones the deployer adds itself), so any change to those leads to a new evaluation.
+ * Decisions are stored in the {@link ArchiveCache} next to the extracted classes of the
+ * jar, along with the startup time of the first deployment so that the savings can be
+ * reported.
+ *
+ * @author Dave Syer
+ *
+ */
+public class AutoConfigurationPruner {
+
+	/**
+	 * The property that the excluded auto-configurations are added to.
+	 */
+	public static final String EXCLUDE_PROPERTY = "spring.autoconfigure.exclude";
+
+	private static final Log logger = LogFactory.getLog(AutoConfigurationPruner.class);
+
+	private static final String BASELINE = "# startup=";
+
+	private static final String SERVER_PORT = "server.port";
+
+	private static final String DEPLOYER_PREFIX = AppDeployer.PREFIX + "thin.";
+
+	private final ArchiveCache cache;
+
+	public AutoConfigurationPruner(ArchiveCache cache) {
+		this.cache = cache;
+	}
+
+	/**
+	 * The location of the decision for a deployment.
+	 *
+	 * @param jar the jar being deployed
+	 * @param name the thin name
+	 * @param profiles the thin profiles
+	 * @param properties the application properties
+	 * @param args the command line arguments
+	 * @return a file that may or may not exist yet
+	 */
+	public File getFile(File jar, String name, String[] profiles,
+			Map<String, String> properties, List<String> args) {
+		StringBuilder inputs = new StringBuilder(name).append(";")
+				.append(StringUtils.arrayToCommaDelimitedString(profiles)).append(";");
+		for (Map.Entry<String, String> entry : new TreeMap<>(properties).entrySet()) {
+			if (isIgnored(entry.getKey())) {
+				continue;
+			}
+			inputs.append(entry.getKey()).append("=").append(entry.getValue())
+					.append(";");
+		}
+		inputs.append(StringUtils.collectionToDelimitedString(args, " "));
+		String hash = DigestUtils
+				.md5DigestAsHex(inputs.toString().getBytes(StandardCharsets.UTF_8));
+		return new File(this.cache.getDirectory(this.cache.digest(jar)),
+				"autoconfig-" + hash + ".lst");
+	}
+
+	/**
+	 * Properties that the deployer adds itself, and that do not affect which
+	 * auto-configurations match (the server port is random unless it is set
+	 * explicitly).
+	 */
+	private boolean isIgnored(String key) {
+		return SERVER_PORT.equals(key) || key.startsWith(DEPLOYER_PREFIX);
+	}
+
+	/**
+	 * Load a decision made earlier.
+	 *
+	 * @param file the location of the decision
+	 * @return the decision or null if there isn't one
+	 */
+	public Decision load(File file) {
+		if (!file.exists()) {
+			return null;
+		}
+		try {
+			List<String> lines = Files.readAllLines(file.toPath(),
+					StandardCharsets.UTF_8);
+			long baseline = -1;
+			List<String> excludes = new ArrayList<>();
+			for (String line : lines) {
+				if (line.startsWith(BASELINE)) {
+					baseline = Long.parseLong(line.substring(BASELINE.length()));
+				}
+				else if (StringUtils.hasText(line)) {
+					excludes.add(line.trim());
+				}
+			}
+			return new Decision(excludes, baseline);
+		}
+		catch (IOException | NumberFormatException e) {
+			logger.warn("Cannot read auto-configuration decision from " + file, e);
+			return null;
+		}
+	}
+
+	/**
+	 * Save the auto-configurations that did not match in a successful deployment.
+	 *
+	 * @param file the location of the decision
+	 * @param unmatched the names of the auto-configuration classes that did not match
+	 * @param startup the startup time (millis) of the deployment
+	 */
+	public void save(File file, List<String> unmatched, long startup) {
+		List<String> lines = new ArrayList<>();
+		lines.add(BASELINE + startup);
+		lines.addAll(unmatched);
+		try {
+			File tmp = File.createTempFile("autoconfig", ".tmp", file.getParentFile());
+			Files.write(tmp.toPath(), lines, StandardCharsets.UTF_8);
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			logger.warn("Cannot save auto-configuration decision to " + file, e);
+		}
+	}
+
+	/**
+	 * The auto-configurations to exclude from a deployment.
+	 */
+	public static class Decision {
+
+		private final List<String> excludes;
+
+		private final long baseline;
+
+		Decision(List<String> excludes, long baseline) {
+			this.excludes = excludes;
+			this.baseline = baseline;
+		}
+
+		public List<String> getExcludes() {
+			return this.excludes;
+		}
+
+		/**
+		 * @return the startup time (millis) before any auto-configurations were excluded
+		 */
+		public long getBaseline() {
+			return this.baseline;
+		}
+
+		/**
+		 * Add the exclusions to some application properties.
+		 *
+		 * @param properties the application properties
+		 * @return new properties including the exclusions
+		 */
+		public Map<String, String> apply(Map<String, String> properties) {
+			Map<String, String> result = new LinkedHashMap<>(properties);
+			if (this.excludes.isEmpty()) {
+				return result;
+			}
+			String excludes = StringUtils.collectionToCommaDelimitedString(this.excludes);
+			String existing = result.get(EXCLUDE_PROPERTY);
+			result.put(EXCLUDE_PROPERTY, StringUtils.hasText(existing)
+					? existing + "," + excludes : excludes);
+			return result;
+		}
+
+	}
+
+}
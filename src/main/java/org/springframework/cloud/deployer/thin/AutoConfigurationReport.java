@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.boot.autoconfigure.condition.ConditionEvaluationReport;
+import org.springframework.boot.autoconfigure.condition.ConditionEvaluationReport.ConditionAndOutcomes;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.io.support.SpringFactoriesLoader;
+
+/**
+ * Extracts the auto-configurations that did not match from the condition evaluation
+ * report of a running app. Used inside the app's class loader (only if Spring Boot
+ * auto-configuration is on the classpath).
+ *
+ * @author Dave Syer
+ *
+ */
+class AutoConfigurationReport {
+
+	/**
+	 * @param context the application context
+	 * @return the names of the auto-configuration classes whose conditions did not
+	 * match
+	 */
+	static List<String> unmatched(ConfigurableApplicationContext context) {
+		List<String> result = new ArrayList<>();
+		ConditionEvaluationReport report = ConditionEvaluationReport
+				.get(context.getBeanFactory());
+		Set<String> candidates = new HashSet<>(SpringFactoriesLoader.loadFactoryNames(
+				EnableAutoConfiguration.class, context.getClassLoader()));
+		for (Map.Entry<String, ConditionAndOutcomes> entry : report
+				.getConditionAndOutcomesBySource().entrySet()) {
+			// Only whole classes (not bean methods) that are candidates for exclusion
+			if (candidates.contains(entry.getKey()) && !entry.getValue().isFullMatch()) {
+				result.add(entry.getKey());
+			}
+		}
+		return result;
+	}
+
+}
@@ -0,0 +1,214 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessorAdapter;
+import org.springframework.boot.context.event.ApplicationEnvironmentPreparedEvent;
+import org.springframework.boot.context.event.ApplicationPreparedEvent;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.event.ContextRefreshedEvent;
+
+/**
+ * Records how long each bean in a context takes to create (instantiation, including the
+ * dependencies it needs in its constructor) and to initialize (post processors and init
+ * methods), and how long each phase of the startup takes. The time a bean spends creating
+ * other beans is not counted in its "self" time, so the slowest beans by self time are
+ * the ones to look at. Used inside the app's class loader, and only when profiling is
+ * switched on, and the result only contains JDK types, so it can be passed back to the
+ * deployer.
+ *
+ * @author Dave Syer
+ *
+ */
+class BeanProfiler extends InstantiationAwareBeanPostProcessorAdapter
+		implements ApplicationListener<ApplicationEvent> {
+
+	private final long start = System.nanoTime();
+
+	private final Map<String, Long> phases = new LinkedHashMap<>();
+
+	private final ConcurrentLinkedQueue<Timing> timings = new ConcurrentLinkedQueue<>();
+
+	private final ThreadLocal<Deque<Timing>> stack = ThreadLocal
+			.withInitial(ArrayDeque::new);
+
+	private long last = this.start;
+
+	@Override
+	public void onApplicationEvent(ApplicationEvent event) {
+		if (event instanceof ApplicationEnvironmentPreparedEvent) {
+			phase("environment");
+		}
+		else if (event instanceof ApplicationPreparedEvent) {
+			phase("prepare");
+		}
+		else if (event instanceof ContextRefreshedEvent) {
+			phase("refresh");
+		}
+		else if (event instanceof ApplicationReadyEvent) {
+			phase("ready");
+		}
+	}
+
+	@Override
+	public Object postProcessBeforeInstantiation(Class<?> beanClass, String beanName)
+			throws BeansException {
+		this.stack.get().push(new Timing(beanName, beanClass.getName()));
+		return null;
+	}
+
+	@Override
+	public boolean postProcessAfterInstantiation(Object bean, String beanName)
+			throws BeansException {
+		Timing timing = this.stack.get().peek();
+		if (timing != null && timing.name.equals(beanName)) {
+			timing.instantiated = System.nanoTime();
+		}
+		return true;
+	}
+
+	@Override
+	public Object postProcessAfterInitialization(Object bean, String beanName)
+			throws BeansException {
+		Deque<Timing> stack = this.stack.get();
+		Timing timing = find(stack, beanName);
+		if (timing == null) {
+			// Not created here (e.g. the object from a factory bean)
+			return bean;
+		}
+		// Anything above it on the stack failed and will never finish
+		while (stack.peek() != timing) {
+			stack.pop();
+		}
+		stack.pop();
+		timing.finish(System.nanoTime());
+		Timing parent = stack.peek();
+		if (parent != null) {
+			parent.children += timing.total();
+		}
+		this.timings.add(timing);
+		return bean;
+	}
+
+	/**
+	 * @return the startup phases (key "phases", millis from the end of the previous
+	 * phase) and the beans (key "beans", slowest first by self time, with times in
+	 * millis)
+	 */
+	Map<String, Object> getProfile() {
+		List<Timing> timings = new ArrayList<>(this.timings);
+		timings.sort((one, two) -> Long.compare(two.self(), one.self()));
+		long beans = 0;
+		List<Map<String, Object>> list = new ArrayList<>();
+		for (Timing timing : timings) {
+			beans += timing.self();
+			list.add(timing.toMap());
+		}
+		Map<String, Object> phases = new LinkedHashMap<>();
+		synchronized (this.phases) {
+			for (Map.Entry<String, Long> phase : this.phases.entrySet()) {
+				phases.put(phase.getKey(), millis(phase.getValue()));
+			}
+			phases.put("total", millis(this.last - this.start));
+		}
+		phases.put("beans", millis(beans));
+		Map<String, Object> profile = new LinkedHashMap<>();
+		profile.put("phases", phases);
+		profile.put("beans", list);
+		return profile;
+	}
+
+	private void phase(String name) {
+		long now = System.nanoTime();
+		synchronized (this.phases) {
+			this.phases.put(name, now - this.last);
+			this.last = now;
+		}
+	}
+
+	private Timing find(Deque<Timing> stack, String name) {
+		// Top of the stack first
+		for (Timing timing : stack) {
+			if (timing.name.equals(name)) {
+				return timing;
+			}
+		}
+		return null;
+	}
+
+	private static double millis(long nanos) {
+		return Math.round(nanos / 1000.0) / 1000.0;
+	}
+
+	private static class Timing {
+
+		private final String name;
+
+		private final String type;
+
+		private final long start = System.nanoTime();
+
+		private long instantiated = -1;
+
+		private long end;
+
+		private long children;
+
+		Timing(String name, String type) {
+			this.name = name;
+			this.type = type;
+		}
+
+		void finish(long end) {
+			this.end = end;
+			if (this.instantiated < 0) {
+				this.instantiated = end;
+			}
+		}
+
+		long total() {
+			return this.end - this.start;
+		}
+
+		long self() {
+			return Math.max(0, total() - this.children);
+		}
+
+		Map<String, Object> toMap() {
+			Map<String, Object> map = new LinkedHashMap<>();
+			map.put("name", this.name);
+			map.put("type", this.type);
+			map.put("creation", millis(this.instantiated - this.start));
+			map.put("initialization", millis(this.end - this.instantiated));
+			map.put("total", millis(total()));
+			map.put("self", millis(self()));
+			return map;
+		}
+
+	}
+
+}
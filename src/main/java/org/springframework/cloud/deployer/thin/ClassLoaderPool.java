@@ -0,0 +1,295 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.lang.reflect.Method;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * A small pool of class loaders from apps that have finished, so that the next launch of
+ * the same jar (with the same name and profiles) can skip dependency resolution and class
+ * loading and only has to create a new application context. Static state in the loader
+ * (caches, pre-initialized infrastructure) survives between launches. Idle loaders are
+ * evicted after a timeout, when the pool is full, or when heap or metaspace usage goes
+ * over a threshold.
+ *
+ * @author Dave Syer
+ *
+ */
+public class ClassLoaderPool {
+
+	private static final Log logger = LogFactory.getLog(ClassLoaderPool.class);
+
+	private final int maxSize;
+
+	private final long maxIdleTime;
+
+	private final double maxMemoryUsage;
+
+	/**
+	 * Idle loaders, oldest first (guarded by this).
+	 */
+	private final Map<String, List<Entry>> entries = new LinkedHashMap<>();
+
+	private int size = 0;
+
+	private ScheduledExecutorService sweeper;
+
+	public ClassLoaderPool() {
+		this(4, TimeUnit.MINUTES.toMillis(5), 0.8);
+	}
+
+	/**
+	 * @param maxSize the maximum number of idle class loaders
+	 * @param maxIdleTime the maximum time (millis) a class loader stays in the pool
+	 * @param maxMemoryUsage the fraction of maximum heap or metaspace above which the
+	 * pool is emptied and no more loaders are accepted
+	 */
+	public ClassLoaderPool(int maxSize, long maxIdleTime, double maxMemoryUsage) {
+		this.maxSize = maxSize;
+		this.maxIdleTime = maxIdleTime;
+		this.maxMemoryUsage = maxMemoryUsage;
+	}
+
+	/**
+	 * Take an idle class loader out of the pool for exclusive use.
+	 *
+	 * @param key the key (identifying the jar, name and profiles)
+	 * @return an entry or null if there is none
+	 */
+	public synchronized Entry take(String key) {
+		List<Entry> list = this.entries.get(key);
+		if (list == null) {
+			return null;
+		}
+		Entry entry = list.remove(list.size() - 1);
+		if (list.isEmpty()) {
+			this.entries.remove(key);
+		}
+		this.size--;
+		return entry;
+	}
+
+	/**
+	 * Offer a class loader to the pool. If it is not accepted (returns false) the caller
+	 * is responsible for closing it.
+	 *
+	 * @param key the key (identifying the jar, name and profiles)
+	 * @param entry the class loader and its resources
+	 * @return true if the pool accepted the entry
+	 */
+	public boolean offer(String key, Entry entry) {
+		List<Entry> evicted = new ArrayList<>();
+		boolean accepted = false;
+		synchronized (this) {
+			expire(evicted, System.currentTimeMillis() - this.maxIdleTime);
+			if (isMemoryLow()) {
+				expire(evicted, Long.MAX_VALUE);
+			}
+			else if (this.maxSize > 0) {
+				while (this.size >= this.maxSize) {
+					removeOldest(evicted);
+				}
+				List<Entry> list = this.entries.get(key);
+				if (list == null) {
+					list = new ArrayList<>();
+					this.entries.put(key, list);
+				}
+				entry.lastUsed = System.currentTimeMillis();
+				list.add(entry);
+				this.size++;
+				accepted = true;
+				startSweeper();
+			}
+		}
+		close(evicted);
+		return accepted;
+	}
+
+	public synchronized int size() {
+		return this.size;
+	}
+
+	/**
+	 * Close all the idle class loaders.
+	 */
+	public void clear() {
+		List<Entry> evicted = new ArrayList<>();
+		synchronized (this) {
+			expire(evicted, Long.MAX_VALUE);
+			if (this.sweeper != null) {
+				this.sweeper.shutdownNow();
+				this.sweeper = null;
+			}
+		}
+		close(evicted);
+	}
+
+	private void startSweeper() {
+		if (this.sweeper == null) {
+			this.sweeper = Executors.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "thin-loader-pool");
+				thread.setDaemon(true);
+				return thread;
+			});
+			long period = Math.max(this.maxIdleTime / 2, 1000L);
+			this.sweeper.scheduleWithFixedDelay(this::sweep, period, period,
+					TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private void sweep() {
+		List<Entry> evicted = new ArrayList<>();
+		synchronized (this) {
+			expire(evicted, System.currentTimeMillis() - this.maxIdleTime);
+			if (isMemoryLow()) {
+				expire(evicted, Long.MAX_VALUE);
+			}
+		}
+		close(evicted);
+	}
+
+	private void expire(List<Entry> evicted, long threshold) {
+		for (Iterator<List<Entry>> lists = this.entries.values().iterator(); lists
+				.hasNext();) {
+			List<Entry> list = lists.next();
+			for (Iterator<Entry> iterator = list.iterator(); iterator.hasNext();) {
+				Entry entry = iterator.next();
+				if (entry.lastUsed <= threshold) {
+					iterator.remove();
+					evicted.add(entry);
+					this.size--;
+				}
+			}
+			if (list.isEmpty()) {
+				lists.remove();
+			}
+		}
+	}
+
+	private void removeOldest(List<Entry> evicted) {
+		List<Entry> oldest = null;
+		for (List<Entry> list : this.entries.values()) {
+			if (oldest == null || list.get(0).lastUsed < oldest.get(0).lastUsed) {
+				oldest = list;
+			}
+		}
+		evicted.add(oldest.remove(0));
+		this.size--;
+		if (oldest.isEmpty()) {
+			this.entries.values().remove(oldest);
+		}
+	}
+
+	private boolean isMemoryLow() {
+		if (isOver(ManagementFactory.getMemoryMXBean().getHeapMemoryUsage())) {
+			return true;
+		}
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if ("Metaspace".equals(pool.getName()) && isOver(pool.getUsage())) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private boolean isOver(MemoryUsage usage) {
+		return usage.getMax() > 0
+				&& usage.getUsed() > this.maxMemoryUsage * usage.getMax();
+	}
+
+	private void close(List<Entry> evicted) {
+		for (Entry entry : evicted) {
+			if (logger.isDebugEnabled()) {
+				logger.debug("Closing idle class loader: " + entry.classLoader);
+			}
+			entry.close();
+		}
+	}
+
+	/**
+	 * An idle class loader and the cached archive entries it uses.
+	 */
+	public static class Entry {
+
+		private final URLClassLoader classLoader;
+
+		private final ArchiveCache cache;
+
+		private final List<String> cached;
+
+		private long lastUsed;
+
+		public Entry(URLClassLoader classLoader, ArchiveCache cache,
+				List<String> cached) {
+			this.classLoader = classLoader;
+			this.cache = cache;
+			this.cached = cached;
+		}
+
+		public URLClassLoader getClassLoader() {
+			return this.classLoader;
+		}
+
+		public List<String> getCached() {
+			return this.cached;
+		}
+
+		void close() {
+			try {
+				// The context was closed without deregistering drivers, so that they
+				// could be used again
+				Class<?> type = this.classLoader
+						.loadClass(JdbcLeakPrevention.class.getName());
+				Method method = ReflectionUtils.findMethod(type,
+						"clearJdbcDriverRegistrations");
+				ReflectionUtils.invokeMethod(method, type.newInstance());
+			}
+			catch (Exception e) {
+				logger.error("Cannot clean up JDBC drivers in " + this.classLoader, e);
+			}
+			try {
+				this.classLoader.close();
+			}
+			catch (Exception e) {
+				logger.error("Cannot close " + this.classLoader, e);
+			}
+			finally {
+				for (String key : this.cached) {
+					this.cache.release(key);
+				}
+			}
+		}
+
+	}
+
+}
@@ -0,0 +1,204 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Records the classes an app loads when it starts, and loads them in parallel (without
+ * initializing them) the next time, so that when the context refresh needs them they are
+ * already defined. The list of classes for each jar is stored in the
+ * {@link ArchiveCache} next to its extracted classes.
+ *
+ * @author Dave Syer
+ *
+ */
+public class ClassPreloader {
+
+	/**
+	 * The name of the file that the class names are stored in.
+	 */
+	public static final String FILE_NAME = "classes.lst";
+
+	private static final Log logger = LogFactory.getLog(ClassPreloader.class);
+
+	private static final int BATCH_SIZE = 32;
+
+	private static final AtomicInteger counter = new AtomicInteger();
+
+	private final int threads;
+
+	/**
+	 * @param threads the number of threads that load classes for each app
+	 */
+	public ClassPreloader(int threads) {
+		this.threads = threads;
+	}
+
+	/**
+	 * @return a preloader with a thread count that depends on the available processors
+	 */
+	public static ClassPreloader withDefaults() {
+		return new ClassPreloader(
+				Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() / 2)));
+	}
+
+	/**
+	 * Load a list of class names recorded previously.
+	 *
+	 * @param directory the directory for the jar in the archive cache
+	 * @return the class names (empty if none were recorded)
+	 */
+	public List<String> load(File directory) {
+		File file = new File(directory, FILE_NAME);
+		if (!file.exists()) {
+			return new ArrayList<>();
+		}
+		try {
+			return Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+		}
+		catch (IOException e) {
+			logger.warn("Cannot read class list from " + file, e);
+			return new ArrayList<>();
+		}
+	}
+
+	/**
+	 * Save a list of class names.
+	 *
+	 * @param directory the directory for the jar in the archive cache
+	 * @param names the class names in the order they were loaded
+	 */
+	public void save(File directory, Collection<String> names) {
+		File file = new File(directory, FILE_NAME);
+		try {
+			File tmp = File.createTempFile("classes", ".tmp", directory);
+			Files.write(tmp.toPath(), names, StandardCharsets.UTF_8);
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			logger.warn("Cannot save class list to " + file, e);
+		}
+	}
+
+	/**
+	 * Start loading classes in the background. Each thread takes the next batch of names
+	 * from the list, so they are loaded roughly in the order they were recorded.
+	 *
+	 * @param loader the class loader to load the classes in
+	 * @param names the class names
+	 * @return a handle on the background work
+	 */
+	public Preload preload(ClassLoader loader, List<String> names) {
+		Preload preload = new Preload(loader, names, this.threads);
+		int id = counter.incrementAndGet();
+		for (int i = 0; i < this.threads; i++) {
+			Thread thread = new Thread(preload::run, "thin-preload-" + id + "-" + i);
+			thread.setDaemon(true);
+			thread.setPriority(Thread.NORM_PRIORITY - 1);
+			thread.start();
+		}
+		return preload;
+	}
+
+	/**
+	 * The classes being loaded for one app.
+	 */
+	public static class Preload {
+
+		private final ClassLoader loader;
+
+		private final List<String> names;
+
+		private final AtomicInteger next = new AtomicInteger();
+
+		private final AtomicInteger loaded = new AtomicInteger();
+
+		private final CountDownLatch finished;
+
+		private volatile boolean cancelled;
+
+		Preload(ClassLoader loader, List<String> names, int threads) {
+			this.loader = loader;
+			this.names = names;
+			this.finished = new CountDownLatch(threads);
+		}
+
+		private void run() {
+			try {
+				int start;
+				while (!this.cancelled && (start = this.next.getAndAdd(BATCH_SIZE)) < this.names
+						.size()) {
+					int end = Math.min(start + BATCH_SIZE, this.names.size());
+					for (int i = start; i < end && !this.cancelled; i++) {
+						try {
+							Class.forName(this.names.get(i), false, this.loader);
+							this.loaded.incrementAndGet();
+						}
+						catch (Throwable e) {
+							// Ignore: the class will fail (or not) when the app needs it
+						}
+					}
+				}
+			}
+			finally {
+				this.finished.countDown();
+			}
+		}
+
+		/**
+		 * Stop loading classes (e.g. because the app is being closed).
+		 */
+		public void cancel() {
+			this.cancelled = true;
+		}
+
+		/**
+		 * Wait for all the classes to be loaded.
+		 *
+		 * @param timeout the maximum time to wait
+		 * @param unit the unit of the timeout
+		 * @return true if the work finished in time
+		 * @throws InterruptedException if interrupted while waiting
+		 */
+		public boolean await(long timeout, TimeUnit unit) throws InterruptedException {
+			return this.finished.await(timeout, unit);
+		}
+
+		/**
+		 * @return the number of classes loaded so far
+		 */
+		public int getLoaded() {
+			return this.loaded.get();
+		}
+
+	}
+
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.lang.reflect.Constructor;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.aop.framework.Advised;
+import org.springframework.aop.support.AopUtils;
+import org.springframework.beans.BeanUtils;
+import org.springframework.boot.context.properties.ConfigurationProperties;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.env.MapPropertySource;
+import org.springframework.core.env.MutablePropertySources;
+import org.springframework.core.env.PropertySource;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ObjectUtils;
+
+/**
+ * Applies changed properties to a running app. The properties go in a property source
+ * at the top of the environment, and then the <code>@ConfigurationProperties</code>
+ * beans are bound again. If Spring Cloud is on the classpath of the app, an
+ * <code>EnvironmentChangeEvent</code> is published instead, so that it can do the
+ * rebinding (and anything else that listens for the event). Used inside the app's class
+ * loader.
+ *
+ * @author Dave Syer
+ *
+ */
+class ConfigurationUpdate {
+
+	static final String PROPERTY_SOURCE_NAME = "thinDeployerUpdates";
+
+	private static final String ENVIRONMENT_CHANGE_EVENT = "org.springframework.cloud.context.environment.EnvironmentChangeEvent";
+
+	/**
+	 * @param context the application context
+	 * @param properties the properties to change
+	 * @return the keys whose values actually changed
+	 */
+	static Set<String> apply(ConfigurableApplicationContext context,
+			Map<String, String> properties) {
+		Set<String> changed = new LinkedHashSet<>();
+		for (Map.Entry<String, String> entry : properties.entrySet()) {
+			if (!ObjectUtils.nullSafeEquals(entry.getValue(),
+					context.getEnvironment().getProperty(entry.getKey()))) {
+				changed.add(entry.getKey());
+			}
+		}
+		if (changed.isEmpty()) {
+			return changed;
+		}
+		MutablePropertySources sources = context.getEnvironment().getPropertySources();
+		Map<String, Object> values = new LinkedHashMap<>();
+		PropertySource<?> existing = sources.get(PROPERTY_SOURCE_NAME);
+		if (existing instanceof MapPropertySource) {
+			values.putAll(((MapPropertySource) existing).getSource());
+		}
+		values.putAll(properties);
+		sources.addFirst(new MapPropertySource(PROPERTY_SOURCE_NAME, values));
+		if (!publish(context, changed)) {
+			rebind(context);
+		}
+		return changed;
+	}
+
+	private static boolean publish(ConfigurableApplicationContext context,
+			Set<String> keys) {
+		ClassLoader classLoader = context.getClassLoader();
+		if (!ClassUtils.isPresent(ENVIRONMENT_CHANGE_EVENT, classLoader)) {
+			return false;
+		}
+		Class<?> type = ClassUtils.resolveClassName(ENVIRONMENT_CHANGE_EVENT,
+				classLoader);
+		// The constructor changed between versions
+		Constructor<?> constructor = ClassUtils.getConstructorIfAvailable(type,
+				Object.class, Set.class);
+		ApplicationEvent event = (ApplicationEvent) (constructor != null
+				? BeanUtils.instantiateClass(constructor, context, keys)
+				: BeanUtils.instantiateClass(
+						ClassUtils.getConstructorIfAvailable(type, Set.class), keys));
+		context.publishEvent(event);
+		return true;
+	}
+
+	private static void rebind(ConfigurableApplicationContext context) {
+		for (Map.Entry<String, Object> entry : context
+				.getBeansWithAnnotation(ConfigurationProperties.class).entrySet()) {
+			Object bean = entry.getValue();
+			if (AopUtils.isAopProxy(bean) && bean instanceof Advised) {
+				try {
+					bean = ((Advised) bean).getTargetSource().getTarget();
+				}
+				catch (Exception e) {
+					continue;
+				}
+			}
+			// Runs the binding post processor again (like the rebinder in Spring Cloud)
+			context.getAutowireCapableBeanFactory().initializeBean(bean,
+					entry.getKey());
+		}
+	}
+
+}
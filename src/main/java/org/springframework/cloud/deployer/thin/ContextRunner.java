@@ -17,10 +17,17 @@
 package org.springframework.cloud.deployer.thin;
 
 import java.sql.SQLException;
+import java.util.Collections;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
+import org.springframework.boot.SpringApplication;
 import org.springframework.boot.builder.SpringApplicationBuilder;
 import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.ClassUtils;
 
 /**
  * Utility class for starting a Spring Boot application in a separate thread. Best used
@@ -35,22 +42,156 @@ public class ContextRunner {
 	private Thread runThread;
 	private boolean running = false;
 	private Throwable error;
+	private Consumer<String> logSink;
+	private Map<String, Object> beans = Collections.emptyMap();
+	private ThreadGroup threadGroup;
+	private LazyInitialization lazyInitialization;
+	private boolean virtualThreads;
+	private boolean profile;
+	private BeanProfiler profiler;
+	private Function<String, Runnable> recorder = phase -> () -> {
+	};
+
+	/**
+	 * Send console logging to the sink provided (e.g. so that it can be written
+	 * asynchronously by the deployer).
+	 * 
+	 * @param logSink a sink for formatted log lines
+	 */
+	public void setLogSink(Consumer<String> logSink) {
+		this.logSink = logSink;
+	}
+
+	/**
+	 * Register some objects from the deployer as singletons in the context. They should
+	 * be of types that are visible from both sides (e.g. from the JDK).
+	 * 
+	 * @param beans a map of bean name to bean
+	 */
+	public void setBeans(Map<String, Object> beans) {
+		this.beans = beans;
+	}
+
+	/**
+	 * Run the context in the thread group provided, so that threads it creates can be
+	 * identified with this app.
+	 * 
+	 * @param threadGroup the thread group
+	 */
+	public void setThreadGroup(ThreadGroup threadGroup) {
+		this.threadGroup = threadGroup;
+	}
+
+	/**
+	 * Record the phases of the app lifecycle (e.g. as flight recorder events). The
+	 * recorder is called with the name of a phase when it starts and the result is run
+	 * when it ends.
+	 * 
+	 * @param recorder the recorder
+	 */
+	public void setRecorder(Function<String, Runnable> recorder) {
+		this.recorder = recorder;
+	}
+
+	/**
+	 * Start the context with lazy bean initialization, and create the remaining
+	 * singletons in the background once it is running.
+	 * 
+	 * @param lazyInit the flag value
+	 */
+	public void setLazyInit(boolean lazyInit) {
+		this.lazyInitialization = lazyInit ? new LazyInitialization() : null;
+	}
+
+	/**
+	 * @return the time (millis) to create the remaining singletons after the context
+	 * started in lazy mode, or -1 if that has not finished (or the context is not lazy)
+	 */
+	public long getWarmupTime() {
+		return this.lazyInitialization == null ? -1
+				: this.lazyInitialization.getWarmupTime();
+	}
+
+	/**
+	 * Start the context in a virtual thread, if the JVM supports them. Threads created by
+	 * the app then do not belong to the thread group (if there is one).
+	 * 
+	 * @param virtualThreads the flag value
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * Record the time each bean takes to create and initialize, and the time each
+	 * phase of the startup takes. Nothing is added to the context if this is off.
+	 * 
+	 * @param profile the flag value
+	 */
+	public void setProfile(boolean profile) {
+		this.profile = profile;
+	}
+
+	/**
+	 * The startup profile of the context, if profiling is on (see
+	 * {@link #setProfile(boolean)}).
+	 * 
+	 * @return the startup phases (key "phases") and the beans, slowest first (key
+	 * "beans"), or an empty map if the context was not profiled
+	 */
+	public Map<String, Object> getStartupProfile() {
+		BeanProfiler profiler = this.profiler;
+		return profiler == null ? Collections.emptyMap() : profiler.getProfile();
+	}
 
 	public void run(String source, Map<String, Object> properties, String... args) {
 		// Run in new thread to ensure that the context classloader is setup
-		this.runThread = new Thread(new Runnable() {
+		Runnable runnable = new Runnable() {
 			@Override
 			public void run() {
+				Runnable end = recorder.apply("refresh");
 				try {
-					context = new SpringApplicationBuilder(source).properties(properties)
-							.run(args);
+					SpringApplicationBuilder builder = new SpringApplicationBuilder(
+							source).properties(properties);
+					if (logSink != null) {
+						builder.listeners(new AsyncLoggingInitializer(logSink));
+					}
+					if (!beans.isEmpty()) {
+						builder.initializers(context -> {
+							for (String name : beans.keySet()) {
+								context.getBeanFactory().registerSingleton(name,
+										beans.get(name));
+							}
+						});
+					}
+					if (lazyInitialization != null) {
+						builder.initializers(context -> context
+								.addBeanFactoryPostProcessor(lazyInitialization));
+					}
+					if (profile) {
+						BeanProfiler beanProfiler = new BeanProfiler();
+						profiler = beanProfiler;
+						builder.listeners(beanProfiler);
+						builder.initializers(context -> context.getBeanFactory()
+								.addBeanPostProcessor(beanProfiler));
+					}
+					context = builder.run(args);
+					if (lazyInitialization != null) {
+						lazyInitialization.warmUp(context, threadGroup);
+					}
 				}
 				catch (Throwable ex) {
 					error = ex;
 				}
+				finally {
+					end.run();
+				}
 
 			}
-		});
+		};
+		this.runThread = this.virtualThreads
+				? VirtualThreads.newThread(this.threadGroup, "thin-run", runnable)
+				: new Thread(this.threadGroup, runnable);
 		this.runThread.start();
 		try {
 			this.runThread.join();
@@ -64,19 +205,109 @@ public class ContextRunner {
 	}
 
 	public void close() {
-		if (this.context != null) {
-			this.context.close();
-		}
+		closeContext();
+		Runnable end = this.recorder.apply("leak-cleanup");
 		try {
 			new JdbcLeakPrevention().clearJdbcDriverRegistrations();
 		}
 		catch (SQLException e) {
 			// TODO: log something
 		}
+		finally {
+			end.run();
+		}
 		this.running = false;
 		this.runThread = null;
 	}
 
+	/**
+	 * Close the context but leave static state in the class loader intact (e.g. so it can
+	 * be used again).
+	 */
+	public void closeContext() {
+		if (this.context != null) {
+			Runnable end = this.recorder.apply("close");
+			try {
+				this.context.close();
+			}
+			finally {
+				end.run();
+			}
+		}
+		this.running = false;
+	}
+
+	/**
+	 * Close the context as if the app was exiting, and compute an exit code from any
+	 * {@link org.springframework.boot.ExitCodeGenerator ExitCodeGenerators} in the
+	 * context.
+	 * 
+	 * @return the exit code
+	 */
+	public int exit() {
+		if (this.context == null) {
+			return this.error != null ? 1 : 0;
+		}
+		return SpringApplication.exit(this.context);
+	}
+
+	/**
+	 * The auto-configurations that were considered but did not match when the context
+	 * started.
+	 * 
+	 * @return the names of the auto-configuration classes (empty if there is no
+	 * context or no auto-configuration)
+	 */
+	public List<String> getUnmatchedAutoConfigurations() {
+		if (this.context == null || !ClassUtils.isPresent(
+				"org.springframework.boot.autoconfigure.condition.ConditionEvaluationReport",
+				getClass().getClassLoader())) {
+			return Collections.emptyList();
+		}
+		return AutoConfigurationReport.unmatched(this.context);
+	}
+
+	/**
+	 * @param key a property name
+	 * @return the value of the property in the context's environment (or null if there
+	 * is no context)
+	 */
+	public String getProperty(String key) {
+		return this.context == null ? null : this.context.getEnvironment().getProperty(key);
+	}
+
+	/**
+	 * Change some properties in the environment of the running context, and bind the
+	 * <code>@ConfigurationProperties</code> beans again.
+	 * 
+	 * @param properties the properties to change
+	 * @return the names of the properties whose values changed
+	 */
+	public Set<String> update(Map<String, String> properties) {
+		if (this.context == null) {
+			return Collections.emptySet();
+		}
+		return ConfigurationUpdate.apply(this.context, properties);
+	}
+
+	/**
+	 * Ask the health indicators of the app for its health (in process, not over HTTP).
+	 * 
+	 * @return the overall status (key "status") and the status of each health indicator
+	 * if the actuator is available
+	 */
+	public Map<String, String> getHealth() {
+		if (this.context == null) {
+			return Collections.singletonMap(HealthProbe.STATUS, HealthProbe.UNKNOWN);
+		}
+		try {
+			return HealthProbe.health(this.context);
+		}
+		catch (Exception e) {
+			return Collections.singletonMap(HealthProbe.STATUS, "DOWN");
+		}
+	}
+
 	public boolean isRunning() {
 		return running;
 	}
@@ -0,0 +1,229 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Constructor;
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Emits JDK Flight Recorder events for the phases of deploying and undeploying an app
+ * (dependency resolution, class loader creation, main class detection, context refresh,
+ * close and leak cleanup), and for the number of classes each app defines. Every event
+ * carries the deployment id and the resource.
+ * <p>
+ * The event type is created at runtime with <code>jdk.jfr.EventFactory</code>, so there
+ * is no dependency on JFR: on a JVM without it (e.g. older Java 8) the methods here do
+ * nothing. When JFR is present but the event is not enabled in a recording the cost is a
+ * single check per phase.
+ *
+ * @author Dave Syer
+ *
+ */
+public final class DeployerEvents {
+
+	/**
+	 * The name of the event type in recordings.
+	 */
+	public static final String EVENT_NAME = "org.springframework.cloud.deployer.thin.Deployer";
+
+	private static final Log logger = LogFactory.getLog(DeployerEvents.class);
+
+	private static final Runnable NOOP = () -> {
+	};
+
+	private static final EventType TYPE = EventType.create();
+
+	private DeployerEvents() {
+	}
+
+	/**
+	 * @return true if JFR is available in this JVM
+	 */
+	public static boolean isAvailable() {
+		return TYPE != null;
+	}
+
+	/**
+	 * Start timing a phase.
+	 *
+	 * @param phase the name of the phase
+	 * @param deploymentId the deployment id
+	 * @param resource a description of the resource being deployed
+	 * @return a callback to run at the end of the phase
+	 */
+	public static Runnable begin(String phase, String deploymentId, String resource) {
+		if (TYPE == null || !TYPE.isEnabled()) {
+			return NOOP;
+		}
+		Object event = TYPE.begin();
+		return () -> TYPE.commit(event, phase, deploymentId, resource, -1L);
+	}
+
+	/**
+	 * Record the number of classes defined by an app.
+	 *
+	 * @param deploymentId the deployment id
+	 * @param resource a description of the resource being deployed
+	 * @param count the number of classes
+	 */
+	public static void classes(String deploymentId, String resource, long count) {
+		if (TYPE == null || !TYPE.isEnabled()) {
+			return;
+		}
+		TYPE.commit(TYPE.begin(), "class-define", deploymentId, resource, count);
+	}
+
+	/**
+	 * A recorder for an app, of a type that can be handed across the class loader
+	 * boundary: apply it with the name of a phase at the start and run the result at the
+	 * end.
+	 *
+	 * @param deploymentId the deployment id
+	 * @param resource a description of the resource being deployed
+	 * @return a recorder
+	 */
+	public static Function<String, Runnable> recorder(String deploymentId,
+			String resource) {
+		return phase -> begin(phase, deploymentId, resource);
+	}
+
+	private static class EventType {
+
+		private final Object factory;
+
+		private final Object type;
+
+		private final Method isEnabled;
+
+		private final Method newEvent;
+
+		private final Method begin;
+
+		private final Method end;
+
+		private final Method shouldCommit;
+
+		private final Method set;
+
+		private final Method commit;
+
+		EventType(Object factory) throws Exception {
+			this.factory = factory;
+			this.type = factory.getClass().getMethod("getEventType").invoke(factory);
+			this.isEnabled = this.type.getClass().getMethod("isEnabled");
+			this.newEvent = factory.getClass().getMethod("newEvent");
+			Class<?> event = Class.forName("jdk.jfr.Event");
+			this.begin = event.getMethod("begin");
+			this.end = event.getMethod("end");
+			this.shouldCommit = event.getMethod("shouldCommit");
+			this.set = event.getMethod("set", int.class, Object.class);
+			this.commit = event.getMethod("commit");
+		}
+
+		static EventType create() {
+			try {
+				Class<?> factoryType = Class.forName("jdk.jfr.EventFactory");
+				Class<?> annotationType = Class.forName("jdk.jfr.AnnotationElement");
+				Class<?> valueType = Class.forName("jdk.jfr.ValueDescriptor");
+				Constructor<?> annotation = annotationType.getConstructor(Class.class,
+						Object.class);
+				Constructor<?> value = valueType.getConstructor(Class.class,
+						String.class);
+				List<Object> annotations = Arrays.asList(
+						annotation.newInstance(Class.forName("jdk.jfr.Name"), EVENT_NAME),
+						annotation.newInstance(Class.forName("jdk.jfr.Label"),
+								"Deployer Phase"),
+						annotation.newInstance(Class.forName("jdk.jfr.Category"),
+								new String[] { "Spring Cloud", "Deployer" }));
+				List<Object> fields = Arrays.asList(
+						value.newInstance(String.class, "phase"),
+						value.newInstance(String.class, "deploymentId"),
+						value.newInstance(String.class, "resource"),
+						value.newInstance(long.class, "classCount"));
+				Object factory = factoryType.getMethod("create", List.class, List.class)
+						.invoke(null, typed(annotationType, annotations),
+								typed(valueType, fields));
+				return new EventType(factory);
+			}
+			catch (ClassNotFoundException e) {
+				return null;
+			}
+			catch (Throwable e) {
+				logger.debug("Cannot create flight recorder event type", e);
+				return null;
+			}
+		}
+
+		private static List<Object> typed(Class<?> type, List<Object> values) {
+			Object array = Array.newInstance(type, values.size());
+			for (int i = 0; i < values.size(); i++) {
+				Array.set(array, i, values.get(i));
+			}
+			@SuppressWarnings("unchecked")
+			List<Object> list = (List<Object>) (List<?>) Arrays.asList((Object[]) array);
+			return list;
+		}
+
+		boolean isEnabled() {
+			try {
+				return (Boolean) this.isEnabled.invoke(this.type);
+			}
+			catch (Exception e) {
+				return false;
+			}
+		}
+
+		Object begin() {
+			try {
+				Object event = this.newEvent.invoke(this.factory);
+				this.begin.invoke(event);
+				return event;
+			}
+			catch (Exception e) {
+				return null;
+			}
+		}
+
+		void commit(Object event, String phase, String deploymentId, String resource,
+				long count) {
+			if (event == null) {
+				return;
+			}
+			try {
+				this.end.invoke(event);
+				if ((Boolean) this.shouldCommit.invoke(event)) {
+					this.set.invoke(event, 0, phase);
+					this.set.invoke(event, 1, deploymentId);
+					this.set.invoke(event, 2, resource);
+					this.set.invoke(event, 3, count);
+					this.commit.invoke(event);
+				}
+			}
+			catch (Exception e) {
+				logger.debug("Cannot commit flight recorder event", e);
+			}
+		}
+
+	}
+
+}
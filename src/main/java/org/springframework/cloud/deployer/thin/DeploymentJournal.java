@@ -0,0 +1,281 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * A record of the apps that are deployed, kept on disk (one small properties file per
+ * app) so that they can be restored when the deployer restarts. Each entry has the
+ * original deployment request, plus the resolved classpath and main class, so the app
+ * can be started again without resolving its dependencies.
+ *
+ * @author Dave Syer
+ *
+ * @see AbstractThinJarSupport#restore()
+ */
+public class DeploymentJournal {
+
+	private static final Log logger = LogFactory.getLog(DeploymentJournal.class);
+
+	private static final String SUFFIX = ".properties";
+
+	private final File directory;
+
+	/**
+	 * @param directory the directory to keep the journal in
+	 */
+	public DeploymentJournal(File directory) {
+		this.directory = directory;
+	}
+
+	public File getDirectory() {
+		return this.directory;
+	}
+
+	/**
+	 * Record an app (replacing any existing entry with the same id).
+	 *
+	 * @param entry the app to record
+	 */
+	public void save(Entry entry) {
+		Properties properties = new Properties();
+		properties.setProperty("id", entry.getId());
+		properties.setProperty("resource", entry.getResource().getAbsolutePath());
+		properties.setProperty("name", entry.getName());
+		if (entry.getMainClass() != null) {
+			properties.setProperty("main", entry.getMainClass());
+		}
+		if (entry.getPort() != null) {
+			properties.setProperty("port", entry.getPort());
+		}
+		put(properties, "definition.", entry.getProperties());
+		put(properties, "deployment.", entry.getDeploymentProperties());
+		for (int i = 0; i < entry.getArgs().size(); i++) {
+			properties.setProperty("args." + i, entry.getArgs().get(i));
+		}
+		if (entry.getClasspath() != null) {
+			for (int i = 0; i < entry.getClasspath().size(); i++) {
+				properties.setProperty("classpath." + i,
+						entry.getClasspath().get(i).toString());
+			}
+		}
+		this.directory.mkdirs();
+		File file = file(entry.getId());
+		try {
+			File tmp = File.createTempFile(entry.getId(), ".tmp", this.directory);
+			try (OutputStream stream = new FileOutputStream(tmp)) {
+				properties.store(stream, "Deployed app");
+			}
+			Files.move(tmp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		}
+		catch (IOException e) {
+			logger.warn("Cannot record deployment in " + file, e);
+		}
+	}
+
+	/**
+	 * Forget an app.
+	 *
+	 * @param id the app id
+	 */
+	public void remove(String id) {
+		file(id).delete();
+	}
+
+	/**
+	 * @return all the apps in the journal (entries that cannot be read are skipped)
+	 */
+	public List<Entry> load() {
+		List<Entry> entries = new ArrayList<>();
+		File[] files = this.directory.listFiles((dir, name) -> name.endsWith(SUFFIX));
+		if (files == null) {
+			return entries;
+		}
+		for (File file : files) {
+			Properties properties = new Properties();
+			try (InputStream stream = new FileInputStream(file)) {
+				properties.load(stream);
+				entries.add(entry(properties));
+			}
+			catch (Exception e) {
+				logger.warn("Cannot read deployment from " + file, e);
+			}
+		}
+		return entries;
+	}
+
+	private Entry entry(Properties properties) throws MalformedURLException {
+		List<String> args = new ArrayList<>();
+		for (int i = 0; properties.containsKey("args." + i); i++) {
+			args.add(properties.getProperty("args." + i));
+		}
+		List<URL> classpath = null;
+		if (properties.containsKey("classpath.0")) {
+			classpath = new ArrayList<>();
+			for (int i = 0; properties.containsKey("classpath." + i); i++) {
+				classpath.add(new URL(properties.getProperty("classpath." + i)));
+			}
+		}
+		return new Entry(properties.getProperty("id"),
+				new File(properties.getProperty("resource")),
+				properties.getProperty("name"), get(properties, "definition."),
+				get(properties, "deployment."), args, classpath,
+				properties.getProperty("main"), properties.getProperty("port"));
+	}
+
+	private void put(Properties properties, String prefix, Map<String, String> values) {
+		for (Map.Entry<String, String> value : values.entrySet()) {
+			properties.setProperty(prefix + value.getKey(), value.getValue());
+		}
+	}
+
+	private Map<String, String> get(Properties properties, String prefix) {
+		Map<String, String> values = new LinkedHashMap<>();
+		for (String key : properties.stringPropertyNames()) {
+			if (key.startsWith(prefix)) {
+				values.put(key.substring(prefix.length()), properties.getProperty(key));
+			}
+		}
+		return values;
+	}
+
+	private File file(String id) {
+		return new File(this.directory, id + SUFFIX);
+	}
+
+	/**
+	 * An app in the journal.
+	 */
+	public static class Entry {
+
+		private final String id;
+
+		private final File resource;
+
+		private final String name;
+
+		private final Map<String, String> properties;
+
+		private final Map<String, String> deploymentProperties;
+
+		private final List<String> args;
+
+		private final List<URL> classpath;
+
+		private final String mainClass;
+
+		private final String port;
+
+		public Entry(String id, File resource, String name,
+				Map<String, String> properties, Map<String, String> deploymentProperties,
+				List<String> args, List<URL> classpath, String mainClass, String port) {
+			this.id = id;
+			this.resource = resource;
+			this.name = name;
+			this.properties = Collections.unmodifiableMap(properties);
+			this.deploymentProperties = Collections
+					.unmodifiableMap(deploymentProperties);
+			this.args = args == null ? Collections.<String>emptyList()
+					: Collections.unmodifiableList(args);
+			this.classpath = classpath == null ? null
+					: Collections.unmodifiableList(classpath);
+			this.mainClass = mainClass;
+			this.port = port;
+		}
+
+		public String getId() {
+			return this.id;
+		}
+
+		public File getResource() {
+			return this.resource;
+		}
+
+		public String getName() {
+			return this.name;
+		}
+
+		public Map<String, String> getProperties() {
+			return this.properties;
+		}
+
+		public Map<String, String> getDeploymentProperties() {
+			return this.deploymentProperties;
+		}
+
+		public List<String> getArgs() {
+			return this.args;
+		}
+
+		/**
+		 * @return the resolved dependencies of the app (or null if they were not
+		 * resolved, e.g. for a fat jar)
+		 */
+		public List<URL> getClasspath() {
+			return this.classpath;
+		}
+
+		public String getMainClass() {
+			return this.mainClass;
+		}
+
+		/**
+		 * @return the server port that was assigned to the app (if any)
+		 */
+		public String getPort() {
+			return this.port;
+		}
+
+		/**
+		 * @return a request that deploys the app again (on the same port if it had one)
+		 */
+		public AppDeploymentRequest toRequest() {
+			Map<String, String> properties = new LinkedHashMap<>(this.properties);
+			if (this.port != null) {
+				properties.put("server.port", this.port);
+			}
+			return new AppDeploymentRequest(new AppDefinition(this.name, properties),
+					new FileSystemResource(this.resource), this.deploymentProperties,
+					this.args);
+		}
+
+	}
+
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+
+/**
+ * An immutable view of the state of all the apps in a deployer at a point in time. A new
+ * snapshot (with a higher version) is only created when some state changes, so clients
+ * can compare versions (or instances) to find out if anything happened since they last
+ * looked.
+ *
+ * @author Dave Syer
+ *
+ * @see ThinJarAppDeployer#statusAll()
+ */
+public final class DeploymentSnapshot {
+
+	static final DeploymentSnapshot EMPTY = new DeploymentSnapshot(0L,
+			Collections.emptyMap());
+
+	private final long version;
+
+	private final long timestamp;
+
+	private final Map<String, DeploymentState> states;
+
+	DeploymentSnapshot(long version, Map<String, DeploymentState> states) {
+		this.version = version;
+		this.timestamp = System.currentTimeMillis();
+		this.states = Collections.unmodifiableMap(new LinkedHashMap<>(states));
+	}
+
+	/**
+	 * @return the version of this snapshot (increases every time a state changes)
+	 */
+	public long getVersion() {
+		return this.version;
+	}
+
+	/**
+	 * @return the time (millis since the epoch) when this snapshot was created
+	 */
+	public long getTimestamp() {
+		return this.timestamp;
+	}
+
+	/**
+	 * @return the state of each app, keyed by its id
+	 */
+	public Map<String, DeploymentState> getStates() {
+		return this.states;
+	}
+
+	/**
+	 * @param id the app id
+	 * @return the state of the app (unknown if it is not in the snapshot)
+	 */
+	public DeploymentState getState(String id) {
+		DeploymentState state = this.states.get(id);
+		return state == null ? DeploymentState.unknown : state;
+	}
+
+	/**
+	 * The apps whose state is different in this snapshot compared to an earlier one.
+	 *
+	 * @param previous an earlier snapshot (or null for all apps)
+	 * @return the new state of the changed apps, keyed by id
+	 */
+	public Map<String, DeploymentState> changes(DeploymentSnapshot previous) {
+		if (previous == null) {
+			return this.states;
+		}
+		Map<String, DeploymentState> changes = new LinkedHashMap<>();
+		for (Map.Entry<String, DeploymentState> entry : this.states.entrySet()) {
+			if (entry.getValue() != previous.states.get(entry.getKey())) {
+				changes.put(entry.getKey(), entry.getValue());
+			}
+		}
+		for (String id : previous.states.keySet()) {
+			if (!this.states.containsKey(id)) {
+				changes.put(id, DeploymentState.unknown);
+			}
+		}
+		return changes;
+	}
+
+	@Override
+	public String toString() {
+		return "DeploymentSnapshot [version=" + this.version + ", states=" + this.states
+				+ "]";
+	}
+
+}
@@ -0,0 +1,165 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+import org.springframework.http.MediaType;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.ResponseBody;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+/**
+ * Streams the state of the apps in a {@link ThinJarAppDeployer} as server-sent events, so
+ * clients can subscribe instead of polling. A new subscriber gets a "snapshot" event
+ * with all the apps, and then a "change" event for each app whose state changes. The
+ * deployer is only polled (with {@link ThinJarAppDeployer#statusAll()}) while there are
+ * subscribers.
+ *
+ * @author Dave Syer
+ *
+ */
+@RequestMapping("${spring.cloud.deployer.thin.status.stream.path:/deployments/status}")
+public class DeploymentStatusEndpoint implements DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(DeploymentStatusEndpoint.class);
+
+	private static final long TIMEOUT = TimeUnit.MINUTES.toMillis(5);
+
+	private final ThinJarAppDeployer deployer;
+
+	private final long interval;
+
+	private final List<SseEmitter> emitters = new CopyOnWriteArrayList<>();
+
+	private final ScheduledExecutorService scheduler = Executors
+			.newSingleThreadScheduledExecutor(runnable -> {
+				Thread thread = new Thread(runnable, "thin-status");
+				thread.setDaemon(true);
+				return thread;
+			});
+
+	private ScheduledFuture<?> poller;
+
+	private volatile DeploymentSnapshot last;
+
+	/**
+	 * @param deployer the deployer to watch
+	 * @param interval how often (millis) to poll the deployer for changes
+	 */
+	public DeploymentStatusEndpoint(ThinJarAppDeployer deployer, long interval) {
+		this.deployer = deployer;
+		this.interval = interval;
+	}
+
+	@GetMapping(produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+	@ResponseBody
+	public SseEmitter subscribe() throws IOException {
+		SseEmitter emitter = new SseEmitter(TIMEOUT);
+		emitter.onCompletion(() -> unsubscribe(emitter));
+		emitter.onTimeout(() -> unsubscribe(emitter));
+		DeploymentSnapshot snapshot = this.deployer.statusAll();
+		Map<String, Object> data = new LinkedHashMap<>();
+		data.put("version", snapshot.getVersion());
+		data.put("timestamp", snapshot.getTimestamp());
+		data.put("states", snapshot.getStates());
+		emitter.send(event("snapshot", snapshot, data));
+		synchronized (this) {
+			this.emitters.add(emitter);
+			if (this.poller == null) {
+				this.last = snapshot;
+				this.poller = this.scheduler.scheduleWithFixedDelay(this::poll,
+						this.interval, this.interval, TimeUnit.MILLISECONDS);
+			}
+		}
+		return emitter;
+	}
+
+	@Override
+	public void destroy() {
+		this.scheduler.shutdownNow();
+		for (SseEmitter emitter : this.emitters) {
+			emitter.complete();
+		}
+		this.emitters.clear();
+	}
+
+	private synchronized void unsubscribe(SseEmitter emitter) {
+		this.emitters.remove(emitter);
+		if (this.emitters.isEmpty() && this.poller != null) {
+			this.poller.cancel(false);
+			this.poller = null;
+		}
+	}
+
+	private void poll() {
+		try {
+			DeploymentSnapshot snapshot = this.deployer.statusAll();
+			DeploymentSnapshot last = this.last;
+			if (snapshot == last) {
+				return;
+			}
+			this.last = snapshot;
+			for (Map.Entry<String, DeploymentState> change : snapshot.changes(last)
+					.entrySet()) {
+				Map<String, Object> data = new LinkedHashMap<>();
+				data.put("version", snapshot.getVersion());
+				data.put("timestamp", snapshot.getTimestamp());
+				data.put("id", change.getKey());
+				data.put("state", change.getValue().name());
+				send(snapshot, data);
+			}
+		}
+		catch (Exception e) {
+			logger.error("Cannot poll deployment status", e);
+		}
+	}
+
+	private void send(DeploymentSnapshot snapshot, Map<String, Object> data) {
+		for (SseEmitter emitter : this.emitters) {
+			try {
+				// A builder can only be sent once
+				emitter.send(event("change", snapshot, data));
+			}
+			catch (Exception e) {
+				// Client went away
+				emitter.completeWithError(e);
+				unsubscribe(emitter);
+			}
+		}
+	}
+
+	private SseEmitter.SseEventBuilder event(String name, DeploymentSnapshot snapshot,
+			Map<String, Object> data) {
+		return SseEmitter.event().name(name).id(String.valueOf(snapshot.getVersion()))
+				.data(data, MediaType.APPLICATION_JSON);
+	}
+
+}
@@ -0,0 +1,117 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.lang.reflect.Method;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Asks the health indicators of a running app for its health, directly instead of
+ * through the HTTP endpoint. Used inside the app's class loader, and the actuator is
+ * optional, so everything is done by reflection. The result only contains strings, so
+ * it can be passed back to the deployer.
+ *
+ * @author Dave Syer
+ *
+ */
+class HealthProbe {
+
+	static final String STATUS = "status";
+
+	static final String UNKNOWN = "UNKNOWN";
+
+	private static final String HEALTH_ENDPOINT = "org.springframework.boot.actuate.endpoint.HealthEndpoint";
+
+	private static final String HEALTH_INDICATOR = "org.springframework.boot.actuate.health.HealthIndicator";
+
+	/**
+	 * Worst first, like the default health aggregator in Spring Boot.
+	 */
+	private static final List<String> ORDER = Arrays.asList("DOWN", "OUT_OF_SERVICE",
+			"UP", UNKNOWN);
+
+	/**
+	 * @param context the application context
+	 * @return the overall status (key "status") and the status of each indicator (if
+	 * known)
+	 */
+	static Map<String, String> health(ConfigurableApplicationContext context) {
+		Map<String, String> result = new LinkedHashMap<>();
+		ClassLoader classLoader = context.getClassLoader();
+		if (!context.isActive()) {
+			result.put(STATUS, "DOWN");
+		}
+		else if (ClassUtils.isPresent(HEALTH_ENDPOINT, classLoader) && !context
+				.getBeansOfType(ClassUtils.resolveClassName(HEALTH_ENDPOINT, classLoader))
+				.isEmpty()) {
+			// The endpoint aggregates the indicators (and caches the result)
+			Object endpoint = context.getBean(
+					ClassUtils.resolveClassName(HEALTH_ENDPOINT, classLoader));
+			Object health = invoke(endpoint, "invoke");
+			result.put(STATUS, status(health));
+			for (Map.Entry<?, ?> detail : ((Map<?, ?>) invoke(health, "getDetails"))
+					.entrySet()) {
+				if (ReflectionUtils.findMethod(detail.getValue().getClass(),
+						"getStatus") != null) {
+					result.put(detail.getKey().toString(), status(detail.getValue()));
+				}
+			}
+		}
+		else if (ClassUtils.isPresent(HEALTH_INDICATOR, classLoader)) {
+			String status = null;
+			for (Map.Entry<String, ?> indicator : context
+					.getBeansOfType(ClassUtils.resolveClassName(HEALTH_INDICATOR,
+							classLoader))
+					.entrySet()) {
+				String value = status(invoke(indicator.getValue(), "health"));
+				result.put(indicator.getKey(), value);
+				status = worst(status, value);
+			}
+			result.put(STATUS, status == null ? "UP" : status);
+		}
+		else {
+			// No actuator: the context is up and that's all we know
+			result.put(STATUS, "UP");
+		}
+		return result;
+	}
+
+	private static String worst(String current, String value) {
+		if (current == null) {
+			return value;
+		}
+		int index = ORDER.indexOf(value);
+		return index >= 0 && index < ORDER.indexOf(current) ? value : current;
+	}
+
+	private static String status(Object health) {
+		return (String) invoke(invoke(health, "getStatus"), "getCode");
+	}
+
+	private static Object invoke(Object target, String name) {
+		Method method = ReflectionUtils.findMethod(target.getClass(), name);
+		ReflectionUtils.makeAccessible(method);
+		return ReflectionUtils.invokeMethod(method, target);
+	}
+
+}
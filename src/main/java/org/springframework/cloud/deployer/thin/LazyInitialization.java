@@ -0,0 +1,93 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.beans.factory.config.BeanFactoryPostProcessor;
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.context.ConfigurableApplicationContext;
+
+/**
+ * Makes all the application beans in a context lazy, so it starts (and its server
+ * listens) as soon as possible, and then creates the remaining singletons in a
+ * background thread. Used inside the app's class loader.
+ *
+ * @author Dave Syer
+ *
+ */
+class LazyInitialization implements BeanFactoryPostProcessor {
+
+	private static final Log logger = LogFactory.getLog(LazyInitialization.class);
+
+	private volatile long warmupTime = -1;
+
+	@Override
+	public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory)
+			throws BeansException {
+		for (String name : beanFactory.getBeanDefinitionNames()) {
+			BeanDefinition definition = beanFactory.getBeanDefinition(name);
+			if (definition.getRole() == BeanDefinition.ROLE_APPLICATION) {
+				definition.setLazyInit(true);
+			}
+		}
+	}
+
+	/**
+	 * Start creating the remaining singletons in the background.
+	 *
+	 * @param context the running context
+	 * @param group the thread group of the app
+	 */
+	void warmUp(ConfigurableApplicationContext context, ThreadGroup group) {
+		Thread thread = new Thread(group, () -> {
+			long start = System.nanoTime();
+			ConfigurableListableBeanFactory beanFactory = context.getBeanFactory();
+			for (String name : beanFactory.getBeanDefinitionNames()) {
+				if (!context.isActive()) {
+					return;
+				}
+				try {
+					BeanDefinition definition = beanFactory.getBeanDefinition(name);
+					if (definition.isSingleton() && !definition.isAbstract()) {
+						beanFactory.getBean(name);
+					}
+				}
+				catch (Exception e) {
+					logger.warn("Cannot warm up bean " + name, e);
+				}
+			}
+			this.warmupTime = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+		}, "thin-warmup");
+		thread.setDaemon(true);
+		thread.setPriority(Thread.MIN_PRIORITY);
+		thread.setContextClassLoader(context.getClassLoader());
+		thread.start();
+	}
+
+	/**
+	 * @return the time (millis) the warm-up took, or -1 if it has not finished
+	 */
+	long getWarmupTime() {
+		return this.warmupTime;
+	}
+
+}
@@ -0,0 +1,372 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BiFunction;
+import java.util.function.Consumer;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.core.ConfigurableObjectInputStream;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.ConcurrentReferenceHashMap;
+import org.springframework.util.ConcurrentReferenceHashMap.ReferenceType;
+
+/**
+ * A registry of in-memory message channels, living in the deployer's class loader, that
+ * apps co-deployed in the same JVM can use instead of an external broker. Every
+ * subscriber to a destination has its own bounded lock-free queue and a thread that
+ * delivers messages to it (and waits without spinning when there are none), so a slow
+ * consumer only applies backpressure to producers once its queue is full. Payloads are
+ * passed by reference when the subscriber can see the same class (e.g.
+ * <code>byte[]</code>, <code>String</code> or anything else from the JDK), and
+ * otherwise are copied by Java serialization.
+ * <p>
+ * Apps see the registry as beans of JDK functional types (see {@link #sender()} and
+ * {@link #subscriber()}), so no deployer classes cross the class loader boundary.
+ *
+ * @author Dave Syer
+ *
+ */
+public class LocalChannelRegistry {
+
+	/**
+	 * Bean name for the sender in a deployed app's context.
+	 */
+	public static final String SENDER_BEAN_NAME = "localChannelSender";
+
+	/**
+	 * Bean name for the subscriber in a deployed app's context.
+	 */
+	public static final String SUBSCRIBER_BEAN_NAME = "localChannelSubscriber";
+
+	private static final Log logger = LogFactory.getLog(LocalChannelRegistry.class);
+
+	private static final LocalChannelRegistry INSTANCE = new LocalChannelRegistry(1024,
+			TimeUnit.SECONDS.toMillis(10));
+
+	private final Map<String, List<Subscription>> destinations = new ConcurrentHashMap<>();
+
+	private final int capacity;
+
+	private final long sendTimeout;
+
+	private final AtomicInteger threads = new AtomicInteger();
+
+	/**
+	 * @param capacity the size of the queue for each subscriber
+	 * @param sendTimeout how long (millis) a producer waits when a queue is full
+	 */
+	public LocalChannelRegistry(int capacity, long sendTimeout) {
+		this.capacity = capacity;
+		this.sendTimeout = sendTimeout;
+	}
+
+	/**
+	 * The shared instance used by default by all deployers in this JVM.
+	 *
+	 * @return the shared registry
+	 */
+	public static LocalChannelRegistry getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * Send a payload to all the subscribers of a destination.
+	 *
+	 * @param destination the destination name
+	 * @param payload the payload
+	 * @return true if all subscribers accepted the payload within the timeout
+	 */
+	public boolean send(String destination, Object payload) {
+		List<Subscription> subscriptions = this.destinations.get(destination);
+		if (subscriptions == null) {
+			return true;
+		}
+		boolean sent = true;
+		for (Subscription subscription : subscriptions) {
+			boolean offered = subscription.queue.offer(subscription.convert(payload),
+					this.sendTimeout, TimeUnit.MILLISECONDS);
+			if (offered) {
+				subscription.signal();
+			}
+			sent &= offered;
+		}
+		return sent;
+	}
+
+	/**
+	 * Subscribe to a destination. Messages are delivered on a thread owned by the
+	 * subscription, with the context class loader of the caller.
+	 *
+	 * @param destination the destination name
+	 * @param consumer a callback for the payloads
+	 * @return a callback that cancels the subscription
+	 */
+	public Runnable subscribe(String destination, Consumer<Object> consumer) {
+		Subscription subscription = new Subscription(destination, consumer,
+				ClassUtils.getDefaultClassLoader());
+		this.destinations
+				.computeIfAbsent(destination, key -> new CopyOnWriteArrayList<>())
+				.add(subscription);
+		subscription.start();
+		return () -> {
+			this.destinations.get(destination).remove(subscription);
+			subscription.stop();
+		};
+	}
+
+	/**
+	 * @return a function that sends a payload (second argument) to a destination (first
+	 * argument), suitable for handing to a deployed app
+	 */
+	public BiFunction<String, Object, Boolean> sender() {
+		return this::send;
+	}
+
+	/**
+	 * @return a function that subscribes a callback (second argument) to a destination
+	 * (first argument) and returns a callback to unsubscribe, suitable for handing to a
+	 * deployed app
+	 */
+	public BiFunction<String, Consumer<Object>, Runnable> subscriber() {
+		return this::subscribe;
+	}
+
+	/**
+	 * @return a subscriber for one app that keeps track of its subscriptions, so they
+	 * can all be cancelled when the app is undeployed
+	 */
+	public Subscriptions subscriptions() {
+		return new Subscriptions();
+	}
+
+	/**
+	 * @param destination a destination name
+	 * @return the number of payloads waiting to be delivered to subscribers
+	 */
+	public int getBacklog(String destination) {
+		int backlog = 0;
+		List<Subscription> subscriptions = this.destinations.get(destination);
+		if (subscriptions != null) {
+			for (Subscription subscription : subscriptions) {
+				backlog += subscription.queue.size();
+			}
+		}
+		return backlog;
+	}
+
+	/**
+	 * The subscriptions of one app. It is the function that the app sees as its
+	 * subscriber (see {@link LocalChannelRegistry#subscriber()}).
+	 */
+	public class Subscriptions implements BiFunction<String, Consumer<Object>, Runnable> {
+
+		private final Set<Runnable> cancellations = ConcurrentHashMap.newKeySet();
+
+		@Override
+		public Runnable apply(String destination, Consumer<Object> consumer) {
+			Runnable cancel = subscribe(destination, consumer);
+			Runnable tracked = new Runnable() {
+				@Override
+				public void run() {
+					if (Subscriptions.this.cancellations.remove(this)) {
+						cancel.run();
+					}
+				}
+			};
+			this.cancellations.add(tracked);
+			return tracked;
+		}
+
+		/**
+		 * Cancel all the subscriptions (e.g. when the app stops).
+		 */
+		public void cancel() {
+			for (Runnable cancellation : new ArrayList<>(this.cancellations)) {
+				cancellation.run();
+			}
+		}
+
+		/**
+		 * @return the number of active subscriptions
+		 */
+		public int size() {
+			return this.cancellations.size();
+		}
+
+	}
+
+	private class Subscription implements Runnable {
+
+		private final String destination;
+
+		private final Consumer<Object> consumer;
+
+		private final ClassLoader classLoader;
+
+		// Weak keys so the subscriber does not keep the producer's classes alive
+		private final Map<Class<?>, Boolean> visible = new ConcurrentReferenceHashMap<>(
+				16, ReferenceType.WEAK);
+
+		private final RingBuffer<Object> queue = new RingBuffer<>(
+				LocalChannelRegistry.this.capacity);
+
+		private volatile Thread thread;
+
+		private volatile boolean waiting;
+
+		Subscription(String destination, Consumer<Object> consumer,
+				ClassLoader classLoader) {
+			this.destination = destination;
+			this.consumer = consumer;
+			this.classLoader = classLoader;
+		}
+
+		void start() {
+			this.thread = new Thread(this, "local-channel-" + this.destination + "-"
+					+ LocalChannelRegistry.this.threads.incrementAndGet());
+			this.thread.setDaemon(true);
+			this.thread.setContextClassLoader(this.classLoader);
+			this.thread.start();
+		}
+
+		void stop() {
+			Thread thread = this.thread;
+			this.thread = null;
+			if (thread != null) {
+				LockSupport.unpark(thread);
+			}
+		}
+
+		/**
+		 * Wake up the delivery thread if it is waiting for messages.
+		 */
+		void signal() {
+			if (this.waiting) {
+				Thread thread = this.thread;
+				if (thread != null) {
+					LockSupport.unpark(thread);
+				}
+			}
+		}
+
+		@Override
+		public void run() {
+			while (this.thread != null) {
+				int count = this.queue.drain(this::deliver, 256);
+				if (count == 0) {
+					this.waiting = true;
+					// Check again after setting the flag, so a signal cannot be missed
+					if (this.queue.size() == 0 && this.thread != null) {
+						LockSupport.park(this);
+					}
+					this.waiting = false;
+				}
+			}
+		}
+
+		private void deliver(Object payload) {
+			try {
+				if (payload instanceof Copy) {
+					payload = ((Copy) payload).read(this.classLoader);
+				}
+				this.consumer.accept(payload);
+			}
+			catch (Exception e) {
+				logger.error("Cannot deliver message to " + this.destination, e);
+			}
+		}
+
+		private Object convert(Object payload) {
+			Class<?> type = payload.getClass();
+			if (isVisible(type)) {
+				return payload;
+			}
+			if (payload instanceof Serializable) {
+				return new Copy(payload);
+			}
+			throw new IllegalArgumentException(
+					"Payload is neither visible to the subscriber nor serializable: "
+							+ type);
+		}
+
+		private boolean isVisible(Class<?> type) {
+			if (type.isArray()) {
+				return isVisible(type.getComponentType());
+			}
+			if (type.isPrimitive() || type.getClassLoader() == null) {
+				return true;
+			}
+			Boolean visible = this.visible.get(type);
+			if (visible == null) {
+				try {
+					visible = ClassUtils.forName(type.getName(),
+							this.classLoader) == type;
+				}
+				catch (Throwable e) {
+					visible = false;
+				}
+				this.visible.put(type, visible);
+			}
+			return visible;
+		}
+
+	}
+
+	/**
+	 * A serialized copy of a payload that is not visible to the subscriber.
+	 */
+	private static class Copy {
+
+		private final byte[] bytes;
+
+		Copy(Object payload) {
+			ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+			try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+				output.writeObject(payload);
+			}
+			catch (IOException e) {
+				throw new IllegalArgumentException("Cannot serialize payload", e);
+			}
+			this.bytes = bytes.toByteArray();
+		}
+
+		Object read(ClassLoader classLoader) throws IOException, ClassNotFoundException {
+			try (ConfigurableObjectInputStream input = new ConfigurableObjectInputStream(
+					new ByteArrayInputStream(this.bytes), classLoader)) {
+				return input.readObject();
+			}
+		}
+
+	}
+
+}
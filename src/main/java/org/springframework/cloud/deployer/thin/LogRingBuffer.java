@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A bounded, lock-free buffer of formatted log lines for a single deployed app. Any
+ * number of threads in the app can add lines concurrently and a single writer drains
+ * them. When the buffer is full lines are either dropped or the logging thread waits,
+ * depending on the {@link Overflow} policy.
+ * <p>
+ * Implements {@link Consumer} so that it can be handed to the app across the class
+ * loader boundary.
+ *
+ * @author Dave Syer
+ *
+ */
+public class LogRingBuffer implements Consumer<String> {
+
+	public enum Overflow {
+		/**
+		 * Discard lines that do not fit (and count them).
+		 */
+		DROP,
+		/**
+		 * Make the logging thread wait until there is space.
+		 */
+		BLOCK;
+	}
+
+	private final String id;
+
+	private final Overflow overflow;
+
+	private final RingBuffer<String> lines;
+
+	private final LongAdder events = new LongAdder();
+
+	private final LongAdder dropped = new LongAdder();
+
+	private volatile boolean closed;
+
+	private long lastSampleTime = System.nanoTime();
+
+	private long lastSampleEvents;
+
+	private volatile double rate;
+
+	private final Runnable signal;
+
+	/**
+	 * @param id the deployment id (used to tag every line)
+	 * @param capacity the minimum number of lines that can be buffered (rounded up to a
+	 * power of 2)
+	 * @param overflow the policy when the buffer is full
+	 */
+	public LogRingBuffer(String id, int capacity, Overflow overflow) {
+		this(id, capacity, overflow, () -> {
+		});
+	}
+
+	/**
+	 * @param id the deployment id (used to tag every line)
+	 * @param capacity the minimum number of lines that can be buffered (rounded up to a
+	 * power of 2)
+	 * @param overflow the policy when the buffer is full
+	 * @param signal a callback to wake up the writer after a line is added
+	 */
+	LogRingBuffer(String id, int capacity, Overflow overflow, Runnable signal) {
+		this.id = id;
+		this.overflow = overflow;
+		this.lines = new RingBuffer<>(capacity);
+		this.signal = signal;
+	}
+
+	public String getId() {
+		return this.id;
+	}
+
+	@Override
+	public void accept(String line) {
+		if (this.closed) {
+			return;
+		}
+		this.events.increment();
+		while (!this.lines.offer(line)) {
+			if (this.overflow == Overflow.DROP || this.closed) {
+				this.dropped.increment();
+				return;
+			}
+			LockSupport.parkNanos(1000L);
+		}
+		this.signal.run();
+	}
+
+	/**
+	 * Drain lines from the buffer. Only one thread can call this method at a time.
+	 *
+	 * @param consumer a callback for the lines
+	 * @param max the maximum number of lines to drain
+	 * @return the number of lines drained
+	 */
+	public int drain(Consumer<String> consumer, int max) {
+		return this.lines.drain(consumer, max);
+	}
+
+	public boolean isEmpty() {
+		return this.lines.isEmpty();
+	}
+
+	public void close() {
+		this.closed = true;
+	}
+
+	public boolean isClosed() {
+		return this.closed;
+	}
+
+	/**
+	 * @return the number of lines logged (including those that were dropped)
+	 */
+	public long getEvents() {
+		return this.events.sum();
+	}
+
+	public long getDropped() {
+		return this.dropped.sum();
+	}
+
+	/**
+	 * @return the recent rate of logging in lines per second
+	 */
+	public double getRate() {
+		return this.rate;
+	}
+
+	/**
+	 * Update the logging rate (called periodically by the writer).
+	 */
+	void sample() {
+		long now = System.nanoTime();
+		long events = getEvents();
+		double elapsed = (now - this.lastSampleTime) / 1e9;
+		if (elapsed > 0) {
+			this.rate = (events - this.lastSampleEvents) / elapsed;
+		}
+		this.lastSampleTime = now;
+		this.lastSampleEvents = events;
+	}
+
+}
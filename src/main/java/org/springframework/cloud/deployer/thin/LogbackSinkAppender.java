@@ -0,0 +1,113 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.function.Consumer;
+
+import org.slf4j.ILoggerFactory;
+import org.slf4j.LoggerFactory;
+
+import ch.qos.logback.classic.Logger;
+import ch.qos.logback.classic.LoggerContext;
+import ch.qos.logback.classic.PatternLayout;
+import ch.qos.logback.classic.spi.ILoggingEvent;
+import ch.qos.logback.core.Appender;
+import ch.qos.logback.core.AppenderBase;
+import ch.qos.logback.core.ConsoleAppender;
+import ch.qos.logback.core.Layout;
+import ch.qos.logback.core.encoder.Encoder;
+import ch.qos.logback.core.encoder.LayoutWrappingEncoder;
+
+/**
+ * Logback appender that formats events and hands them to a sink owned by the deployer,
+ * in place of the console appenders of a deployed app. Loaded in the app's class loader,
+ * and only if Logback is present there.
+ * 
+ * @author Dave Syer
+ *
+ */
+class LogbackSinkAppender extends AppenderBase<ILoggingEvent> {
+
+	private static final String DEFAULT_PATTERN = "%d{yyyy-MM-dd HH:mm:ss.SSS} %5p [%t] %logger{39} : %m%n";
+
+	private final Consumer<String> sink;
+
+	private final Layout<ILoggingEvent> layout;
+
+	LogbackSinkAppender(Consumer<String> sink, Layout<ILoggingEvent> layout) {
+		this.sink = sink;
+		this.layout = layout;
+	}
+
+	@Override
+	protected void append(ILoggingEvent event) {
+		this.sink.accept(this.layout.doLayout(event));
+	}
+
+	/**
+	 * Replace the console appenders on the root logger with one that writes to the sink,
+	 * keeping the same layout if possible.
+	 * 
+	 * @param sink the sink for formatted lines
+	 */
+	static void install(Consumer<String> sink) {
+		ILoggerFactory factory = LoggerFactory.getILoggerFactory();
+		if (!(factory instanceof LoggerContext)) {
+			return;
+		}
+		LoggerContext context = (LoggerContext) factory;
+		Logger root = context.getLogger(Logger.ROOT_LOGGER_NAME);
+		List<Appender<ILoggingEvent>> consoles = new ArrayList<>();
+		for (Iterator<Appender<ILoggingEvent>> iterator = root
+				.iteratorForAppenders(); iterator.hasNext();) {
+			Appender<ILoggingEvent> appender = iterator.next();
+			if (appender instanceof ConsoleAppender) {
+				consoles.add(appender);
+			}
+		}
+		if (consoles.isEmpty()) {
+			return;
+		}
+		Layout<ILoggingEvent> layout = null;
+		for (Appender<ILoggingEvent> appender : consoles) {
+			Encoder<ILoggingEvent> encoder = ((ConsoleAppender<ILoggingEvent>) appender)
+					.getEncoder();
+			if (layout == null && encoder instanceof LayoutWrappingEncoder) {
+				layout = ((LayoutWrappingEncoder<ILoggingEvent>) encoder).getLayout();
+			}
+			root.detachAppender(appender);
+			// Detached appenders are not stopped when the context is
+			appender.stop();
+		}
+		if (layout == null) {
+			PatternLayout pattern = new PatternLayout();
+			pattern.setContext(context);
+			pattern.setPattern(DEFAULT_PATTERN);
+			pattern.start();
+			layout = pattern;
+		}
+		LogbackSinkAppender appender = new LogbackSinkAppender(sink, layout);
+		appender.setContext(context);
+		appender.setName("THIN_DEPLOYER");
+		appender.start();
+		root.addAppender(appender);
+	}
+
+}
@@ -0,0 +1,296 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryUsage;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * Decides whether there is enough memory to start another app, based on how much heap
+ * and metaspace the same jar used the last time it started. The footprint of each jar
+ * (keyed by its digest) is estimated from the growth of the heap and metaspace while it
+ * starts (a moving average, so a single noisy measurement does not dominate). Apps that
+ * are still starting count against the free memory with their estimated footprint.
+ * <p>
+ * If there is not enough memory, the deployment either waits for a while in case some
+ * is released, or fails straight away, depending on the {@link Policy}. Either way a
+ * deployment that fails here has a clear failure message instead of an
+ * {@link OutOfMemoryError} that affects every app in the JVM.
+ *
+ * @author Dave Syer
+ *
+ */
+public class MemoryAdmission {
+
+	private static final Log logger = LogFactory.getLog(MemoryAdmission.class);
+
+	private static final MemoryAdmission INSTANCE = new MemoryAdmission(0.1, 30000L);
+
+	private static final long MB = 1024L * 1024L;
+
+	/**
+	 * What to do with a deployment when there is not enough memory.
+	 */
+	public enum Policy {
+
+		/**
+		 * Wait for memory to be released (up to a timeout), then fail.
+		 */
+		QUEUE,
+
+		/**
+		 * Fail immediately.
+		 */
+		REJECT;
+
+	}
+
+	private final Map<String, Footprint> footprints = new ConcurrentHashMap<>();
+
+	private final double headroom;
+
+	private final long timeout;
+
+	private long pendingHeap;
+
+	private long pendingMetaspace;
+
+	/**
+	 * @param headroom the fraction of the maximum heap (and metaspace if it has a
+	 * maximum) that must still be free after an app starts
+	 * @param timeout the maximum time (millis) to wait for memory with
+	 * {@link Policy#QUEUE}
+	 */
+	public MemoryAdmission(double headroom, long timeout) {
+		this.headroom = headroom;
+		this.timeout = timeout;
+	}
+
+	/**
+	 * The shared instance used by default by all deployers in this JVM (10% headroom and
+	 * 30 seconds timeout).
+	 *
+	 * @return the shared admission control
+	 */
+	public static MemoryAdmission getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @param digest the digest of a jar
+	 * @return the estimated footprint of the jar (or null if it has not been measured)
+	 */
+	public Footprint getFootprint(String digest) {
+		return this.footprints.get(digest);
+	}
+
+	/**
+	 * Wait for (or check) enough memory to start an app. The ticket returned has to be
+	 * {@link Ticket#started() started} or {@link Ticket#release() released}.
+	 *
+	 * @param id the deployment id
+	 * @param digest the digest of the jar
+	 * @param policy what to do if there is not enough memory
+	 * @return a ticket for the app
+	 * @throws IllegalStateException if there is not enough memory
+	 */
+	public Ticket admit(String id, String digest, Policy policy) {
+		Footprint footprint = this.footprints.get(digest);
+		long heap = footprint == null ? 0 : footprint.getHeap();
+		long metaspace = footprint == null ? 0 : footprint.getMetaspace();
+		long deadline = System.currentTimeMillis()
+				+ (policy == Policy.QUEUE ? this.timeout : 0);
+		boolean collected = false;
+		synchronized (this) {
+			String shortage;
+			while ((shortage = shortage(heap, metaspace)) != null) {
+				if (!collected) {
+					// Give the JVM a chance to find some garbage first
+					System.gc();
+					collected = true;
+					continue;
+				}
+				long wait = deadline - System.currentTimeMillis();
+				if (wait <= 0) {
+					throw new IllegalStateException(
+							"Not enough memory to deploy " + id + ": " + shortage);
+				}
+				try {
+					wait(Math.min(wait, 100L));
+				}
+				catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+					throw new IllegalStateException(
+							"Interrupted waiting for memory to deploy " + id);
+				}
+			}
+			this.pendingHeap += heap;
+			this.pendingMetaspace += metaspace;
+		}
+		return new Ticket(digest, heap, metaspace);
+	}
+
+	private String shortage(long heap, long metaspace) {
+		MemoryUsage usage = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage();
+		String shortage = shortage("heap", usage.getUsed(), usage.getMax(),
+				this.pendingHeap, heap);
+		if (shortage != null) {
+			return shortage;
+		}
+		MemoryPoolMXBean pool = metaspace();
+		if (pool != null) {
+			usage = pool.getUsage();
+			return shortage("metaspace", usage.getUsed(), usage.getMax(),
+					this.pendingMetaspace, metaspace);
+		}
+		return null;
+	}
+
+	private String shortage(String name, long used, long max, long pending,
+			long required) {
+		if (max <= 0) {
+			// No limit
+			return null;
+		}
+		long reserved = (long) (max * this.headroom);
+		long free = max - used - pending - reserved;
+		if (free >= required) {
+			return null;
+		}
+		return String.format(
+				"needs %dMB %s but only %dMB is free (max=%dMB, starting=%dMB, headroom=%dMB)",
+				required / MB, name, Math.max(0, free) / MB, max / MB, pending / MB,
+				reserved / MB);
+	}
+
+	private synchronized void release(long heap, long metaspace) {
+		this.pendingHeap -= heap;
+		this.pendingMetaspace -= metaspace;
+		notifyAll();
+	}
+
+	private void record(String digest, long heap, long metaspace) {
+		Footprint measured = new Footprint(Math.max(0, heap), Math.max(0, metaspace));
+		Footprint footprint = this.footprints.merge(digest, measured,
+				(old, value) -> new Footprint((old.getHeap() + value.getHeap()) / 2,
+						(old.getMetaspace() + value.getMetaspace()) / 2));
+		if (logger.isDebugEnabled()) {
+			logger.debug("Footprint of " + digest + ": " + footprint);
+		}
+	}
+
+	private static MemoryPoolMXBean metaspace() {
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+			if ("Metaspace".equals(pool.getName())) {
+				return pool;
+			}
+		}
+		return null;
+	}
+
+	private static long heapUsed() {
+		return ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+	}
+
+	private static long metaspaceUsed() {
+		MemoryPoolMXBean pool = metaspace();
+		return pool == null ? 0 : pool.getUsage().getUsed();
+	}
+
+	/**
+	 * The estimated memory used by an app (in bytes).
+	 */
+	public static class Footprint {
+
+		private final long heap;
+
+		private final long metaspace;
+
+		public Footprint(long heap, long metaspace) {
+			this.heap = heap;
+			this.metaspace = metaspace;
+		}
+
+		public long getHeap() {
+			return this.heap;
+		}
+
+		public long getMetaspace() {
+			return this.metaspace;
+		}
+
+		@Override
+		public String toString() {
+			return "Footprint [heap=" + this.heap / MB + "MB, metaspace="
+					+ this.metaspace / MB + "MB]";
+		}
+
+	}
+
+	/**
+	 * Permission for an app to start, which measures its footprint while it does.
+	 */
+	public class Ticket {
+
+		private final String digest;
+
+		private final long heap;
+
+		private final long metaspace;
+
+		private final long heapBefore = heapUsed();
+
+		private final long metaspaceBefore = metaspaceUsed();
+
+		private boolean released;
+
+		private Ticket(String digest, long heap, long metaspace) {
+			this.digest = digest;
+			this.heap = heap;
+			this.metaspace = metaspace;
+		}
+
+		/**
+		 * The app has started: record its footprint and stop counting it as pending.
+		 * Other apps starting at the same time make the measurement less accurate.
+		 */
+		public void started() {
+			if (!this.released) {
+				record(this.digest, heapUsed() - this.heapBefore,
+						metaspaceUsed() - this.metaspaceBefore);
+			}
+			release();
+		}
+
+		/**
+		 * The app did not start: stop counting it as pending.
+		 */
+		public void release() {
+			if (!this.released) {
+				this.released = true;
+				MemoryAdmission.this.release(this.heap, this.metaspace);
+			}
+		}
+
+	}
+
+}
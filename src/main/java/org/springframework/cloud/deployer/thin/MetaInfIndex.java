@@ -0,0 +1,227 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.jar.JarEntry;
+import java.util.jar.JarFile;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+/**
+ * An index of the well-known <code>META-INF</code> resources that Spring looks up by
+ * aggregating over the whole classpath (<code>spring.factories</code>,
+ * <code>spring.handlers</code>, <code>spring.schemas</code> and service loader files).
+ * The classpath is scanned once and the index is cached, so further lookups, and further
+ * deployments with the same classpath, do not have to search every jar. The cache key
+ * tracks the jars and, for directories, the indexed resources themselves, so a changed
+ * classpath is scanned again.
+ *
+ * @author Dave Syer
+ *
+ */
+public class MetaInfIndex {
+
+	private static final Log logger = LogFactory.getLog(MetaInfIndex.class);
+
+	private static final String SERVICES = "META-INF/services/";
+
+	private static final List<String> NAMES = Arrays.asList(
+			"META-INF/spring.factories", "META-INF/spring.handlers",
+			"META-INF/spring.schemas", "META-INF/spring.tooling",
+			"META-INF/spring.provides");
+
+	private static final int MAX_CACHED = 32;
+
+	private static final Map<String, MetaInfIndex> cache = new LinkedHashMap<String, MetaInfIndex>(
+			16, 0.75f, true) {
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, MetaInfIndex> eldest) {
+			return size() > MAX_CACHED;
+		}
+	};
+
+	private final Map<String, List<URL>> resources;
+
+	private MetaInfIndex(Map<String, List<URL>> resources) {
+		this.resources = resources;
+	}
+
+	/**
+	 * @param name a resource name
+	 * @return true if resources with this name are indexed
+	 */
+	public static boolean isIndexed(String name) {
+		return NAMES.contains(name)
+				|| (name.startsWith(SERVICES) && name.indexOf('/', SERVICES.length()) < 0);
+	}
+
+	/**
+	 * The index for a classpath, either from the cache or by scanning it.
+	 *
+	 * @param urls the classpath
+	 * @return the index, or null if the classpath contains something other than local
+	 * jars and directories
+	 */
+	public static MetaInfIndex forClasspath(URL[] urls) {
+		String key = key(urls);
+		if (key == null) {
+			return null;
+		}
+		synchronized (cache) {
+			MetaInfIndex index = cache.get(key);
+			if (index != null) {
+				return index;
+			}
+		}
+		MetaInfIndex index = scan(urls);
+		if (index != null) {
+			synchronized (cache) {
+				cache.put(key, index);
+			}
+		}
+		return index;
+	}
+
+	/**
+	 * @param name the resource name
+	 * @return the URLs of the resource, in classpath order
+	 */
+	public Enumeration<URL> getResources(String name) {
+		List<URL> list = this.resources.get(name);
+		return list == null ? Collections.<URL>emptyEnumeration()
+				: Collections.enumeration(list);
+	}
+
+	private static String key(URL[] urls) {
+		StringBuilder builder = new StringBuilder();
+		for (URL url : urls) {
+			File file = toFile(url);
+			if (file == null) {
+				return null;
+			}
+			builder.append(url).append(':');
+			if (file.isDirectory()) {
+				// The directory itself does not change when the files in it do
+				stamp(builder, file);
+			}
+			else {
+				builder.append(file.lastModified()).append(':').append(file.length());
+			}
+			builder.append(',');
+		}
+		return builder.toString();
+	}
+
+	private static void stamp(StringBuilder builder, File dir) {
+		for (String name : NAMES) {
+			builder.append(new File(dir, name).lastModified()).append(':');
+		}
+		File[] files = new File(dir, SERVICES).listFiles();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File file : files) {
+				builder.append(file.getName()).append('=').append(file.lastModified())
+						.append(':');
+			}
+		}
+	}
+
+	private static MetaInfIndex scan(URL[] urls) {
+		Map<String, List<URL>> resources = new HashMap<>();
+		try {
+			for (URL url : urls) {
+				File file = toFile(url);
+				if (file.isDirectory()) {
+					if (url.getPath().endsWith("/")) {
+						scan(resources, url, file);
+					}
+				}
+				else if (file.exists()) {
+					try (JarFile jar = new JarFile(file)) {
+						Enumeration<JarEntry> entries = jar.entries();
+						while (entries.hasMoreElements()) {
+							JarEntry entry = entries.nextElement();
+							if (!entry.isDirectory() && isIndexed(entry.getName())) {
+								add(resources, entry.getName(), new URL(
+										"jar:" + url + "!/" + entry.getName()));
+							}
+						}
+					}
+				}
+			}
+		}
+		catch (IOException e) {
+			logger.warn("Cannot index classpath", e);
+			return null;
+		}
+		return new MetaInfIndex(resources);
+	}
+
+	private static void scan(Map<String, List<URL>> resources, URL root, File dir)
+			throws MalformedURLException {
+		for (String name : NAMES) {
+			if (new File(dir, name).isFile()) {
+				add(resources, name, new URL(root, name));
+			}
+		}
+		File[] files = new File(dir, SERVICES).listFiles();
+		if (files != null) {
+			Arrays.sort(files);
+			for (File file : files) {
+				if (file.isFile()) {
+					add(resources, SERVICES + file.getName(),
+							new URL(root, SERVICES + file.getName()));
+				}
+			}
+		}
+	}
+
+	private static void add(Map<String, List<URL>> resources, String name, URL url) {
+		List<URL> list = resources.get(name);
+		if (list == null) {
+			list = new ArrayList<>();
+			resources.put(name, list);
+		}
+		list.add(url);
+	}
+
+	private static File toFile(URL url) {
+		if (!"file".equals(url.getProtocol())) {
+			return null;
+		}
+		try {
+			return new File(url.toURI());
+		}
+		catch (URISyntaxException | IllegalArgumentException e) {
+			return null;
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+/**
+ * A bounded, lock-free queue with any number of producers and a single consumer.
+ *
+ * @author Dave Syer
+ *
+ */
+public class RingBuffer<E> {
+
+	private final AtomicReferenceArray<E> slots;
+
+	private final int mask;
+
+	private final AtomicLong tail = new AtomicLong();
+
+	private volatile long head;
+
+	/**
+	 * @param capacity the minimum number of elements that can be buffered (rounded up to
+	 * a power of 2)
+	 */
+	public RingBuffer(int capacity) {
+		int size = Integer.highestOneBit(Math.max(capacity, 2) - 1) << 1;
+		this.slots = new AtomicReferenceArray<>(size);
+		this.mask = size - 1;
+	}
+
+	/**
+	 * Add an element if there is space.
+	 *
+	 * @param element the element to add (not null)
+	 * @return true if the element was added
+	 */
+	public boolean offer(E element) {
+		long claimed;
+		do {
+			claimed = this.tail.get();
+			if (claimed - this.head > this.mask) {
+				return false;
+			}
+		}
+		while (!this.tail.compareAndSet(claimed, claimed + 1));
+		this.slots.lazySet((int) claimed & this.mask, element);
+		return true;
+	}
+
+	/**
+	 * Add an element, waiting for space if necessary.
+	 *
+	 * @param element the element to add (not null)
+	 * @param timeout the maximum time to wait
+	 * @param unit the unit of the timeout
+	 * @return true if the element was added
+	 */
+	public boolean offer(E element, long timeout, TimeUnit unit) {
+		long deadline = System.nanoTime() + unit.toNanos(timeout);
+		while (!offer(element)) {
+			if (System.nanoTime() - deadline > 0 || Thread.currentThread().isInterrupted()) {
+				return false;
+			}
+			LockSupport.parkNanos(1000L);
+		}
+		return true;
+	}
+
+	/**
+	 * Remove elements from the buffer. Only one thread can call this method at a time.
+	 *
+	 * @param consumer a callback for the elements
+	 * @param max the maximum number of elements to remove
+	 * @return the number of elements removed
+	 */
+	public int drain(Consumer<? super E> consumer, int max) {
+		long next = this.head;
+		int count = 0;
+		while (count < max) {
+			int index = (int) next & this.mask;
+			E element = this.slots.get(index);
+			if (element == null) {
+				// Empty or a producer has claimed the slot but not filled it yet
+				break;
+			}
+			this.slots.lazySet(index, null);
+			next++;
+			count++;
+			this.head = next;
+			consumer.accept(element);
+		}
+		return count;
+	}
+
+	public boolean isEmpty() {
+		return this.slots.get((int) this.head & this.mask) == null;
+	}
+
+	public int size() {
+		return (int) (this.tail.get() - this.head);
+	}
+
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * The messages between a {@link ShardedAppDeployer} and its {@link ShardWorker workers}:
+ * each one is a flat map of strings (nested values use prefixed keys). Plain strings are
+ * used instead of Java serialization, so nothing that arrives on the socket can create
+ * arbitrary objects.
+ *
+ * @author Dave Syer
+ *
+ */
+final class ShardProtocol {
+
+	static final String OP = "op";
+
+	static final String ERROR = "error";
+
+	private static final int MAX_ENTRIES = 10000;
+
+	private ShardProtocol() {
+	}
+
+	static void write(DataOutputStream output, Map<String, String> message)
+			throws IOException {
+		output.writeInt(message.size());
+		for (Map.Entry<String, String> entry : message.entrySet()) {
+			output.writeUTF(entry.getKey());
+			output.writeUTF(entry.getValue() == null ? "" : entry.getValue());
+		}
+		output.flush();
+	}
+
+	static Map<String, String> read(DataInputStream input) throws IOException {
+		int size = input.readInt();
+		if (size < 0 || size > MAX_ENTRIES) {
+			throw new IOException("Invalid message size: " + size);
+		}
+		Map<String, String> message = new LinkedHashMap<>();
+		for (int i = 0; i < size; i++) {
+			message.put(input.readUTF(), input.readUTF());
+		}
+		return message;
+	}
+
+	static void put(Map<String, String> message, String prefix,
+			Map<String, String> values) {
+		for (Map.Entry<String, String> entry : values.entrySet()) {
+			message.put(prefix + entry.getKey(), entry.getValue());
+		}
+	}
+
+	static Map<String, String> get(Map<String, String> message, String prefix) {
+		Map<String, String> values = new LinkedHashMap<>();
+		for (Map.Entry<String, String> entry : message.entrySet()) {
+			if (entry.getKey().startsWith(prefix)) {
+				values.put(entry.getKey().substring(prefix.length()), entry.getValue());
+			}
+		}
+		return values;
+	}
+
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.cloud.deployer.spi.app.AppStatus;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * A worker process for a {@link ShardedAppDeployer}: a JVM with its own
+ * {@link ThinJarAppDeployer} that deploys apps when the coordinator asks it to. It
+ * listens on a local port (printed on the first line of its output), accepts a single
+ * connection from the coordinator, and exits when that connection closes.
+ *
+ * @author Dave Syer
+ *
+ */
+public class ShardWorker {
+
+	/**
+	 * The prefix of the line that tells the coordinator which port to connect to.
+	 */
+	static final String READY = "THIN-WORKER-PORT:";
+
+	/**
+	 * The environment variable with the token the coordinator has to send first.
+	 */
+	static final String TOKEN = "THIN_WORKER_TOKEN";
+
+	private static final Log logger = LogFactory.getLog(ShardWorker.class);
+
+	private final ThinJarAppDeployer deployer = new ThinJarAppDeployer();
+
+	private final List<String> ids = new ArrayList<>();
+
+	public static void main(String[] args) throws Exception {
+		new ShardWorker().run(System.getenv(TOKEN));
+		System.exit(0);
+	}
+
+	private void run(String token) throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 1,
+				InetAddress.getLoopbackAddress())) {
+			System.out.println(READY + server.getLocalPort());
+			System.out.flush();
+			try (Socket socket = server.accept()) {
+				DataInputStream input = new DataInputStream(
+						new BufferedInputStream(socket.getInputStream()));
+				DataOutputStream output = new DataOutputStream(
+						new BufferedOutputStream(socket.getOutputStream()));
+				if (token == null
+						|| !token.equals(ShardProtocol.read(input).get("token"))) {
+					throw new IllegalStateException("Invalid token");
+				}
+				serve(input, output);
+			}
+		}
+		finally {
+			for (String id : this.ids) {
+				this.deployer.undeploy(id);
+			}
+		}
+	}
+
+	private void serve(DataInputStream input, DataOutputStream output)
+			throws Exception {
+		while (true) {
+			Map<String, String> request;
+			try {
+				request = ShardProtocol.read(input);
+			}
+			catch (EOFException e) {
+				return;
+			}
+			String op = request.get(ShardProtocol.OP);
+			if ("shutdown".equals(op)) {
+				ShardProtocol.write(output, new LinkedHashMap<>());
+				return;
+			}
+			Map<String, String> response = new LinkedHashMap<>();
+			try {
+				handle(op, request, response);
+			}
+			catch (Exception e) {
+				logger.error("Cannot " + op, e);
+				response.put(ShardProtocol.ERROR, e.toString());
+			}
+			ShardProtocol.write(output, response);
+		}
+	}
+
+	private void handle(String op, Map<String, String> request,
+			Map<String, String> response) {
+		String id = request.get("id");
+		switch (op) {
+		case "deploy":
+			List<String> args = new ArrayList<>();
+			for (int i = 0; request.containsKey("arg." + i); i++) {
+				args.add(request.get("arg." + i));
+			}
+			AppDeploymentRequest deployment = new AppDeploymentRequest(
+					new AppDefinition(request.get("name"),
+							ShardProtocol.get(request, "definition.")),
+					new FileSystemResource(new File(request.get("resource"))),
+					ShardProtocol.get(request, "deployment."), args);
+			id = this.deployer.deploy(deployment);
+			if (!this.ids.contains(id)) {
+				this.ids.add(id);
+			}
+			response.put("id", id);
+			break;
+		case "undeploy":
+			this.deployer.undeploy(id);
+			this.ids.remove(id);
+			break;
+		case "status":
+			AppStatus status = this.deployer.status(id);
+			response.put("state", status.getState().name());
+			ShardProtocol.put(response, "attribute.", this.deployer.getMetrics(id));
+			break;
+		default:
+			throw new IllegalArgumentException("Unknown operation: " + op);
+		}
+	}
+
+}
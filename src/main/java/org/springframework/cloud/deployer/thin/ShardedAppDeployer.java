@@ -0,0 +1,681 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.cloud.deployer.spi.app.AppDeployer;
+import org.springframework.cloud.deployer.spi.app.AppInstanceStatus;
+import org.springframework.cloud.deployer.spi.app.AppStatus;
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+
+/**
+ * An {@link AppDeployer} that spreads apps across several worker JVMs on the same host,
+ * each one running a {@link ThinJarAppDeployer} (see {@link ShardWorker}). The workers
+ * are child processes of this one, launched with the same classpath, so a GC or
+ * metaspace problem in one worker (or a misbehaving app) does not affect the apps in the
+ * others.
+ * <p>
+ * A new app goes to the worker with the lowest load, where the load is the estimated
+ * memory footprint of its apps plus a weight for the CPU they are using (both measured
+ * again whenever an app is placed or the workers are rebalanced). Heavy apps can be
+ * moved to a worker of their own with {@link #migrate(String)}, or automatically by
+ * {@link #rebalance()}.
+ * <p>
+ * A worker that exits, or does not answer in time, is replaced and its apps are deployed
+ * again elsewhere (see {@link #recover()}).
+ *
+ * @author Dave Syer
+ *
+ */
+public class ShardedAppDeployer implements AppDeployer, DisposableBean {
+
+	private static final Log logger = LogFactory.getLog(ShardedAppDeployer.class);
+
+	private static final long MB = 1024L * 1024L;
+
+	private final List<Worker> workers = new CopyOnWriteArrayList<>();
+
+	private final Map<String, Placement> placements = new ConcurrentHashMap<>();
+
+	private final Map<String, Long> footprints = new ConcurrentHashMap<>();
+
+	private final AtomicInteger count = new AtomicInteger();
+
+	private final int size;
+
+	private List<String> jvmArgs = Collections.emptyList();
+
+	private long defaultFootprint = 64 * MB;
+
+	private long cpuWeight = 256 * MB;
+
+	private long heavyFootprint = 256 * MB;
+
+	private long startTimeout = TimeUnit.SECONDS.toMillis(60);
+
+	private long requestTimeout = TimeUnit.MINUTES.toMillis(5);
+
+	/**
+	 * @param size the number of workers to share between apps
+	 */
+	public ShardedAppDeployer(int size) {
+		this.size = size;
+	}
+
+	/**
+	 * @param jvmArgs extra arguments for the worker JVMs (e.g. <code>-Xmx</code>)
+	 */
+	public void setJvmArgs(List<String> jvmArgs) {
+		this.jvmArgs = new ArrayList<>(jvmArgs);
+	}
+
+	/**
+	 * @param defaultFootprint the footprint (bytes) assumed for an app that has not been
+	 * measured yet
+	 */
+	public void setDefaultFootprint(long defaultFootprint) {
+		this.defaultFootprint = defaultFootprint;
+	}
+
+	/**
+	 * @param cpuWeight the load (in bytes of footprint) that counts the same as one CPU
+	 * kept busy
+	 */
+	public void setCpuWeight(long cpuWeight) {
+		this.cpuWeight = cpuWeight;
+	}
+
+	/**
+	 * @param heavyFootprint the load above which {@link #rebalance()} moves an app to a
+	 * worker of its own
+	 */
+	public void setHeavyFootprint(long heavyFootprint) {
+		this.heavyFootprint = heavyFootprint;
+	}
+
+	/**
+	 * @param startTimeout how long (millis) to wait for a new worker to be ready
+	 */
+	public void setStartTimeout(long startTimeout) {
+		this.startTimeout = startTimeout;
+	}
+
+	/**
+	 * @param requestTimeout how long (millis) to wait for a worker to answer a request
+	 * (including a deployment) before it is treated as dead
+	 */
+	public void setRequestTimeout(long requestTimeout) {
+		this.requestTimeout = requestTimeout;
+	}
+
+	@Override
+	public synchronized String deploy(AppDeploymentRequest request) {
+		recover();
+		File file = file(request);
+		long footprint = this.footprints.getOrDefault(file.getAbsolutePath(),
+				this.defaultFootprint);
+		String existing = ThinJarAppWrapper.id(file);
+		// The id only depends on the resource, so a redeploy goes to the same worker
+		Worker worker = this.placements.containsKey(existing)
+				? this.placements.get(existing).worker
+				: select();
+		String id = worker.deploy(request);
+		this.placements.put(id, new Placement(worker, request, footprint));
+		measure(id);
+		return id;
+	}
+
+	@Override
+	public synchronized void undeploy(String id) {
+		Placement placement = this.placements.remove(id);
+		if (placement == null) {
+			return;
+		}
+		placement.worker.undeploy(id);
+		retire(placement.worker);
+	}
+
+	@Override
+	public AppStatus status(String id) {
+		Placement placement = this.placements.get(id);
+		if (placement == null) {
+			return AppStatus.of(id).with(new ShardInstanceStatus(id,
+					DeploymentState.unknown, Collections.emptyMap())).build();
+		}
+		Map<String, String> response = placement.worker.status(id);
+		DeploymentState state = response.containsKey(ShardProtocol.ERROR)
+				? DeploymentState.error
+				: DeploymentState.valueOf(response.get("state"));
+		Map<String, String> attributes = ShardProtocol.get(response, "attribute.");
+		attributes.put("worker", String.valueOf(placement.worker.getIndex()));
+		return AppStatus.of(id)
+				.with(new ShardInstanceStatus(id, state, attributes)).build();
+	}
+
+	/**
+	 * Move an app to a new worker of its own (deploying it there before undeploying it
+	 * from the old worker).
+	 *
+	 * @param id the app id
+	 * @return the id of the app in its new worker
+	 */
+	public synchronized String migrate(String id) {
+		recover();
+		Placement placement = this.placements.get(id);
+		if (placement == null) {
+			throw new IllegalStateException("No such app: " + id);
+		}
+		Worker worker = start(true);
+		String moved;
+		try {
+			moved = worker.deploy(placement.request);
+		}
+		catch (RuntimeException e) {
+			worker.close();
+			this.workers.remove(worker);
+			throw e;
+		}
+		placement.worker.undeploy(id);
+		this.placements.remove(id);
+		this.placements.put(moved,
+				new Placement(worker, placement.request, placement.footprint));
+		retire(placement.worker);
+		measure(moved);
+		logger.info("Moved " + id + " to worker " + worker.getIndex());
+		return moved;
+	}
+
+	/**
+	 * Move the apps whose load is above the heavy threshold to a worker of their own (if
+	 * they share one with other apps).
+	 *
+	 * @return the ids of the apps that moved
+	 */
+	public synchronized List<String> rebalance() {
+		recover();
+		List<String> ids = new ArrayList<>(this.placements.keySet());
+		// The load changes while the apps run, so measure it again
+		for (String id : ids) {
+			measure(id);
+		}
+		List<String> moved = new ArrayList<>();
+		for (String id : ids) {
+			Placement placement = this.placements.get(id);
+			if (placement != null && !placement.worker.isDedicated()
+					&& load(id) > this.heavyFootprint && apps(placement.worker) > 1) {
+				moved.add(migrate(id));
+			}
+		}
+		return moved;
+	}
+
+	/**
+	 * Replace the workers that have exited or stopped answering, and deploy their apps
+	 * again (in a new dedicated worker if they had one, otherwise in the shared worker
+	 * with the lowest load). Called before every deployment and rebalance.
+	 *
+	 * @return the ids of the apps that were deployed again
+	 */
+	public synchronized List<String> recover() {
+		List<String> rescheduled = new ArrayList<>();
+		for (Worker worker : this.workers) {
+			if (worker.isAlive()) {
+				continue;
+			}
+			logger.warn(
+					"Worker " + worker.getIndex() + " is not available, replacing it");
+			this.workers.remove(worker);
+			worker.close();
+			Map<String, Placement> orphans = new LinkedHashMap<>();
+			for (Map.Entry<String, Placement> entry : this.placements.entrySet()) {
+				if (entry.getValue().worker == worker) {
+					orphans.put(entry.getKey(), entry.getValue());
+				}
+			}
+			this.placements.keySet().removeAll(orphans.keySet());
+			for (Map.Entry<String, Placement> entry : orphans.entrySet()) {
+				Placement placement = entry.getValue();
+				Worker target = worker.isDedicated() ? start(true) : select();
+				try {
+					String id = target.deploy(placement.request);
+					this.placements.put(id, new Placement(target, placement.request,
+							placement.footprint));
+					rescheduled.add(id);
+					logger.info("Moved " + entry.getKey() + " to worker "
+							+ target.getIndex());
+				}
+				catch (RuntimeException e) {
+					logger.error("Cannot deploy " + entry.getKey() + " again", e);
+					retire(target);
+				}
+			}
+		}
+		return rescheduled;
+	}
+
+	/**
+	 * @param id an app id
+	 * @return the worker process the app is running in (or null if it is not deployed)
+	 */
+	Process getProcess(String id) {
+		Placement placement = this.placements.get(id);
+		return placement == null ? null : placement.worker.process;
+	}
+
+	/**
+	 * @param id an app id
+	 * @return the index of the worker the app is running in (or -1 if it is not
+	 * deployed)
+	 */
+	public int getWorker(String id) {
+		Placement placement = this.placements.get(id);
+		return placement == null ? -1 : placement.worker.getIndex();
+	}
+
+	@Override
+	public synchronized void destroy() {
+		for (Worker worker : this.workers) {
+			worker.close();
+		}
+		this.workers.clear();
+		this.placements.clear();
+	}
+
+	private Worker select() {
+		while (shared() < this.size) {
+			start(false);
+		}
+		for (String id : this.placements.keySet()) {
+			measure(id);
+		}
+		Worker best = null;
+		long lowest = Long.MAX_VALUE;
+		for (Worker worker : this.workers) {
+			if (worker.isDedicated()) {
+				continue;
+			}
+			long load = 0;
+			for (Map.Entry<String, Placement> entry : this.placements.entrySet()) {
+				if (entry.getValue().worker == worker) {
+					load += load(entry.getKey());
+				}
+			}
+			if (load < lowest) {
+				lowest = load;
+				best = worker;
+			}
+		}
+		return best;
+	}
+
+	private long load(String id) {
+		Placement placement = this.placements.get(id);
+		return placement.footprint + (long) (placement.cpu * this.cpuWeight);
+	}
+
+	private void measure(String id) {
+		Placement placement = this.placements.get(id);
+		Map<String, String> attributes = ShardProtocol
+				.get(placement.worker.status(id), "attribute.");
+		double heap = number(attributes.get("memory.footprint.heap"));
+		if (heap >= 0) {
+			long footprint = (long) heap + (long) Math.max(0,
+					number(attributes.get("memory.footprint.metaspace")));
+			placement.footprint = footprint;
+			this.footprints.put(file(placement.request).getAbsolutePath(), footprint);
+		}
+		double cpu = number(attributes.get("cpu.usage"));
+		if (cpu >= 0) {
+			placement.cpu = cpu;
+		}
+	}
+
+	/**
+	 * Parse a metric, allowing for a decimal comma (from a worker running in a
+	 * different locale).
+	 *
+	 * @return the value or -1 if there isn't one
+	 */
+	private double number(String value) {
+		if (value == null) {
+			return -1;
+		}
+		try {
+			return Double.parseDouble(value.trim().replace(',', '.'));
+		}
+		catch (NumberFormatException e) {
+			return -1;
+		}
+	}
+
+	/**
+	 * Stop a dedicated worker once it has no apps left.
+	 */
+	private void retire(Worker worker) {
+		if (worker.isDedicated() && !hasApps(worker)) {
+			worker.close();
+			this.workers.remove(worker);
+		}
+	}
+
+	private int shared() {
+		int count = 0;
+		for (Worker worker : this.workers) {
+			if (!worker.isDedicated()) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private boolean hasApps(Worker worker) {
+		return apps(worker) > 0;
+	}
+
+	private int apps(Worker worker) {
+		int count = 0;
+		for (Placement placement : this.placements.values()) {
+			if (placement.worker == worker) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	private Worker start(boolean dedicated) {
+		Worker worker = new Worker(this.count.getAndIncrement(), dedicated);
+		worker.start(this.jvmArgs, this.startTimeout, this.requestTimeout);
+		this.workers.add(worker);
+		return worker;
+	}
+
+	private File file(AppDeploymentRequest request) {
+		try {
+			return request.getResource().getFile();
+		}
+		catch (IOException e) {
+			throw new IllegalStateException("Not a file resource: "
+					+ request.getResource().getDescription(), e);
+		}
+	}
+
+	private static class Placement {
+
+		private final Worker worker;
+
+		private final AppDeploymentRequest request;
+
+		private volatile long footprint;
+
+		private volatile double cpu;
+
+		Placement(Worker worker, AppDeploymentRequest request, long footprint) {
+			this.worker = worker;
+			this.request = request;
+			this.footprint = footprint;
+		}
+
+	}
+
+	private class Worker {
+
+		private final int index;
+
+		private final boolean dedicated;
+
+		private Process process;
+
+		private Socket socket;
+
+		private DataInputStream input;
+
+		private DataOutputStream output;
+
+		private volatile boolean failed;
+
+		Worker(int index, boolean dedicated) {
+			this.index = index;
+			this.dedicated = dedicated;
+		}
+
+		int getIndex() {
+			return this.index;
+		}
+
+		boolean isDedicated() {
+			return this.dedicated;
+		}
+
+		boolean isAlive() {
+			return !this.failed && this.process != null && this.process.isAlive();
+		}
+
+		void start(List<String> jvmArgs, long startTimeout, long requestTimeout) {
+			String token = UUID.randomUUID().toString();
+			List<String> command = new ArrayList<>();
+			command.add(new File(System.getProperty("java.home"), "bin/java")
+					.getAbsolutePath());
+			command.addAll(jvmArgs);
+			command.add("-cp");
+			command.add(System.getProperty("java.class.path"));
+			command.add(ShardWorker.class.getName());
+			ProcessBuilder builder = new ProcessBuilder(command)
+					.redirectErrorStream(true);
+			builder.environment().put(ShardWorker.TOKEN, token);
+			try {
+				this.process = builder.start();
+				CompletableFuture<Integer> ready = new CompletableFuture<>();
+				pump(new BufferedReader(new InputStreamReader(
+						this.process.getInputStream(), StandardCharsets.UTF_8)), ready);
+				// Not blocking on the output directly, so a worker that hangs cannot
+				// hold up the deployer for ever
+				int port = ready.get(startTimeout, TimeUnit.MILLISECONDS);
+				this.socket = new Socket(InetAddress.getLoopbackAddress(), port);
+				this.socket.setSoTimeout(
+						(int) Math.min(Integer.MAX_VALUE, requestTimeout));
+				this.input = new DataInputStream(
+						new BufferedInputStream(this.socket.getInputStream()));
+				this.output = new DataOutputStream(
+						new BufferedOutputStream(this.socket.getOutputStream()));
+				ShardProtocol.write(this.output,
+						Collections.singletonMap("token", token));
+				logger.info("Started worker " + this.index);
+			}
+			catch (IOException | ExecutionException e) {
+				this.failed = true;
+				close();
+				throw new IllegalStateException("Cannot start worker " + this.index,
+						e);
+			}
+			catch (TimeoutException e) {
+				this.failed = true;
+				close();
+				throw new IllegalStateException("Worker " + this.index
+						+ " was not ready after " + startTimeout + "ms");
+			}
+			catch (InterruptedException e) {
+				this.failed = true;
+				close();
+				Thread.currentThread().interrupt();
+				throw new IllegalStateException(
+						"Interrupted while starting worker " + this.index);
+			}
+		}
+
+		private void pump(BufferedReader reader, CompletableFuture<Integer> ready) {
+			// Keep the worker's console output flowing (to our log)
+			Thread thread = new Thread(() -> {
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						if (!ready.isDone() && line.startsWith(ShardWorker.READY)) {
+							ready.complete(Integer.valueOf(
+									line.substring(ShardWorker.READY.length()).trim()));
+						}
+						else {
+							logger.info("[worker " + this.index + "] " + line);
+						}
+					}
+				}
+				catch (IOException | RuntimeException e) {
+					// Worker went away
+				}
+				finally {
+					ready.completeExceptionally(new IllegalStateException(
+							"Worker " + this.index + " exited before it was ready"));
+				}
+			}, "thin-worker-" + this.index);
+			thread.setDaemon(true);
+			thread.start();
+		}
+
+		String deploy(AppDeploymentRequest request) {
+			Map<String, String> message = new LinkedHashMap<>();
+			message.put(ShardProtocol.OP, "deploy");
+			message.put("resource", file(request).getAbsolutePath());
+			message.put("name", request.getDefinition().getName());
+			ShardProtocol.put(message, "definition.",
+					request.getDefinition().getProperties());
+			ShardProtocol.put(message, "deployment.",
+					request.getDeploymentProperties());
+			List<String> args = request.getCommandlineArguments();
+			for (int i = 0; i < args.size(); i++) {
+				message.put("arg." + i, args.get(i));
+			}
+			Map<String, String> response = send(message);
+			if (response.containsKey(ShardProtocol.ERROR)) {
+				throw new IllegalStateException("Cannot deploy in worker " + this.index
+						+ ": " + response.get(ShardProtocol.ERROR));
+			}
+			return response.get("id");
+		}
+
+		void undeploy(String id) {
+			Map<String, String> message = new LinkedHashMap<>();
+			message.put(ShardProtocol.OP, "undeploy");
+			message.put("id", id);
+			send(message);
+		}
+
+		Map<String, String> status(String id) {
+			Map<String, String> message = new LinkedHashMap<>();
+			message.put(ShardProtocol.OP, "status");
+			message.put("id", id);
+			return send(message);
+		}
+
+		private synchronized Map<String, String> send(Map<String, String> message) {
+			try {
+				ShardProtocol.write(this.output, message);
+				return ShardProtocol.read(this.input);
+			}
+			catch (IOException e) {
+				// Including a timeout, after which the stream is out of step anyway
+				this.failed = true;
+				return Collections.singletonMap(ShardProtocol.ERROR,
+						"Worker " + this.index + " is not available: " + e);
+			}
+		}
+
+		void close() {
+			if (this.output != null && isAlive()) {
+				send(Collections.singletonMap(ShardProtocol.OP, "shutdown"));
+			}
+			try {
+				if (this.socket != null) {
+					this.socket.close();
+				}
+			}
+			catch (IOException e) {
+				// ignore
+			}
+			if (this.process != null) {
+				try {
+					if (!this.process.waitFor(this.failed ? 0 : 30, TimeUnit.SECONDS)) {
+						this.process.destroyForcibly();
+					}
+				}
+				catch (InterruptedException e) {
+					this.process.destroyForcibly();
+					Thread.currentThread().interrupt();
+				}
+			}
+		}
+
+	}
+
+	private static class ShardInstanceStatus implements AppInstanceStatus {
+
+		private final String id;
+
+		private final DeploymentState state;
+
+		private final Map<String, String> attributes;
+
+		ShardInstanceStatus(String id, DeploymentState state,
+				Map<String, String> attributes) {
+			this.id = id;
+			this.state = state;
+			this.attributes = attributes;
+		}
+
+		@Override
+		public String getId() {
+			return this.id;
+		}
+
+		@Override
+		public DeploymentState getState() {
+			return this.state;
+		}
+
+		@Override
+		public Map<String, String> getAttributes() {
+			return this.attributes;
+		}
+
+	}
+
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A pool of request processing threads shared by the embedded servers of all the web
+ * apps deployed in a JVM. Each app still has its own connector, but the worker threads
+ * are created on demand up to a single limit for the whole JVM, and go away when they
+ * are idle, instead of every app having its own pool.
+ * <p>
+ * The threads belong to a thread group owned by the deployer, and have the deployer's
+ * class loader as their context class loader (Tomcat switches to the app's class loader
+ * while it processes a request), so they are never tied to a particular app. Requests
+ * wait in a bounded queue when all the threads are busy, and are rejected when it is
+ * full (Tomcat then closes the connection). The pool is not partitioned, so one busy app
+ * can still take all the threads: apps that need a guaranteed share should use their
+ * own connector pool (see {@link ThreadBudget}).
+ * <p>
+ * Apps see the pool as a bean of type {@link Executor} (see
+ * {@link ThinJarTomcatAutoConfiguration}), so no deployer classes cross the class loader
+ * boundary.
+ *
+ * @author Dave Syer
+ *
+ */
+public class SharedWebExecutor {
+
+	/**
+	 * Bean name for the executor in a deployed app's context.
+	 */
+	public static final String BEAN_NAME = "thinSharedWebExecutor";
+
+	private static final SharedWebExecutor INSTANCE = new SharedWebExecutor(200,
+			TimeUnit.SECONDS.toMillis(60));
+
+	private final AtomicInteger threads = new AtomicInteger();
+
+	private final ThreadGroup group = new ThreadGroup("thin-web");
+
+	private final ThreadPoolExecutor executor;
+
+	/**
+	 * @param maxThreads the maximum number of worker threads
+	 * @param keepAlive how long (millis) an idle thread is kept
+	 */
+	public SharedWebExecutor(int maxThreads, long keepAlive) {
+		this(maxThreads, keepAlive, 10 * maxThreads);
+	}
+
+	/**
+	 * @param maxThreads the maximum number of worker threads
+	 * @param keepAlive how long (millis) an idle thread is kept
+	 * @param queueCapacity the maximum number of requests waiting for a thread
+	 */
+	public SharedWebExecutor(int maxThreads, long keepAlive, int queueCapacity) {
+		ClassLoader loader = SharedWebExecutor.class.getClassLoader();
+		this.executor = new ThreadPoolExecutor(maxThreads, maxThreads, keepAlive,
+				TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(queueCapacity),
+				runnable -> {
+					// Not in the group or class loader of the app that made the pool grow
+					Thread thread = new Thread(this.group, runnable,
+							"thin-web-" + this.threads.incrementAndGet());
+					thread.setContextClassLoader(loader);
+					thread.setDaemon(true);
+					return thread;
+				});
+		this.executor.allowCoreThreadTimeOut(true);
+	}
+
+	/**
+	 * The shared instance used by default by all deployers in this JVM.
+	 *
+	 * @return the shared executor
+	 */
+	public static SharedWebExecutor getInstance() {
+		return INSTANCE;
+	}
+
+	/**
+	 * @return the executor to hand to deployed apps
+	 */
+	public Executor getExecutor() {
+		return this.executor;
+	}
+
+	/**
+	 * @return the number of threads currently processing requests
+	 */
+	public int getActiveCount() {
+		return this.executor.getActiveCount();
+	}
+
+	/**
+	 * @return the number of threads in the pool
+	 */
+	public int getPoolSize() {
+		return this.executor.getPoolSize();
+	}
+
+	/**
+	 * @return the thread group of the worker threads
+	 */
+	public ThreadGroup getThreadGroup() {
+		return this.group;
+	}
+
+	/**
+	 * @return the number of requests waiting for a thread
+	 */
+	public int getQueued() {
+		return this.executor.getQueue().size();
+	}
+
+}
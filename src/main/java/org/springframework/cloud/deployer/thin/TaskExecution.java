@@ -0,0 +1,180 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.springframework.cloud.deployer.spi.task.LaunchState;
+
+/**
+ * The state of a single launch of a task, from the time it is queued until it finishes.
+ * Once finished the execution no longer refers to the app (or its class loader) and
+ * only holds a compact record: id, state, timings, exit status and an error summary of
+ * bounded length.
+ *
+ * @author Dave Syer
+ *
+ */
+public class TaskExecution {
+
+	/**
+	 * Maximum number of characters kept from the error that caused a failure.
+	 */
+	static final int MAX_ERROR_LENGTH = 256;
+
+	private final String id;
+
+	private final String taskName;
+
+	private final long launchTime = System.currentTimeMillis();
+
+	private volatile ThinJarAppWrapper wrapper;
+
+	private volatile LaunchState state = LaunchState.launching;
+
+	private volatile long startTime;
+
+	private volatile long endTime;
+
+	private volatile Integer exitStatus;
+
+	private volatile String error;
+
+	public TaskExecution(String taskName, ThinJarAppWrapper wrapper) {
+		this.id = wrapper.getId();
+		this.taskName = taskName;
+		this.wrapper = wrapper;
+	}
+
+	public String getId() {
+		return this.id;
+	}
+
+	public String getTaskName() {
+		return this.taskName;
+	}
+
+	public ThinJarAppWrapper getWrapper() {
+		return this.wrapper;
+	}
+
+	public LaunchState getState() {
+		return this.state;
+	}
+
+	public Integer getExitStatus() {
+		return this.exitStatus;
+	}
+
+	public String getError() {
+		return this.error;
+	}
+
+	public long getEndTime() {
+		return this.endTime;
+	}
+
+	/**
+	 * @return the time in millis since the execution started (or that it took to run if
+	 * it has finished), or 0 if it has not started yet
+	 */
+	public long getDuration() {
+		if (this.startTime == 0) {
+			return 0;
+		}
+		return (this.endTime == 0 ? System.currentTimeMillis() : this.endTime)
+				- this.startTime;
+	}
+
+	public boolean isFinished() {
+		return this.endTime != 0;
+	}
+
+	/**
+	 * @return true if the execution was started, false if it was cancelled while queued
+	 */
+	synchronized boolean start() {
+		if (this.state == LaunchState.cancelled) {
+			return false;
+		}
+		this.startTime = System.currentTimeMillis();
+		this.state = LaunchState.running;
+		return true;
+	}
+
+	synchronized void finish(LaunchState state, int exitStatus, String error) {
+		this.endTime = System.currentTimeMillis();
+		if (this.state != LaunchState.cancelled) {
+			this.state = state;
+		}
+		this.exitStatus = exitStatus;
+		if (error != null && error.length() > MAX_ERROR_LENGTH) {
+			error = error.substring(0, MAX_ERROR_LENGTH);
+		}
+		this.error = error;
+		this.wrapper = null;
+	}
+
+	synchronized void cancel() {
+		this.state = LaunchState.cancelled;
+		if (this.startTime == 0) {
+			this.endTime = System.currentTimeMillis();
+			this.wrapper = null;
+		}
+	}
+
+	/**
+	 * An estimate of the memory retained by this execution once it has finished.
+	 *
+	 * @return the number of bytes (approximately)
+	 */
+	public long getRetainedSize() {
+		// Object header and fields, plus the strings (header, array and 2 bytes per
+		// char, to be on the safe side)
+		long size = 64;
+		size += sizeOf(this.id) + sizeOf(this.taskName) + sizeOf(this.error);
+		if (this.exitStatus != null) {
+			size += 16;
+		}
+		return size;
+	}
+
+	private static long sizeOf(String value) {
+		return value == null ? 0 : 40 + 2L * value.length();
+	}
+
+	public Map<String, String> getAttributes() {
+		Map<String, String> attributes = new LinkedHashMap<>();
+		attributes.put("taskName", this.taskName);
+		attributes.put("launchTime", String.valueOf(this.launchTime));
+		attributes.put("duration", String.valueOf(getDuration()));
+		if (this.exitStatus != null) {
+			attributes.put("exitStatus", String.valueOf(this.exitStatus));
+		}
+		if (this.error != null) {
+			attributes.put("error", this.error);
+		}
+		return attributes;
+	}
+
+	@Override
+	public String toString() {
+		return "TaskExecution [id=" + this.id + ", taskName=" + this.taskName
+				+ ", state=" + this.state + "]";
+	}
+
+}
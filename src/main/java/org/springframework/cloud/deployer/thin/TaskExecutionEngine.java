@@ -0,0 +1,159 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs task executions on a bounded pool of threads. Launches are queued, at most a
+ * fixed number of executions of the same task (by name) run concurrently, and when the
+ * queue is full callers are blocked for a configurable time before the launch is
+ * rejected.
+ *
+ * @author Dave Syer
+ *
+ */
+public class TaskExecutionEngine {
+
+	private final ExecutorService executor;
+
+	private final Semaphore slots;
+
+	private final int maxConcurrentPerTask;
+
+	private final long queueTimeout;
+
+	/**
+	 * Running counts and pending executions per task name (guarded by this).
+	 */
+	private final Map<String, TaskGroup> groups = new HashMap<>();
+
+	public TaskExecutionEngine() {
+		this(Runtime.getRuntime().availableProcessors(), 1000, Integer.MAX_VALUE, 0L);
+	}
+
+	/**
+	 * @param poolSize the maximum number of tasks running at the same time
+	 * @param queueCapacity the maximum number of launches waiting to run
+	 * @param maxConcurrentPerTask the maximum number of executions of the same task
+	 * running at the same time
+	 * @param queueTimeout how long (millis) to block a launch when the queue is full
+	 */
+	public TaskExecutionEngine(int poolSize, int queueCapacity, int maxConcurrentPerTask,
+			long queueTimeout) {
+		AtomicInteger count = new AtomicInteger();
+		this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60L, TimeUnit.SECONDS,
+				new LinkedBlockingQueue<>(), runnable -> {
+					Thread thread = new Thread(runnable,
+							"thin-task-" + count.incrementAndGet());
+					thread.setDaemon(true);
+					return thread;
+				});
+		this.slots = new Semaphore(queueCapacity);
+		this.maxConcurrentPerTask = maxConcurrentPerTask;
+		this.queueTimeout = queueTimeout;
+	}
+
+	/**
+	 * Queue a task for execution.
+	 *
+	 * @param name the name of the task (executions with the same name share a
+	 * concurrency limit)
+	 * @param task the task to run
+	 * @throws IllegalStateException if the queue stays full for longer than the timeout
+	 */
+	public void submit(String name, Runnable task) {
+		try {
+			if (!this.slots.tryAcquire(this.queueTimeout, TimeUnit.MILLISECONDS)) {
+				throw new IllegalStateException(
+						"Task queue is full, cannot launch: " + name);
+			}
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IllegalStateException("Interrupted while launching: " + name, e);
+		}
+		synchronized (this) {
+			TaskGroup group = this.groups.get(name);
+			if (group == null) {
+				group = new TaskGroup();
+				this.groups.put(name, group);
+			}
+			if (group.running < this.maxConcurrentPerTask) {
+				group.running++;
+				dispatch(name, task);
+			}
+			else {
+				group.pending.add(task);
+			}
+		}
+	}
+
+	public synchronized int getRunning(String name) {
+		TaskGroup group = this.groups.get(name);
+		return group == null ? 0 : group.running;
+	}
+
+	public synchronized int getPending(String name) {
+		TaskGroup group = this.groups.get(name);
+		return group == null ? 0 : group.pending.size();
+	}
+
+	public void shutdown() {
+		this.executor.shutdownNow();
+	}
+
+	private void dispatch(String name, Runnable task) {
+		this.executor.execute(() -> {
+			this.slots.release();
+			try {
+				task.run();
+			}
+			finally {
+				completed(name);
+			}
+		});
+	}
+
+	private synchronized void completed(String name) {
+		TaskGroup group = this.groups.get(name);
+		Runnable next = group.pending.poll();
+		if (next != null) {
+			dispatch(name, next);
+		}
+		else if (--group.running == 0) {
+			this.groups.remove(name);
+		}
+	}
+
+	private static class TaskGroup {
+
+		private int running;
+
+		private final Deque<Runnable> pending = new ArrayDeque<>();
+
+	}
+
+}
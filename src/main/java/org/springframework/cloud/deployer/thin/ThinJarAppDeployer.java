@@ -19,8 +19,10 @@ package org.springframework.cloud.deployer.thin;
 import java.lang.reflect.Field;
 import java.lang.reflect.InvocationTargetException;
 import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.Map;
 import java.util.UUID;
+import java.util.concurrent.atomic.AtomicReference;
 
 import org.springframework.cloud.deployer.spi.app.AppDeployer;
 import org.springframework.cloud.deployer.spi.app.AppInstanceStatus;
@@ -50,6 +52,9 @@ public class ThinJarAppDeployer extends AbstractThinJarSupport implements AppDep
 
 	private static final int DEFAULT_SERVER_PORT = 8080;
 
+	private final AtomicReference<DeploymentSnapshot> snapshot = new AtomicReference<>(
+			DeploymentSnapshot.EMPTY);
+
 	public ThinJarAppDeployer() {
 		this("thin");
 	}
@@ -59,12 +64,36 @@ public class ThinJarAppDeployer extends AbstractThinJarSupport implements AppDep
 	}
 
 	@Override
-	public String deploy(AppDeploymentRequest request) {
-		String id = super.deploy(request);
-		ThinJarAppWrapper wrapper = super.getWrapper(id);
-		wrapper.status(
-				AppStatus.of(id).with(new InMemoryAppInstanceStatus(wrapper)).build());
-		return id;
+	protected ThinJarAppWrapper createWrapper(String id, AppDeploymentRequest request) {
+		ThinJarAppWrapper wrapper = super.createWrapper(id, request);
+		wrapper.status(AppStatus.of(wrapper.getId())
+				.with(new InMemoryAppInstanceStatus(wrapper)).build());
+		wrapper.setStateListener(this::publish);
+		return wrapper;
+	}
+
+	/**
+	 * Create a new snapshot with the latest state of the app (unless it has been
+	 * replaced by another wrapper with the same id).
+	 */
+	private void publish(ThinJarAppWrapper wrapper) {
+		ThinJarAppWrapper current = getWrapper(wrapper.getId());
+		if (current != null && current != wrapper) {
+			return;
+		}
+		DeploymentState state = InMemoryAppInstanceStatus.state(wrapper.getState());
+		DeploymentSnapshot snapshot = this.snapshot.get();
+		while (snapshot.getStates().get(wrapper.getId()) != state) {
+			Map<String, DeploymentState> states = new LinkedHashMap<>(
+					snapshot.getStates());
+			states.put(wrapper.getId(), state);
+			DeploymentSnapshot next = new DeploymentSnapshot(snapshot.getVersion() + 1,
+					states);
+			if (this.snapshot.compareAndSet(snapshot, next)) {
+				return;
+			}
+			snapshot = this.snapshot.get();
+		}
 	}
 
 	@Override
@@ -85,11 +114,75 @@ public class ThinJarAppDeployer extends AbstractThinJarSupport implements AppDep
 		return (AppStatus) super.getWrapper(id).status();
 	}
 
+	/**
+	 * The state of all the apps in this deployer. Cheaper than calling
+	 * {@link #status(String)} for each app: a new snapshot is only created when the state
+	 * of an app changes, so if nothing changed since the last call the same snapshot is
+	 * returned.
+	 *
+	 * @return a snapshot of the state of all apps
+	 */
+	public DeploymentSnapshot statusAll() {
+		return this.snapshot.get();
+	}
+
 	@Override
 	public void undeploy(String id) {
 		super.cancel(id);
 	}
 
+	/**
+	 * Metrics for a deployed application: CPU time and usage, allocated memory and
+	 * threads (plus logging statistics if it logs asynchronously). The same values are
+	 * available as attributes of the app instance status.
+	 * 
+	 * @param id the app id
+	 * @return a map of metric name to value (empty if the app is not deployed)
+	 */
+	public Map<String, String> getMetrics(String id) {
+		ThinJarAppWrapper wrapper = getWrapper(id);
+		if (wrapper == null) {
+			return Collections.emptyMap();
+		}
+		return wrapper.getAttributes();
+	}
+
+	/**
+	 * The health of a deployed application, from its own health indicators (in process,
+	 * without an HTTP request), cached for a short time (see
+	 * {@link #HEALTH_TTL_PROPERTY_KEY}).
+	 * 
+	 * @param id the app id
+	 * @return the overall status (key "status") and the status of each health indicator
+	 * (just "UNKNOWN" if the app is not running)
+	 */
+	public Map<String, String> getHealth(String id) {
+		ThinJarAppWrapper wrapper = getWrapper(id);
+		if (wrapper == null) {
+			return Collections.singletonMap("status", "UNKNOWN");
+		}
+		return wrapper.getHealth();
+	}
+
+	/**
+	 * The startup profile of a deployed application (if it was deployed with
+	 * {@link #PROFILE_PROPERTY_KEY}): the time each phase of the startup took, and the
+	 * time each bean took to create and initialize, slowest first. The result only
+	 * contains maps, lists, strings and numbers, so it can be rendered as JSON directly.
+	 * The slowest few beans are also in the attributes of the app instance status.
+	 *
+	 * @param id the app id
+	 * @return the startup phases (key "phases") and the beans (key "beans"), or an empty
+	 * map if the app is not deployed or was not profiled
+	 */
+	public Map<String, Object> getStartupProfile(String id) {
+		ThinJarAppWrapper wrapper = getWrapper(id);
+		if (wrapper == null) {
+			return Collections.emptyMap();
+		}
+		return wrapper.getStartupProfile();
+	}
+
 	/**
 	 * Lookup a bean from a deployed application. A deployed application contains an
 	 * application context, which has beans of various types, so this method extracts a
@@ -203,7 +296,10 @@ class InMemoryAppInstanceStatus implements AppInstanceStatus {
 
 	@Override
 	public DeploymentState getState() {
-		LaunchState state = wrapper.getState();
+		return state(wrapper.getState());
+	}
+
+	static DeploymentState state(LaunchState state) {
 		switch (state) {
 		case running:
 			return DeploymentState.deployed;
@@ -216,9 +312,22 @@ class InMemoryAppInstanceStatus implements AppInstanceStatus {
 		}
 	}
 
+	/**
+	 * @return the health status of the app (e.g. "UP" when it is ready to do work),
+	 * which is only known while it is deployed
+	 */
+	public String getReadiness() {
+		return wrapper.getHealth().get("status");
+	}
+
 	@Override
 	public Map<String, String> getAttributes() {
-		return Collections.emptyMap();
+		Map<String, String> attributes = new LinkedHashMap<>(wrapper.getAttributes());
+		for (Map.Entry<String, String> health : wrapper.getHealth().entrySet()) {
+			attributes.put("status".equals(health.getKey()) ? "readiness"
+					: "health." + health.getKey(), health.getValue());
+		}
+		return attributes;
 	}
 
 }
\ No newline at end of file
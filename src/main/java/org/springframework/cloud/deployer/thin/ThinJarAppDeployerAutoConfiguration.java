@@ -1,13 +1,19 @@
 package org.springframework.cloud.deployer.thin;
 
+import org.springframework.beans.factory.SmartInitializingSingleton;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.boot.autoconfigure.AutoConfigureOrder;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnMissingBean;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnWebApplication;
+import org.springframework.boot.loader.thin.DependencyResolver;
 import org.springframework.cloud.deployer.spi.app.AppDeployer;
 import org.springframework.cloud.deployer.spi.task.TaskLauncher;
 import org.springframework.context.annotation.Bean;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.core.Ordered;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
 
 @Configuration
 @ConditionalOnClass(ThinJarAppDeployer.class)
@@ -25,4 +31,33 @@ public class ThinJarAppDeployerAutoConfiguration {
 	public TaskLauncher taskLauncher() {
 		return new ThinJarTaskLauncher();
 	}
+
+	/**
+	 * Initialize the dependency resolver when the deployer starts, instead of on the
+	 * first deployment.
+	 */
+	@Bean
+	@ConditionalOnProperty(prefix = "spring.cloud.deployer.thin.resolver", name = "eager", matchIfMissing = true)
+	public SmartInitializingSingleton thinDependencyResolverInitializer() {
+		return () -> DependencyResolver.instance();
+	}
+
+	@Configuration
+	@ConditionalOnWebApplication
+	@ConditionalOnClass(SseEmitter.class)
+	@ConditionalOnProperty(prefix = "spring.cloud.deployer.thin.status.stream", name = "enabled")
+	protected static class DeploymentStatusStreamConfiguration {
+
+		@Bean
+		public DeploymentStatusEndpoint deploymentStatusEndpoint(AppDeployer deployer,
+				@Value("${spring.cloud.deployer.thin.status.stream.interval:1000}") long interval) {
+			if (!(deployer instanceof ThinJarAppDeployer)) {
+				throw new IllegalStateException(
+						"Deployment status can only be streamed from a ThinJarAppDeployer");
+			}
+			return new DeploymentStatusEndpoint((ThinJarAppDeployer) deployer, interval);
+		}
+
+	}
+
 }
\ No newline at end of file
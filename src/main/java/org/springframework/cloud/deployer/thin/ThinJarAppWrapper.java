@@ -16,6 +16,7 @@
 package org.springframework.cloud.deployer.thin;
 
 import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.lang.reflect.Field;
 import java.lang.reflect.Method;
@@ -27,8 +28,16 @@ import java.nio.charset.Charset;
 import java.security.CodeSource;
 import java.security.ProtectionDomain;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.Function;
 import java.util.jar.JarFile;
 import java.util.jar.Manifest;
 
@@ -41,16 +50,29 @@ import org.springframework.boot.loader.thin.ArchiveUtils;
 import org.springframework.boot.loader.thin.DependencyResolver;
 import org.springframework.boot.loader.thin.PathResolver;
 import org.springframework.boot.loader.tools.MainClassFinder;
+import org.springframework.cloud.deployer.thin.LogRingBuffer.Overflow;
 import org.springframework.cloud.deployer.spi.task.LaunchState;
 import org.springframework.core.io.Resource;
 import org.springframework.util.ClassUtils;
 import org.springframework.util.DigestUtils;
 import org.springframework.util.ReflectionUtils;
+import org.springframework.util.ResourceUtils;
+import org.springframework.util.StringUtils;
 
 public class ThinJarAppWrapper {
 
 	private static Log logger = LogFactory.getLog(ThinJarAppWrapper.class);
 
+	private static final String FAT_JAR_PREFIX = "BOOT-INF/";
+
+	private static final String FAT_JAR_LIB = "BOOT-INF/lib/";
+
+	private static final String FAT_JAR_CLASSES = "BOOT-INF/classes/";
+
+	private static final String BOOT_LIB = "Spring-Boot-Lib";
+
+	private static final String BOOT_CLASSES = "Spring-Boot-Classes";
+
 	private String id;
 
 	private Object app;
@@ -59,42 +81,531 @@ public class ThinJarAppWrapper {
 
 	private Resource resource;
 
-	private LaunchState state = LaunchState.unknown;
+	private volatile LaunchState state = LaunchState.unknown;
+
+	private Consumer<ThinJarAppWrapper> stateListener;
 
 	private final String name;
 
 	private final String[] profiles;
 
+	private final ArchiveCache cache;
+
+	private final List<String> cached = new ArrayList<>();
+
+	private ClassLoaderPool pool;
+
+	private String poolKey;
+
+	private String failure;
+
+	private AppLogPipeline logPipeline;
+
+	private int logCapacity;
+
+	private Overflow logOverflow;
+
+	private LogRingBuffer logBuffer;
+
+	private final Map<String, Object> beans = new LinkedHashMap<>();
+
+	private final Map<String, Method> methods = new ConcurrentHashMap<>();
+
+	private LocalChannelRegistry.Subscriptions subscriptions;
+
+	private AppResourceMonitor resourceMonitor;
+
+	private AppResourceMonitor.Usage usage;
+
+	private ClassPreloader preloader;
+
+	private ClassPreloader.Preload preload;
+
+	private File preloadDirectory;
+
+	private AutoConfigurationPruner pruner;
+
+	private AutoConfigurationPruner.Decision pruning;
+
+	private long startupTime = -1;
+
+	private boolean lazyInit;
+
+	private boolean virtualThreads;
+
+	private ThreadBudget threadBudget;
+
+	private ArtifactFetcher artifactFetcher;
+
+	private int maxThreads;
+
+	private List<URL> classpath;
+
+	private MemoryAdmission admission;
+
+	private MemoryAdmission.Policy admissionPolicy;
+
+	private String digest;
+
+	private Map<String, String> properties = Collections.emptyMap();
+
+	private long healthTtl;
+
+	private volatile Health health;
+
+	private int profileTop;
+
+	private String mainClass;
+
 	public ThinJarAppWrapper(Resource resource, String name, String[] profiles) {
+		this(resource, name, profiles, ArchiveCache.getInstance());
+	}
+
+	public ThinJarAppWrapper(Resource resource, String name, String[] profiles,
+			ArchiveCache cache) {
+		this(null, resource, name, profiles, cache);
+	}
+
+	/**
+	 * Create a wrapper with an explicit id (e.g. for a task execution). If the id is null
+	 * it is computed from the location of the resource, so that deploying the same
+	 * resource twice yields the same id.
+	 */
+	public ThinJarAppWrapper(String id, Resource resource, String name,
+			String[] profiles, ArchiveCache cache) {
 		this.resource = resource;
 		this.name = name;
 		this.profiles = profiles;
+		this.cache = cache;
 		try {
-			this.id = DigestUtils.md5DigestAsHex(resource.getFile().getAbsolutePath()
-					.getBytes(Charset.forName("UTF-8")));
+			this.id = id != null ? id : id(resource.getFile());
 		}
 		catch (IOException e) {
 			throw new IllegalArgumentException("Not a valid file resource");
 		}
 	}
 
+	/**
+	 * @param file the archive of an app
+	 * @return the id an app deployed from that file gets by default
+	 */
+	static String id(File file) {
+		return DigestUtils.md5DigestAsHex(
+				file.getAbsolutePath().getBytes(Charset.forName("UTF-8")));
+	}
+
+	/**
+	 * Tell someone (e.g. the deployer) every time the state of the app changes.
+	 *
+	 * @param stateListener a callback with this wrapper (or null for no callback)
+	 */
+	public void setStateListener(Consumer<ThinJarAppWrapper> stateListener) {
+		this.stateListener = stateListener;
+	}
+
+	/**
+	 * Keep the class loader warm in the pool provided when the app finishes, and look
+	 * for a warm one there when it starts.
+	 *
+	 * @param pool a pool of class loaders (or null to always use a new one)
+	 */
+	public void setClassLoaderPool(ClassLoaderPool pool) {
+		this.pool = pool;
+	}
+
+	/**
+	 * Send the console logging of the app to a buffer in the pipeline provided, instead
+	 * of writing it synchronously.
+	 *
+	 * @param pipeline the logging pipeline (or null to leave logging alone)
+	 * @param capacity the size of the buffer for this app
+	 * @param overflow what to do when the buffer is full
+	 */
+	public void setLogPipeline(AppLogPipeline pipeline, int capacity,
+			Overflow overflow) {
+		this.logPipeline = pipeline;
+		this.logCapacity = capacity;
+		this.logOverflow = overflow;
+	}
+
+	/**
+	 * Add an object that will be registered as a bean in the app's context. It should be
+	 * of a type that is visible from both sides (e.g. from the JDK).
+	 *
+	 * @param name the bean name
+	 * @param bean the bean
+	 */
+	public void addBean(String name, Object bean) {
+		this.beans.put(name, bean);
+	}
+
+	/**
+	 * Give the app a sender and a subscriber for the in-memory channels in the registry
+	 * provided. Its subscriptions are cancelled when it stops.
+	 *
+	 * @param registry the local channel registry
+	 */
+	public void setLocalChannels(LocalChannelRegistry registry) {
+		this.subscriptions = registry.subscriptions();
+		addBean(LocalChannelRegistry.SENDER_BEAN_NAME, registry.sender());
+		addBean(LocalChannelRegistry.SUBSCRIBER_BEAN_NAME, this.subscriptions);
+	}
+
+	/**
+	 * Account for the CPU, memory and threads used by the app in the monitor provided.
+	 *
+	 * @param resourceMonitor the resource monitor (or null to switch off accounting)
+	 */
+	public void setResourceMonitor(AppResourceMonitor resourceMonitor) {
+		this.resourceMonitor = resourceMonitor;
+	}
+
+	/**
+	 * Record the classes the app loads the first time it starts, and preload them in
+	 * parallel on later deployments of the same jar.
+	 *
+	 * @param preloader the class preloader (or null to switch off preloading)
+	 */
+	public void setClassPreloader(ClassPreloader preloader) {
+		this.preloader = preloader;
+	}
+
+	/**
+	 * Learn which auto-configurations do not match the first time the app starts, and
+	 * exclude them on later deployments with the same inputs.
+	 *
+	 * @param pruner the auto-configuration pruner (or null to evaluate all
+	 * auto-configurations every time)
+	 */
+	public void setAutoConfigurationPruner(AutoConfigurationPruner pruner) {
+		this.pruner = pruner;
+	}
+
+	/**
+	 * Start the app with lazy bean initialization and warm it up in the background, so
+	 * that it is deployed as soon as possible.
+	 *
+	 * @param lazyInit the flag value
+	 */
+	public void setLazyInit(boolean lazyInit) {
+		this.lazyInit = lazyInit;
+	}
+
+	/**
+	 * Download the dependencies listed in the jar in parallel before resolving its
+	 * classpath.
+	 *
+	 * @param artifactFetcher the artifact fetcher (or null to leave it all to the
+	 * resolver)
+	 */
+	public void setArtifactFetcher(ArtifactFetcher artifactFetcher) {
+		this.artifactFetcher = artifactFetcher;
+	}
+
+	/**
+	 * Start the app in a virtual thread, if the JVM supports them.
+	 *
+	 * @param virtualThreads the flag value
+	 */
+	public void setVirtualThreads(boolean virtualThreads) {
+		this.virtualThreads = virtualThreads;
+	}
+
+	/**
+	 * Limit the request processing threads of the app's web server, and reserve them in
+	 * the budget provided.
+	 *
+	 * @param threadBudget the thread budget (or null to only apply the limit)
+	 * @param maxThreads the number of threads requested
+	 */
+	public void setThreadBudget(ThreadBudget threadBudget, int maxThreads) {
+		this.threadBudget = threadBudget;
+		this.maxThreads = maxThreads;
+	}
+
+	/**
+	 * Check that there is enough memory before starting the app, and measure its
+	 * footprint while it starts.
+	 *
+	 * @param admission the admission control (or null to start regardless)
+	 * @param policy what to do if there is not enough memory
+	 */
+	public void setMemoryAdmission(MemoryAdmission admission,
+			MemoryAdmission.Policy policy) {
+		this.admission = admission;
+		this.admissionPolicy = policy;
+	}
+
+	/**
+	 * @param healthTtl how long (millis) to keep the health of the app before asking it
+	 * again
+	 */
+	public void setHealthTtl(long healthTtl) {
+		this.healthTtl = healthTtl;
+	}
+
+	/**
+	 * Profile the startup of the app (how long each bean takes to create and
+	 * initialize), and show the slowest beans in its attributes.
+	 *
+	 * @param top the number of beans to show (or 0 to switch profiling off)
+	 */
+	public void setProfile(int top) {
+		this.profileTop = top;
+	}
+
+	/**
+	 * The startup profile of the app, if it was deployed with profiling switched on.
+	 *
+	 * @return the startup phases (key "phases", millis) and all the beans, slowest
+	 * first (key "beans", each with its name, type and times in millis), or an empty map
+	 * if the app was not profiled
+	 */
+	public Map<String, Object> getStartupProfile() {
+		Object app = this.app;
+		if (app == null || this.profileTop <= 0) {
+			return Collections.emptyMap();
+		}
+		@SuppressWarnings("unchecked")
+		Map<String, Object> profile = (Map<String, Object>) ReflectionUtils
+				.invokeMethod(method(app, "getStartupProfile"), app);
+		return profile;
+	}
+
+	/**
+	 * The health of the app, from its own health indicators (called directly, not over
+	 * HTTP), cached for the configured time to live.
+	 *
+	 * @return the overall status (key "status") and the status of each health indicator
+	 * if the app has the actuator
+	 */
+	public Map<String, String> getHealth() {
+		Object app = this.app;
+		if (app == null || !isRunning()) {
+			return Collections.singletonMap("status", "UNKNOWN");
+		}
+		Health health = this.health;
+		long now = System.currentTimeMillis();
+		if (health == null || health.app != app
+				|| now - health.timestamp >= this.healthTtl) {
+			@SuppressWarnings("unchecked")
+			Map<String, String> values = (Map<String, String>) ReflectionUtils
+					.invokeMethod(method(app, "getHealth"), app);
+			health = new Health(app, now, values);
+			this.health = health;
+		}
+		return health.values;
+	}
+
+	/**
+	 * Change some properties of the running app without restarting it.
+	 *
+	 * @param properties the properties to change
+	 * @return the names of the properties whose values changed (empty if the app is not
+	 * running)
+	 */
+	public Set<String> update(Map<String, String> properties) {
+		Object app = this.app;
+		if (app == null || !isRunning()) {
+			return Collections.emptySet();
+		}
+		ClassLoader contextLoader = ClassUtils
+				.overrideThreadContextClassLoader(app.getClass().getClassLoader());
+		try {
+			@SuppressWarnings("unchecked")
+			Set<String> changed = (Set<String>) ReflectionUtils.invokeMethod(
+					method(app, "update", Map.class), app, properties);
+			Map<String, String> updated = new LinkedHashMap<>(this.properties);
+			updated.putAll(properties);
+			this.properties = updated;
+			// The health might depend on the properties
+			this.health = null;
+			return changed;
+		}
+		finally {
+			ClassUtils.overrideThreadContextClassLoader(contextLoader);
+		}
+	}
+
+	/**
+	 * Start the app with a classpath and main class that are already known (e.g. from
+	 * an earlier deployment of the same jar), instead of resolving them. If any of the
+	 * classpath entries has gone away, the classpath is resolved as usual.
+	 *
+	 * @param classpath the dependencies of the app (or null to resolve them)
+	 * @param mainClass the main class (or null to find it in the jar)
+	 */
+	public void setClasspath(List<URL> classpath, String mainClass) {
+		this.classpath = classpath;
+		this.mainClass = mainClass;
+	}
+
+	/**
+	 * @return the dependencies of the app, once it has started (null for a fat jar or if
+	 * they have not been resolved yet)
+	 */
+	public List<URL> getClasspath() {
+		return this.classpath;
+	}
+
+	/**
+	 * @return the properties the app was started with (plus any updates)
+	 */
+	public Map<String, String> getProperties() {
+		return this.properties;
+	}
+
+	/**
+	 * @return the main class of the app, once it has started
+	 */
+	public String getMainClass() {
+		return this.mainClass;
+	}
+
 	public void run(Map<String, String> properties, List<String> args) {
 		if (this.app == null) {
-			this.state = LaunchState.launching;
+			this.properties = properties;
+			setState(LaunchState.launching);
 			ClassLoader contextLoader = Thread.currentThread().getContextClassLoader();
+			MemoryAdmission.Ticket ticket = null;
 			try {
+				if (this.admission != null) {
+					this.digest = this.cache.digest(resource.getFile());
+					ticket = this.admission.admit(this.id, this.digest,
+							this.admissionPolicy);
+				}
 				Archive child = new JarFileArchive(resource.getFile());
 				Class<?> cls = createContextRunnerClass(child, args);
 				this.app = cls.newInstance();
-				runContext(getMainClass(child), properties, args.toArray(new String[0]));
+				if (this.logPipeline != null) {
+					this.logBuffer = this.logPipeline.register(this.id, this.logCapacity,
+							this.logOverflow);
+					Method method = ReflectionUtils.findMethod(this.app.getClass(),
+							"setLogSink", Consumer.class);
+					ReflectionUtils.invokeMethod(method, this.app, this.logBuffer);
+				}
+				if (this.resourceMonitor != null) {
+					this.usage = this.resourceMonitor.register(this.id);
+					Method method = ReflectionUtils.findMethod(this.app.getClass(),
+							"setThreadGroup", ThreadGroup.class);
+					ReflectionUtils.invokeMethod(method, this.app,
+							this.usage.getThreadGroup());
+				}
+				if (!this.beans.isEmpty()) {
+					Method method = ReflectionUtils.findMethod(this.app.getClass(),
+							"setBeans", Map.class);
+					ReflectionUtils.invokeMethod(method, this.app, this.beans);
+				}
+				if (DeployerEvents.isAvailable()) {
+					Method method = ReflectionUtils.findMethod(this.app.getClass(),
+							"setRecorder", Function.class);
+					ReflectionUtils.invokeMethod(method, this.app,
+							DeployerEvents.recorder(this.id, describe()));
+				}
+				if (this.lazyInit) {
+					Method method = ReflectionUtils.findMethod(this.app.getClass(),
+							"setLazyInit", boolean.class);
+					ReflectionUtils.invokeMethod(method, this.app, true);
+				}
+				if (this.virtualThreads) {
+					Method method = ReflectionUtils.findMethod(this.app.getClass(),
+							"setVirtualThreads", boolean.class);
+					ReflectionUtils.invokeMethod(method, this.app, true);
+				}
+				if (this.profileTop > 0) {
+					Method method = ReflectionUtils.findMethod(this.app.getClass(),
+							"setProfile", boolean.class);
+					ReflectionUtils.invokeMethod(method, this.app, true);
+				}
+				if (this.mainClass == null) {
+					Runnable end = DeployerEvents.begin("main-class", this.id,
+							describe());
+					try {
+						this.mainClass = getMainClass(child);
+					}
+					finally {
+						end.run();
+					}
+				}
+				File decision = null;
+				Map<String, String> effective = properties;
+				if (this.pruner != null) {
+					decision = this.pruner.getFile(resource.getFile(), name, profiles,
+							properties, args);
+					this.pruning = this.pruner.load(decision);
+					if (this.pruning != null) {
+						effective = this.pruning.apply(properties);
+					}
+				}
+				if (this.maxThreads > 0) {
+					int granted = this.threadBudget == null ? this.maxThreads
+							: this.threadBudget.reserve(this.id, this.maxThreads);
+					// An upper limit (ThinJarTomcatAutoConfiguration keeps a lower value
+					// from the app)
+					effective = new LinkedHashMap<>(effective);
+					effective.put(AbstractThinJarSupport.MAX_THREADS_PROPERTY_KEY,
+							String.valueOf(granted));
+				}
+				long start = System.nanoTime();
+				runContext(this.mainClass, effective, args.toArray(new String[0]));
+				if (ticket != null) {
+					if (getError() == null) {
+						ticket.started();
+					}
+					else {
+						ticket.release();
+					}
+				}
+				if (this.threadBudget != null) {
+					reconcileThreads();
+				}
+				this.startupTime = TimeUnit.NANOSECONDS
+						.toMillis(System.nanoTime() - start);
+				recordClasses();
+				saveClassList();
+				if (decision != null) {
+					if (getError() != null) {
+						// Start again next time in case the exclusions were to blame
+						decision.delete();
+					}
+					else if (this.pruning == null) {
+						saveUnmatched(decision);
+					}
+				}
 				boolean running = isRunning();
-				this.state = running ? LaunchState.running
-						: (getError() != null ? LaunchState.failed
-								: LaunchState.complete);
+				Throwable error = getError();
+				synchronized (this) {
+					if (this.state == LaunchState.cancelled) {
+						// Undeployed while it was starting
+						running = false;
+					}
+					else {
+						setState(running ? LaunchState.running
+								: (error != null ? LaunchState.failed
+										: LaunchState.complete));
+					}
+				}
+				if (!running) {
+					if (error != null) {
+						this.failure = error.toString();
+					}
+					// Nothing left to run, so clean up now
+					close();
+				}
 			}
 			catch (Exception e) {
-				this.state = LaunchState.failed;
+				setState(LaunchState.failed);
+				this.failure = e.toString();
 				logger.error("Cannot deploy " + resource, e);
+				if (ticket != null) {
+					ticket.release();
+				}
+				if (this.threadBudget != null) {
+					this.threadBudget.release(this.id);
+				}
+				if (this.app == null) {
+					releaseCached();
+				}
 			}
 			finally {
 				ClassUtils.overrideThreadContextClassLoader(contextLoader);
@@ -102,20 +613,60 @@ public class ThinJarAppWrapper {
 		}
 	}
 
+	/**
+	 * Give back the threads the app does not need: all of them if it is not a web app,
+	 * or the difference if it asked for fewer itself.
+	 */
+	private void reconcileThreads() {
+		if (getProperty("local.server.port") == null) {
+			this.threadBudget.release(this.id);
+			return;
+		}
+		String own = getProperty("server.tomcat.max-threads");
+		if (StringUtils.hasText(own)) {
+			int threads = Integer.parseInt(own.trim());
+			if (threads > 0 && threads < this.threadBudget.getReserved(this.id)) {
+				this.threadBudget.reserve(this.id, threads);
+			}
+		}
+	}
+
 	private boolean isRunning() {
+		Object app = this.app;
 		if (app == null) {
 			return false;
 		}
-		Method method = ReflectionUtils.findMethod(this.app.getClass(), "isRunning");
-		return (Boolean) ReflectionUtils.invokeMethod(method, this.app);
+		return (Boolean) ReflectionUtils.invokeMethod(method(app, "isRunning"), app);
+	}
+
+	private String getProperty(String key) {
+		Object app = this.app;
+		if (app == null) {
+			return null;
+		}
+		return (String) ReflectionUtils
+				.invokeMethod(method(app, "getProperty", String.class), app, key);
 	}
 
 	private Throwable getError() {
+		Object app = this.app;
 		if (app == null) {
 			return null;
 		}
-		Method method = ReflectionUtils.findMethod(this.app.getClass(), "getError");
-		return (Throwable) ReflectionUtils.invokeMethod(method, this.app);
+		return (Throwable) ReflectionUtils.invokeMethod(method(app, "getError"), app);
+	}
+
+	/**
+	 * Lookup a method on the app, caching the result because some of them are called
+	 * every time the status is polled.
+	 */
+	private Method method(Object app, String name, Class<?>... types) {
+		Method method = this.methods.get(name);
+		if (method == null || method.getDeclaringClass() != app.getClass()) {
+			method = ReflectionUtils.findMethod(app.getClass(), name, types);
+			this.methods.put(name, method);
+		}
+		return method;
 	}
 
 	private void runContext(String mainClass, Map<String, String> properties,
@@ -127,19 +678,156 @@ public class ThinJarAppWrapper {
 
 	private Class<?> createContextRunnerClass(Archive child, List<String> args)
 			throws Exception, ClassNotFoundException {
-		Archive parent = createArchive();
-		PathResolver archives = new PathResolver(DependencyResolver.instance());
-		if (args.contains("--debug")) {
-			// set log level
+		ClassLoader loader = null;
+		if (this.pool != null) {
+			this.poolKey = this.cache.digest(resource.getFile()) + ":" + name + ":"
+					+ StringUtils.arrayToCommaDelimitedString(profiles);
+			ClassLoaderPool.Entry entry = this.pool.take(this.poolKey);
+			if (entry != null) {
+				loader = entry.getClassLoader();
+				this.cached.addAll(entry.getCached());
+			}
+		}
+		if (loader == null) {
+			Archive parent = createArchive();
+			boolean fatJar = isFatJar(child);
+			if (fatJar) {
+				this.classpath = null;
+			}
+			else if (!isAvailable(this.classpath)) {
+				this.classpath = resolve(child, args);
+			}
+			Runnable end = DeployerEvents.begin("class-loader", this.id, describe());
+			try {
+				loader = fatJar ? createFatJarClassLoader(parent, child)
+						: createClassLoader(this.classpath, parent, child);
+			}
+			finally {
+				end.run();
+			}
+			startPreload((ThinJarClassLoader) loader);
 		}
-		List<Archive> extracted = archives.resolve(child, name, profiles);
-		ClassLoader loader = createClassLoader(extracted, parent, child);
 		ClassUtils.overrideThreadContextClassLoader(loader);
 		reset();
 		Class<?> cls = loader.loadClass(ContextRunner.class.getName());
 		return cls;
 	}
 
+	private boolean isAvailable(List<URL> classpath) {
+		if (classpath == null) {
+			return false;
+		}
+		for (URL url : classpath) {
+			try {
+				if (!ResourceUtils.getFile(ResourceUtils.extractJarFileURL(url))
+						.exists()) {
+					logger.info("Classpath of " + describe() + " has changed: " + url);
+					return false;
+				}
+			}
+			catch (IOException e) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private List<URL> resolve(Archive child, List<String> args) throws Exception {
+		PathResolver archives = new PathResolver(DependencyResolver.instance());
+		if (args.contains("--debug")) {
+			// set log level
+		}
+		Runnable end;
+		if (this.artifactFetcher != null) {
+			end = DeployerEvents.begin("prefetch", this.id, describe());
+			try {
+				this.artifactFetcher.prefetch(resource.getFile());
+			}
+			finally {
+				end.run();
+			}
+		}
+		end = DeployerEvents.begin("resolve", this.id, describe());
+		try {
+			List<URL> urls = new ArrayList<>();
+			for (Archive archive : archives.resolve(child, name, profiles)) {
+				urls.add(archive.getUrl());
+			}
+			return urls;
+		}
+		finally {
+			end.run();
+		}
+	}
+
+	/**
+	 * @param archive an archive
+	 * @return true if the archive is a Spring Boot fat jar (with its dependencies nested
+	 * in <code>BOOT-INF/lib</code>)
+	 */
+	protected boolean isFatJar(Archive archive) {
+		if (!(archive instanceof JarFileArchive)) {
+			return false;
+		}
+		try {
+			// The Spring Boot plugins say where the libraries are in the manifest
+			Manifest manifest = archive.getManifest();
+			if (manifest != null) {
+				String lib = manifest.getMainAttributes().getValue(BOOT_LIB);
+				if (lib == null) {
+					lib = manifest.getMainAttributes().getValue(BOOT_CLASSES);
+				}
+				if (lib != null) {
+					return lib.startsWith(FAT_JAR_PREFIX);
+				}
+			}
+			// Otherwise look up the directories (without scanning all the entries)
+			try (JarFile jar = new JarFile(this.resource.getFile())) {
+				return jar.getEntry(FAT_JAR_LIB) != null
+						|| jar.getEntry(FAT_JAR_CLASSES) != null;
+			}
+		}
+		catch (IOException e) {
+			return false;
+		}
+	}
+
+	private void startPreload(ThinJarClassLoader loader) throws IOException {
+		if (this.preloader == null) {
+			return;
+		}
+		this.preloadDirectory = this.cache
+				.getDirectory(this.cache.digest(resource.getFile()));
+		List<String> names = this.preloader.load(this.preloadDirectory);
+		if (names.isEmpty()) {
+			loader.startRecording();
+		}
+		else {
+			this.preload = this.preloader.preload(loader, names);
+		}
+	}
+
+	private void saveClassList() {
+		if (this.preloadDirectory == null || getError() != null) {
+			return;
+		}
+		ClassLoader loader = this.app.getClass().getClassLoader();
+		if (loader instanceof ThinJarClassLoader
+				&& ((ThinJarClassLoader) loader).isRecording()) {
+			this.preloader.save(this.preloadDirectory,
+					((ThinJarClassLoader) loader).stopRecording());
+		}
+	}
+
+	private void saveUnmatched(File decision) {
+		Method method = ReflectionUtils.findMethod(this.app.getClass(),
+				"getUnmatchedAutoConfigurations");
+		@SuppressWarnings("unchecked")
+		List<String> unmatched = (List<String>) ReflectionUtils.invokeMethod(method,
+				this.app);
+		this.pruner.save(decision, unmatched, this.startupTime);
+	}
+
 	private void reset() {
 		if (ClassUtils.isPresent(
 				"org.apache.catalina.webresources.TomcatURLStreamHandlerFactory", null)) {
@@ -156,37 +844,122 @@ public class ThinJarAppWrapper {
 		ReflectionUtils.setField(field, null, value);
 	}
 
+	/**
+	 * Mark the app as launching before {@link #run(Map, List) run} is called, so that
+	 * other callers can see that a deployment is in progress.
+	 */
+	void launching() {
+		setState(LaunchState.launching);
+	}
+
 	public void cancel() {
+		synchronized (this) {
+			if (this.state == LaunchState.launching) {
+				// It is stopped when it has finished starting
+				setState(LaunchState.cancelled);
+				return;
+			}
+		}
 		if (isRunning()) {
-			this.state = LaunchState.cancelled;
+			setState(LaunchState.cancelled);
+			close();
+		}
+		else if (this.app != null) {
+			// Failed or finished but not cleaned up yet
 			close();
 		}
 	}
 
+	/**
+	 * Finish a run-to-completion app (e.g. a task) by closing its context, if it is still
+	 * running, and cleaning up.
+	 *
+	 * @return the exit code (from the context's exit code generators, or 1 if the app
+	 * failed)
+	 */
+	public int finish() {
+		Throwable error = getError();
+		if (error != null) {
+			this.failure = error.toString();
+		}
+		int exitCode = error != null ? 1 : 0;
+		if (isRunning()) {
+			try {
+				Method method = ReflectionUtils.findMethod(this.app.getClass(), "exit");
+				exitCode = (Integer) ReflectionUtils.invokeMethod(method, this.app);
+			}
+			catch (Exception e) {
+				exitCode = 1;
+				logger.error("Cannot exit " + resource, e);
+			}
+		}
+		else if (this.state == LaunchState.failed) {
+			exitCode = 1;
+		}
+		close();
+		if (this.state == LaunchState.running) {
+			setState(exitCode == 0 ? LaunchState.complete : LaunchState.failed);
+		}
+		return exitCode;
+	}
+
 	private void close() {
 		if (this.app != null) {
+			// Only keep the loader if the app started cleanly
+			boolean warm = this.pool != null && this.poolKey != null
+					&& this.state != LaunchState.failed;
+			if (this.subscriptions != null) {
+				// Stop delivering messages before the context goes away
+				this.subscriptions.cancel();
+			}
 			try {
-				Method method = ReflectionUtils.findMethod(this.app.getClass(), "close");
+				Method method = ReflectionUtils.findMethod(this.app.getClass(),
+						warm ? "closeContext" : "close");
 				ReflectionUtils.invokeMethod(method, this.app);
 			}
 			catch (Exception e) {
-				this.state = LaunchState.error;
+				setState(LaunchState.error);
+				warm = false;
 				logger.error("Cannot undeploy " + resource, e);
 			}
 			finally {
 				reset();
+				if (this.preload != null) {
+					this.preload.cancel();
+					this.preload = null;
+				}
+				if (this.logBuffer != null) {
+					this.logPipeline.unregister(this.logBuffer);
+				}
+				if (this.usage != null) {
+					this.resourceMonitor.unregister(this.usage);
+				}
+				if (this.threadBudget != null) {
+					this.threadBudget.release(this.id);
+				}
 				if (this.app != null) {
-					try {
-						((URLClassLoader) app.getClass().getClassLoader()).close();
-						this.app = null;
+					URLClassLoader loader = (URLClassLoader) app.getClass()
+							.getClassLoader();
+					recordClasses();
+					this.app = null;
+					this.methods.clear();
+					this.health = null;
+					if (warm && this.pool.offer(this.poolKey, new ClassLoaderPool.Entry(
+							loader, this.cache, new ArrayList<>(this.cached)))) {
+						this.cached.clear();
 					}
-					catch (Exception e) {
-						this.state = LaunchState.error;
-						logger.error("Cannot clean up " + resource, e);
-					}
-					finally {
-						this.app = null;
-						System.gc();
+					else {
+						try {
+							loader.close();
+						}
+						catch (Exception e) {
+							setState(LaunchState.error);
+							logger.error("Cannot clean up " + resource, e);
+						}
+						finally {
+							releaseCached();
+							System.gc();
+						}
 					}
 				}
 			}
@@ -197,6 +970,109 @@ public class ThinJarAppWrapper {
 		return id;
 	}
 
+	/**
+	 * @return extra information about the app (e.g. metrics) to expose in its status
+	 */
+	public Map<String, String> getAttributes() {
+		Map<String, String> attributes = new LinkedHashMap<>();
+		attributes.putAll(AppLogPipeline.getMetrics(this.logBuffer));
+		if (this.usage != null) {
+			attributes.putAll(this.usage.getMetrics());
+		}
+		long classes = getDefinedClassCount();
+		if (classes >= 0) {
+			attributes.put("classes.defined", String.valueOf(classes));
+		}
+		if (this.startupTime >= 0) {
+			attributes.put("startup.time", String.valueOf(this.startupTime));
+			long warmup = getWarmupTime();
+			if (warmup >= 0) {
+				attributes.put("warmup.time", String.valueOf(this.startupTime + warmup));
+			}
+		}
+		AutoConfigurationPruner.Decision pruning = this.pruning;
+		if (pruning != null) {
+			attributes.put("autoconfig.excluded",
+					String.valueOf(pruning.getExcludes().size()));
+			if (pruning.getBaseline() >= 0 && this.startupTime >= 0) {
+				attributes.put("autoconfig.saved",
+						String.valueOf(pruning.getBaseline() - this.startupTime));
+			}
+		}
+		if (this.threadBudget != null && this.threadBudget.getReserved(this.id) > 0) {
+			attributes.put("web.threads.max",
+					String.valueOf(this.threadBudget.getReserved(this.id)));
+		}
+		if (this.profileTop > 0) {
+			addProfile(attributes);
+		}
+		ClassPreloader.Preload preload = this.preload;
+		if (preload != null) {
+			attributes.put("classes.preloaded", String.valueOf(preload.getLoaded()));
+		}
+		MemoryAdmission.Footprint footprint = this.admission != null
+				&& this.digest != null ? this.admission.getFootprint(this.digest) : null;
+		if (footprint != null) {
+			attributes.put("memory.footprint.heap", String.valueOf(footprint.getHeap()));
+			attributes.put("memory.footprint.metaspace",
+					String.valueOf(footprint.getMetaspace()));
+		}
+		return attributes;
+	}
+
+	private void addProfile(Map<String, String> attributes) {
+		Map<String, Object> profile = getStartupProfile();
+		if (profile.isEmpty()) {
+			return;
+		}
+		for (Map.Entry<?, ?> phase : ((Map<?, ?>) profile.get("phases")).entrySet()) {
+			attributes.put("startup.phase." + phase.getKey(),
+					String.valueOf(phase.getValue()));
+		}
+		List<?> beans = (List<?>) profile.get("beans");
+		attributes.put("startup.beans", String.valueOf(beans.size()));
+		for (int i = 0; i < Math.min(this.profileTop, beans.size()); i++) {
+			Map<?, ?> bean = (Map<?, ?>) beans.get(i);
+			attributes.put("startup.bean." + i, bean.get("name") + "=" + bean.get("self"));
+		}
+	}
+
+	private long getWarmupTime() {
+		Object app = this.app;
+		if (!this.lazyInit || app == null) {
+			return -1;
+		}
+		return (Long) ReflectionUtils.invokeMethod(method(app, "getWarmupTime"), app);
+	}
+
+	private long getDefinedClassCount() {
+		Object app = this.app;
+		if (app != null
+				&& app.getClass().getClassLoader() instanceof ThinJarClassLoader) {
+			return ((ThinJarClassLoader) app.getClass().getClassLoader())
+					.getDefinedClassCount();
+		}
+		return -1;
+	}
+
+	private void recordClasses() {
+		long classes = getDefinedClassCount();
+		if (classes >= 0) {
+			DeployerEvents.classes(this.id, describe(), classes);
+		}
+	}
+
+	private String describe() {
+		return this.resource.getDescription();
+	}
+
+	/**
+	 * @return a description of the error that made the app fail (if it did)
+	 */
+	public String getFailure() {
+		return this.failure;
+	}
+
 	public Object status() {
 		return this.status;
 	}
@@ -206,12 +1082,18 @@ public class ThinJarAppWrapper {
 	}
 
 	public LaunchState getState() {
-		if (!isRunning() && this.app != null) {
-			close();
-		}
 		return this.state;
 	}
 
+	private void setState(LaunchState state) {
+		LaunchState previous = this.state;
+		this.state = state;
+		Consumer<ThinJarAppWrapper> listener = this.stateListener;
+		if (listener != null && previous != state) {
+			listener.accept(this);
+		}
+	}
+
 	@Override
 	public String toString() {
 		return "Wrapper [id=" + id + ", resource=" + resource + ", state=" + state + "]";
@@ -246,35 +1128,75 @@ public class ThinJarAppWrapper {
 		}
 	}
 
-	private ClassLoader createClassLoader(List<Archive> archives, Archive... roots) {
-		URL[] urls = getUrls(archives, roots);
-		URLClassLoader classLoader = new URLClassLoader(urls,
+	/**
+	 * A class loader for a fat jar, with no dependency resolution and no extraction: the
+	 * nested jars and classes are read in place by the Spring Boot loader, which indexes
+	 * the central directory of each one the first time it is opened.
+	 */
+	private ClassLoader createFatJarClassLoader(Archive parent, Archive child)
+			throws IOException {
+		org.springframework.boot.loader.jar.JarFile.registerUrlProtocolHandler();
+		// The deployer itself (for the context runner)
+		List<URL> urls = new ArrayList<>(
+				Arrays.asList(getUrls(Collections.<URL>emptyList(), parent)));
+		for (Archive nested : child.getNestedArchives(entry -> entry.isDirectory()
+				? entry.getName().equals(FAT_JAR_CLASSES)
+				: entry.getName().startsWith(FAT_JAR_LIB))) {
+			urls.add(nested.getUrl());
+		}
+		URLClassLoader classLoader = new ThinJarClassLoader(urls.toArray(new URL[0]),
 				getClass().getClassLoader().getParent());
 		Thread.currentThread().setContextClassLoader(classLoader);
 		return classLoader;
 	}
 
-	private URL[] getUrls(List<Archive> archives, Archive... roots) {
+	private ClassLoader createClassLoader(List<URL> dependencies, Archive... roots) {
+		URL[] urls = getUrls(dependencies, roots);
+		URLClassLoader classLoader = new ThinJarClassLoader(urls,
+				getClass().getClassLoader().getParent());
+		Thread.currentThread().setContextClassLoader(classLoader);
+		return classLoader;
+	}
+
+	private URL[] getUrls(List<URL> dependencies, Archive... roots) {
 		try {
-			List<URL> urls = new ArrayList<URL>(archives.size());
-			for (Archive archive : archives) {
-				urls.add(archive.getUrl());
-			}
-			for (int i = 0; i < roots.length; i++) {
-				urls.add(i, roots[i].getUrl());
-			}
-			URL[] result = urls.toArray(new URL[0]);
-			for (int i = 0; i < roots.length; i++) {
-				result = ArchiveUtils.addNestedClasses(roots[i], result,
-						"BOOT-INF/classes/");
+			List<URL> urls = new ArrayList<URL>(dependencies.size() + 2 * roots.length);
+			for (Archive root : roots) {
+				urls.add(root.getUrl());
+				if (root instanceof JarFileArchive) {
+					// Share one extracted copy between all deployments of the same jar
+					String key = this.cache.acquire(getFile(root), "BOOT-INF/classes/");
+					if (key != null) {
+						this.cached.add(key);
+						urls.add(this.cache.getUrl(key));
+					}
+				}
+				else {
+					urls.addAll(Arrays.asList(ArchiveUtils.addNestedClasses(root,
+							new URL[0], "BOOT-INF/classes/")));
+				}
 			}
-			return result;
+			urls.addAll(dependencies);
+			return urls.toArray(new URL[0]);
 		}
-		catch (MalformedURLException e) {
+		catch (MalformedURLException | FileNotFoundException e) {
 			throw new IllegalStateException("Cannot create URL", e);
 		}
 	}
 
+	private File getFile(Archive archive)
+			throws MalformedURLException, FileNotFoundException {
+		return ResourceUtils
+				.getFile(ResourceUtils.extractJarFileURL(archive.getUrl()));
+	}
+
+	private void releaseCached() {
+		for (String key : this.cached) {
+			this.cache.release(key);
+		}
+		this.cached.clear();
+	}
+
 	protected final Archive createArchive() {
 		try {
 			ProtectionDomain protectionDomain = getClass().getProtectionDomain();
@@ -303,4 +1225,20 @@ public class ThinJarAppWrapper {
 		this.status = status;
 	}
 
+	private static class Health {
+
+		private final Object app;
+
+		private final long timestamp;
+
+		private final Map<String, String> values;
+
+		Health(Object app, long timestamp, Map<String, String> values) {
+			this.app = app;
+			this.timestamp = timestamp;
+			this.values = Collections.unmodifiableMap(new LinkedHashMap<>(values));
+		}
+
+	}
+
 }
\ No newline at end of file
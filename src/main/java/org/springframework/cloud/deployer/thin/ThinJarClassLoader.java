@@ -0,0 +1,118 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.io.IOException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The class loader for a deployed app. Keeps track of the classes it defines, and can
+ * record their names in order (e.g. so they can be preloaded next time). Aggregate
+ * lookups of well-known <code>META-INF</code> resources are served from a
+ * {@link MetaInfIndex} instead of searching every jar.
+ *
+ * @author Dave Syer
+ *
+ */
+public class ThinJarClassLoader extends URLClassLoader {
+
+	static {
+		ClassLoader.registerAsParallelCapable();
+	}
+
+	private final LongAdder defined = new LongAdder();
+
+	private volatile Queue<String> recording;
+
+	private volatile MetaInfIndex index;
+
+	private volatile boolean indexed;
+
+	public ThinJarClassLoader(URL[] urls, ClassLoader parent) {
+		super(urls, parent);
+	}
+
+	@Override
+	protected Class<?> findClass(String name) throws ClassNotFoundException {
+		Class<?> type = super.findClass(name);
+		this.defined.increment();
+		Queue<String> recording = this.recording;
+		if (recording != null) {
+			recording.add(name);
+		}
+		return type;
+	}
+
+	@Override
+	public Enumeration<URL> findResources(String name) throws IOException {
+		if (MetaInfIndex.isIndexed(name)) {
+			MetaInfIndex index = getIndex();
+			if (index != null) {
+				return index.getResources(name);
+			}
+		}
+		return super.findResources(name);
+	}
+
+	private MetaInfIndex getIndex() {
+		if (!this.indexed) {
+			synchronized (this) {
+				if (!this.indexed) {
+					this.index = MetaInfIndex.forClasspath(getURLs());
+					this.indexed = true;
+				}
+			}
+		}
+		return this.index;
+	}
+
+	/**
+	 * Start recording the names of the classes defined by this loader.
+	 */
+	public void startRecording() {
+		this.recording = new ConcurrentLinkedQueue<>();
+	}
+
+	/**
+	 * Stop recording class names.
+	 *
+	 * @return the names of the classes defined since recording started, in order
+	 */
+	public List<String> stopRecording() {
+		Queue<String> recording = this.recording;
+		this.recording = null;
+		return recording == null ? new ArrayList<>() : new ArrayList<>(recording);
+	}
+
+	public boolean isRecording() {
+		return this.recording != null;
+	}
+
+	/**
+	 * @return the number of classes defined by this loader so far
+	 */
+	public long getDefinedClassCount() {
+		return this.defined.sum();
+	}
+
+}
@@ -1,6 +1,14 @@
 package org.springframework.cloud.deployer.thin;
 
-import java.util.Collections;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
 
 import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
 import org.springframework.cloud.deployer.spi.task.LaunchState;
@@ -9,6 +17,21 @@ import org.springframework.cloud.deployer.spi.task.TaskStatus;
 
 public class ThinJarTaskLauncher extends AbstractThinJarSupport implements TaskLauncher {
 
+	private static Log logger = LogFactory.getLog(ThinJarTaskLauncher.class);
+
+	private final Map<String, TaskExecution> executions = new ConcurrentHashMap<>();
+
+	/**
+	 * Finished executions, oldest first (guarded by itself).
+	 */
+	private final Deque<TaskExecution> finished = new ArrayDeque<>();
+
+	private TaskExecutionEngine engine = new TaskExecutionEngine();
+
+	private int maxRetainedExecutions = 1000;
+
+	private long retentionTime = TimeUnit.HOURS.toMillis(1);
+
 	public ThinJarTaskLauncher() {
 		this("thin");
 	}
@@ -17,36 +40,190 @@ public class ThinJarTaskLauncher extends AbstractThinJarSupport implements TaskL
 		super(name, profiles);
 	}
 
+	/**
+	 * The engine that queues and runs task executions. Replace it to change the pool
+	 * size, queue capacity or per-task concurrency limit.
+	 *
+	 * @param engine the task execution engine to set
+	 */
+	public void setTaskExecutionEngine(TaskExecutionEngine engine) {
+		this.engine = engine;
+	}
+
+	/**
+	 * The maximum number of finished executions whose status is retained (the oldest are
+	 * discarded first).
+	 *
+	 * @param maxRetainedExecutions the maximum to set
+	 */
+	public void setMaxRetainedExecutions(int maxRetainedExecutions) {
+		this.maxRetainedExecutions = maxRetainedExecutions;
+	}
+
+	/**
+	 * The time (millis) for which the status of a finished execution is retained.
+	 *
+	 * @param retentionTime the retention time to set
+	 */
+	public void setRetentionTime(long retentionTime) {
+		this.retentionTime = retentionTime;
+	}
+
+	/**
+	 * @return the number of finished executions whose status is retained
+	 */
+	public int getRetainedExecutions() {
+		synchronized (this.finished) {
+			expire();
+			return this.finished.size();
+		}
+	}
+
+	/**
+	 * @return an estimate of the memory (bytes) used by the finished executions whose
+	 * status is retained
+	 */
+	public long getRetainedSize() {
+		long size = 0;
+		synchronized (this.finished) {
+			expire();
+			for (TaskExecution execution : this.finished) {
+				size += execution.getRetainedSize();
+			}
+		}
+		return size;
+	}
+
+	/**
+	 * Queue the task for execution and return immediately. Each launch gets a unique id,
+	 * so the same task can run more than once concurrently.
+	 */
 	@Override
 	public String launch(AppDeploymentRequest request) {
-		String id = super.deploy(request);
-		ThinJarAppWrapper wrapper = super.getWrapper(id);
-		wrapper.status(new TaskStatus(id, LaunchState.launching,
-				request.getDeploymentProperties()));
+		ThinJarAppWrapper wrapper = createWrapper(UUID.randomUUID().toString(), request);
+		TaskExecution execution = new TaskExecution(request.getDefinition().getName(),
+				wrapper);
+		String id = execution.getId();
+		register(wrapper);
+		this.executions.put(id, execution);
+		try {
+			this.engine.submit(execution.getTaskName(),
+					() -> execute(execution, request));
+		}
+		catch (RuntimeException e) {
+			unregister(id);
+			this.executions.remove(id);
+			throw e;
+		}
 		return id;
 	}
 
+	private void execute(TaskExecution execution, AppDeploymentRequest request) {
+		ThinJarAppWrapper wrapper = execution.getWrapper();
+		if (!execution.start()) {
+			retire(execution);
+			return;
+		}
+		int exitStatus = 1;
+		String error = null;
+		try {
+			run(wrapper, request);
+			exitStatus = wrapper.finish();
+			error = wrapper.getFailure();
+		}
+		catch (Exception e) {
+			error = e.toString();
+			logger.error("Task failed: " + execution, e);
+		}
+		finally {
+			execution.finish(
+					exitStatus == 0 ? LaunchState.complete : LaunchState.failed,
+					exitStatus, error);
+			retire(execution);
+		}
+	}
+
+	/**
+	 * Replace the wrapper of a finished execution with its compact record, and discard
+	 * old records according to the retention policy.
+	 */
+	private void retire(TaskExecution execution) {
+		unregister(execution.getId());
+		if (!this.executions.containsKey(execution.getId())) {
+			// Already cleaned up
+			return;
+		}
+		synchronized (this.finished) {
+			this.finished.add(execution);
+			expire();
+		}
+	}
+
+	/**
+	 * Discard the records that are too old or too many (the caller holds the lock on
+	 * the finished executions). Called when reading them as well as when adding to
+	 * them, so records expire even if no more tasks finish.
+	 */
+	private void expire() {
+		long threshold = System.currentTimeMillis() - this.retentionTime;
+		while (!this.finished.isEmpty()
+				&& (this.finished.size() > this.maxRetainedExecutions
+						|| this.finished.peek().getEndTime() < threshold)) {
+			this.executions.remove(this.finished.poll().getId());
+		}
+	}
+
 	@Override
 	public void cancel(String id) {
+		TaskExecution execution = this.executions.get(id);
+		if (execution != null) {
+			execution.cancel();
+		}
 		super.cancel(id);
 	}
 
 	@Override
 	public TaskStatus status(String id) {
-		ThinJarAppWrapper wrapper = super.getWrapper(id);
-		if (wrapper != null) {
-			return new TaskStatus(id, wrapper.getState(), Collections.emptyMap());
+		synchronized (this.finished) {
+			expire();
+		}
+		TaskExecution execution = this.executions.get(id);
+		if (execution != null) {
+			return new TaskStatus(id, execution.getState(), execution.getAttributes());
 		}
 		return null;
 	}
 
+	/**
+	 * Cancel the execution if it is still running, free its class loader and discard its
+	 * status.
+	 */
 	@Override
 	public void cleanup(String id) {
+		TaskExecution execution = this.executions.remove(id);
+		if (execution != null) {
+			execution.cancel();
+			synchronized (this.finished) {
+				this.finished.remove(execution);
+				expire();
+			}
+		}
+		ThinJarAppWrapper wrapper = unregister(id);
+		if (wrapper != null) {
+			wrapper.cancel();
+		}
 	}
 
+	/**
+	 * Clean up all the executions of the task with the name provided.
+	 */
 	@Override
 	public void destroy(String appName) {
-		super.getWrapper(appName).cancel();
+		for (TaskExecution execution : this.executions.values()) {
+			if (appName.equals(execution.getTaskName())) {
+				cleanup(execution.getId());
+			}
+		}
 	}
 
 }
@@ -1,8 +1,15 @@
 package org.springframework.cloud.deployer.thin;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+
 import org.apache.catalina.Host;
+import org.apache.catalina.Lifecycle;
 import org.apache.catalina.connector.Connector;
+import org.apache.coyote.AbstractProtocol;
+import org.apache.coyote.ProtocolHandler;
 
+import org.springframework.beans.factory.BeanFactory;
 import org.springframework.boot.autoconfigure.AutoConfigureBefore;
 import org.springframework.boot.autoconfigure.condition.ConditionalOnClass;
 import org.springframework.boot.autoconfigure.web.EmbeddedServletContainerAutoConfiguration;
@@ -19,8 +26,8 @@ public class ThinJarTomcatAutoConfiguration {
 
 	@Bean
 	public TomcatEmbeddedServletContainerFactory embeddedServletContainerFactory(
-			Environment environment) {
-		return new TomcatEmbeddedServletContainerFactory() {
+			Environment environment, BeanFactory beanFactory) {
+		TomcatEmbeddedServletContainerFactory factory = new TomcatEmbeddedServletContainerFactory() {
 			@Override
 			protected void prepareContext(Host host,
 					ServletContextInitializer[] initializers) {
@@ -29,7 +36,70 @@ public class ThinJarTomcatAutoConfiguration {
 								.getProperty("random.int(1000,10000)", "xxxx")));
 				super.prepareContext(host, initializers);
 			}
+
+			@Override
+			protected void customizeConnector(Connector connector) {
+				super.customizeConnector(connector);
+				// Apply the limits from the deployer last so the app cannot override them
+				ProtocolHandler handler = connector.getProtocolHandler();
+				if (handler instanceof AbstractProtocol) {
+					AbstractProtocol<?> protocol = (AbstractProtocol<?>) handler;
+					if (protocol.getExecutor() == null) {
+						Integer maxThreads = environment.getProperty(
+								AbstractThinJarSupport.MAX_THREADS_PROPERTY_KEY,
+								Integer.class);
+						if (maxThreads != null) {
+							// An upper limit: the app can ask for fewer threads
+							Integer own = environment.getProperty(
+									"server.tomcat.max-threads", Integer.class);
+							protocol.setMaxThreads(own != null && own > 0
+									? Math.min(own, maxThreads) : maxThreads);
+						}
+					}
+					Integer acceptCount = environment.getProperty(
+							AbstractThinJarSupport.ACCEPT_COUNT_PROPERTY_KEY,
+							Integer.class);
+					if (acceptCount != null) {
+						protocol.setAcceptCount(acceptCount);
+					}
+					Integer maxConnections = environment.getProperty(
+							AbstractThinJarSupport.MAX_CONNECTIONS_PROPERTY_KEY,
+							Integer.class);
+					if (maxConnections != null) {
+						protocol.setMaxConnections(maxConnections);
+					}
+				}
+			}
 		};
+		if (environment.getProperty(AbstractThinJarSupport.VIRTUAL_THREADS_PROPERTY_KEY,
+				Boolean.class, false) && VirtualThreads.isAvailable()) {
+			// A new virtual thread for every request
+			factory.addConnectorCustomizers(connector -> {
+				ProtocolHandler handler = connector.getProtocolHandler();
+				if (handler instanceof AbstractProtocol) {
+					ExecutorService executor = VirtualThreads.newExecutor();
+					((AbstractProtocol<?>) handler).setExecutor(executor);
+					// Tomcat only shuts down the executors it creates itself
+					connector.addLifecycleListener(event -> {
+						if (Lifecycle.AFTER_STOP_EVENT.equals(event.getType())) {
+							executor.shutdown();
+						}
+					});
+				}
+			});
+		}
+		else if (beanFactory.containsBean(SharedWebExecutor.BEAN_NAME)) {
+			// Process requests in the pool shared by all the apps in the deployer
+			Executor executor = beanFactory.getBean(SharedWebExecutor.BEAN_NAME,
+					Executor.class);
+			factory.addConnectorCustomizers(connector -> {
+				ProtocolHandler handler = connector.getProtocolHandler();
+				if (handler instanceof AbstractProtocol) {
+					((AbstractProtocol<?>) handler).setExecutor(executor);
+				}
+			});
+		}
+		return factory;
 	}
 
 }
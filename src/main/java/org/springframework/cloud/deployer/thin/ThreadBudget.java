@@ -0,0 +1,124 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * A budget of request processing threads for all the web apps deployed in a JVM. Each
+ * app reserves the maximum size of its server's thread pool when it is deployed, and is
+ * granted at most what is left in the budget. If nothing is left the app cannot be
+ * deployed. Reservations are released when apps are undeployed (or turn out not to have
+ * a web server).
+ *
+ * @author Dave Syer
+ *
+ */
+public class ThreadBudget {
+
+	private static final ThreadBudget INSTANCE = new ThreadBudget(0);
+
+	private final Map<String, Integer> reservations = new LinkedHashMap<>();
+
+	private int max;
+
+	/**
+	 * @param max the maximum number of threads for all apps together (0 or less for no
+	 * limit)
+	 */
+	public ThreadBudget(int max) {
+		this.max = max;
+	}
+
+	/**
+	 * The shared instance used by default by all deployers in this JVM (with no limit
+	 * until one is set).
+	 *
+	 * @return the shared budget
+	 */
+	public static ThreadBudget getInstance() {
+		return INSTANCE;
+	}
+
+	public synchronized void setMax(int max) {
+		this.max = max;
+	}
+
+	public synchronized int getMax() {
+		return this.max;
+	}
+
+	/**
+	 * Reserve threads for an app, replacing any existing reservation for the same id.
+	 *
+	 * @param id the deployment id
+	 * @param requested the number of threads requested
+	 * @return the number of threads granted
+	 * @throws IllegalStateException if there is nothing left in the budget
+	 */
+	public synchronized int reserve(String id, int requested) {
+		this.reservations.remove(id);
+		int granted = requested;
+		if (this.max > 0) {
+			int available = this.max - getUsed();
+			if (available <= 0) {
+				throw new IllegalStateException("Thread budget of " + this.max
+						+ " is exhausted, cannot deploy " + id);
+			}
+			granted = Math.min(requested, available);
+		}
+		this.reservations.put(id, granted);
+		return granted;
+	}
+
+	/**
+	 * Release the threads reserved for an app.
+	 *
+	 * @param id the deployment id
+	 */
+	public synchronized void release(String id) {
+		this.reservations.remove(id);
+	}
+
+	/**
+	 * @param id the deployment id
+	 * @return the number of threads reserved for the app (0 if none)
+	 */
+	public synchronized int getReserved(String id) {
+		Integer reserved = this.reservations.get(id);
+		return reserved == null ? 0 : reserved;
+	}
+
+	/**
+	 * @return the number of threads reserved by all apps
+	 */
+	public synchronized int getUsed() {
+		int used = 0;
+		for (Integer reserved : this.reservations.values()) {
+			used += reserved;
+		}
+		return used;
+	}
+
+	/**
+	 * @return the threads reserved by each app, keyed by deployment id
+	 */
+	public synchronized Map<String, Integer> getReservations() {
+		return new LinkedHashMap<>(this.reservations);
+	}
+
+}
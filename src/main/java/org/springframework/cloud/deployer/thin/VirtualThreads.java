@@ -0,0 +1,114 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package org.springframework.cloud.deployer.thin;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.springframework.util.ReflectionUtils;
+
+/**
+ * Creates virtual threads when the JVM supports them, and platform threads otherwise
+ * (e.g. on Java 8). Everything is done by reflection so there is no dependency on a
+ * recent JDK.
+ *
+ * @author Dave Syer
+ *
+ */
+public final class VirtualThreads {
+
+	private static final Method OF_VIRTUAL = ReflectionUtils.findMethod(Thread.class,
+			"ofVirtual");
+
+	private static final Method NEW_EXECUTOR = ReflectionUtils
+			.findMethod(Executors.class, "newVirtualThreadPerTaskExecutor");
+
+	private static final Method NAME;
+
+	private static final Method UNSTARTED;
+
+	private static final boolean AVAILABLE;
+
+	static {
+		Method name = null;
+		Method unstarted = null;
+		if (OF_VIRTUAL != null) {
+			Class<?> builder = OF_VIRTUAL.getReturnType();
+			name = ReflectionUtils.findMethod(builder, "name", String.class);
+			unstarted = ReflectionUtils.findMethod(builder, "unstarted", Runnable.class);
+		}
+		NAME = name;
+		UNSTARTED = unstarted;
+		AVAILABLE = OF_VIRTUAL != null && NAME != null && UNSTARTED != null
+				&& NEW_EXECUTOR != null && probe();
+	}
+
+	private VirtualThreads() {
+	}
+
+	/**
+	 * @return true if the JVM supports virtual threads and they can be created (they
+	 * are a preview feature in Java 19 and 20)
+	 */
+	public static boolean isAvailable() {
+		return AVAILABLE;
+	}
+
+	/**
+	 * Create a thread (not started), virtual if possible. A virtual thread does not
+	 * belong to the thread group provided.
+	 *
+	 * @param group the thread group for a platform thread
+	 * @param name the thread name
+	 * @param runnable the work to do
+	 * @return a new thread
+	 */
+	public static Thread newThread(ThreadGroup group, String name, Runnable runnable) {
+		if (isAvailable()) {
+			Object builder = ReflectionUtils.invokeMethod(OF_VIRTUAL, null);
+			builder = ReflectionUtils.invokeMethod(NAME, builder, name);
+			return (Thread) ReflectionUtils.invokeMethod(UNSTARTED, builder, runnable);
+		}
+		return new Thread(group, runnable, name);
+	}
+
+	/**
+	 * @return an executor that runs every task in a new virtual thread, or null if
+	 * virtual threads are not available
+	 */
+	public static ExecutorService newExecutor() {
+		if (!isAvailable()) {
+			return null;
+		}
+		return (ExecutorService) ReflectionUtils.invokeMethod(NEW_EXECUTOR, null);
+	}
+
+	private static boolean probe() {
+		// On Java 19 and 20 the methods are there but they throw unless preview
+		// features are enabled
+		try {
+			Object builder = OF_VIRTUAL.invoke(null);
+			UNSTARTED.invoke(NAME.invoke(builder, "probe"), (Runnable) () -> {
+			});
+			return true;
+		}
+		catch (Throwable e) {
+			return false;
+		}
+	}
+
+}
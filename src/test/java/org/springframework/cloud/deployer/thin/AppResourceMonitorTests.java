@@ -0,0 +1,80 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class AppResourceMonitorTests {
+
+	private AppResourceMonitor monitor = new AppResourceMonitor(10L);
+
+	@Test
+	public void accountsForInheritedThreads() throws Exception {
+		AppResourceMonitor.Usage usage = monitor.register("app");
+		CountDownLatch latch = new CountDownLatch(1);
+		Thread thread = new Thread(usage.getThreadGroup(), () -> {
+			// A thread started by an app thread is in the same group
+			Thread child = new Thread(() -> await(latch));
+			child.start();
+			work();
+		});
+		thread.start();
+		thread.join();
+		Thread.sleep(100L);
+		assertThat(usage.getLiveThreads()).isEqualTo(1);
+		latch.countDown();
+		Thread.sleep(100L);
+		monitor.unregister(usage);
+		assertThat(usage.getLiveThreads()).isEqualTo(0);
+		assertThat(usage.getPeakThreads()).isGreaterThanOrEqualTo(1);
+		// Finished threads are still counted
+		assertThat(usage.getAllocated()).isGreaterThan(0L);
+		assertThat(usage.getMetrics()).containsKeys("cpu.time", "threads.live");
+	}
+
+	private void work() {
+		List<Object> list = new ArrayList<>();
+		for (int i = 0; i < 100000; i++) {
+			list.add(new byte[64]);
+		}
+		long end = System.currentTimeMillis() + 200L;
+		while (System.currentTimeMillis() < end) {
+			list.add(new Object());
+		}
+	}
+
+	private void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class ArchiveCacheTests {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void sameContentSharesOneCopy() throws Exception {
+		ArchiveCache cache = new ArchiveCache(temp.newFolder("cache"), 1024 * 1024);
+		File first = jar("first.jar", "BOOT-INF/classes/app.properties", "foo=bar");
+		File second = jar("second.jar", "BOOT-INF/classes/app.properties", "foo=bar");
+		String one = cache.acquire(first, "BOOT-INF/classes/");
+		String two = cache.acquire(second, "BOOT-INF/classes/");
+		assertThat(one).isEqualTo(two);
+		assertThat(new File(new File(cache.getUrl(one).toURI()), "app.properties"))
+				.exists();
+		assertThat(cache.getSize()).isEqualTo(7L);
+	}
+
+	@Test
+	public void noNestedClasses() throws Exception {
+		ArchiveCache cache = new ArchiveCache(temp.newFolder("cache"), 1024 * 1024);
+		File jar = jar("plain.jar", "app.properties", "foo=bar");
+		assertThat(cache.acquire(jar, "BOOT-INF/classes/")).isNull();
+	}
+
+	@Test
+	public void evictsUnusedEntries() throws Exception {
+		ArchiveCache cache = new ArchiveCache(temp.newFolder("cache"), 10);
+		String first = cache.acquire(
+				jar("first.jar", "BOOT-INF/classes/app.properties", "foo=bar"),
+				"BOOT-INF/classes/");
+		File root = new File(cache.getUrl(first).toURI());
+		String second = cache.acquire(
+				jar("second.jar", "BOOT-INF/classes/app.properties", "foo=spam"),
+				"BOOT-INF/classes/");
+		// Still in use so not evicted
+		assertThat(root).exists();
+		cache.release(first);
+		assertThat(root).doesNotExist();
+		assertThat(cache.getSize()).isEqualTo(8L);
+		cache.release(second);
+	}
+
+	@Test
+	public void entryOutsideRootRejected() throws Exception {
+		File directory = temp.newFolder("cache");
+		ArchiveCache cache = new ArchiveCache(directory, 1024 * 1024);
+		File jar = jar("evil.jar", "BOOT-INF/classes/../../../evil.properties",
+				"foo=bar");
+		try {
+			cache.acquire(jar, "BOOT-INF/classes/");
+			fail("Expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+			// expected
+		}
+		assertThat(new File(directory, "evil.properties")).doesNotExist();
+		assertThat(new File(directory.getParentFile(), "evil.properties"))
+				.doesNotExist();
+	}
+
+	@Test
+	public void leftoverEntriesCountedAndEvicted() throws Exception {
+		File directory = temp.newFolder("cache");
+		File jar = jar("first.jar", "BOOT-INF/classes/app.properties", "foo=bar");
+		ArchiveCache previous = new ArchiveCache(directory, 1024 * 1024);
+		String first = previous.acquire(jar, "BOOT-INF/classes/");
+		previous.release(first);
+		File leftover = new File(directory, first.substring(0, first.indexOf("/")));
+		assertThat(leftover).exists();
+		// A new cache (e.g. after a restart) sees the old entry
+		ArchiveCache cache = new ArchiveCache(directory, 10);
+		String second = cache.acquire(
+				jar("second.jar", "BOOT-INF/classes/app.properties", "foo=spam"),
+				"BOOT-INF/classes/");
+		assertThat(leftover).doesNotExist();
+		assertThat(cache.getSize()).isEqualTo(8L);
+		cache.release(second);
+	}
+
+	private File jar(String name, String entry, String content) throws Exception {
+		File file = temp.newFile(name);
+		try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(file))) {
+			JarEntry jarEntry = new JarEntry(entry);
+			// Fixed timestamp so that the same content gives the same digest
+			jarEntry.setTime(0L);
+			jar.putNextEntry(jarEntry);
+			jar.write(content.getBytes("UTF-8"));
+			jar.closeEntry();
+		}
+		return file;
+	}
+
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class ArtifactFetcherTests {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private File remote;
+
+	private File local;
+
+	private ArtifactFetcher fetcher;
+
+	@Before
+	public void init() throws Exception {
+		remote = temp.newFolder("remote");
+		local = temp.newFolder("local");
+		fetcher = new ArtifactFetcher(local,
+				Arrays.asList(remote.toURI().toURL().toString()), 4);
+	}
+
+	@Test
+	public void fetchesMissingArtifacts() throws Exception {
+		publish("com.example", "foo", "1.0", "foo", true);
+		publish("com.example", "bar", "1.0", "bar", true);
+		assertThat(fetcher.fetch(Arrays.asList("com.example:foo:1.0",
+				"com.example:bar:jar:1.0"))).isEqualTo(0);
+		assertThat(new File(local, "com/example/foo/1.0/foo-1.0.jar")).exists();
+		assertThat(new File(local, "com/example/bar/1.0/bar-1.0.jar")).exists();
+		assertThat(fetcher.getDownloaded()).isEqualTo(2);
+		// Already there
+		assertThat(fetcher.fetch(Arrays.asList("com.example:foo:1.0"))).isEqualTo(0);
+		assertThat(fetcher.getDownloaded()).isEqualTo(2);
+	}
+
+	@Test
+	public void rejectsBadChecksum() throws Exception {
+		publish("com.example", "foo", "1.0", "foo", false);
+		assertThat(fetcher.fetch(Arrays.asList("com.example:foo:1.0"))).isEqualTo(1);
+		assertThat(new File(local, "com/example/foo/1.0/foo-1.0.jar")).doesNotExist();
+	}
+
+	@Test
+	public void rejectsMissingChecksum() throws Exception {
+		publish("com.example", "foo", "1.0", "foo", true);
+		assertThat(new File(remote, "com/example/foo/1.0/foo-1.0.jar.sha1").delete())
+				.isTrue();
+		assertThat(fetcher.fetch(Arrays.asList("com.example:foo:1.0"))).isEqualTo(1);
+		assertThat(new File(local, "com/example/foo/1.0/foo-1.0.jar")).doesNotExist();
+	}
+
+	@Test
+	public void repositoriesFromSettings() throws Exception {
+		File settings = temp.newFile("settings.xml");
+		Files.write(settings.toPath(), ("<settings>" + "<localRepository>"
+				+ local.getAbsolutePath() + "</localRepository>"
+				+ "<mirrors><mirror><id>local</id><mirrorOf>central</mirrorOf><url>"
+				+ remote.toURI().toURL() + "</url></mirror></mirrors>" + "</settings>")
+						.getBytes("UTF-8"));
+		fetcher = ArtifactFetcher.fromSettings(settings, 2);
+		publish("com.example", "foo", "1.0", "foo", true);
+		assertThat(fetcher.fetch(Arrays.asList("com.example:foo:1.0"))).isEqualTo(0);
+		assertThat(new File(local, "com/example/foo/1.0/foo-1.0.jar")).exists();
+	}
+
+	@Test
+	public void missingArtifact() throws Exception {
+		assertThat(fetcher.fetch(Arrays.asList("com.example:foo:1.0"))).isEqualTo(1);
+	}
+
+	@Test
+	public void concurrentRequestsShareDownloads() throws Exception {
+		List<String> artifacts = new ArrayList<>();
+		for (int i = 0; i < 20; i++) {
+			publish("com.example", "foo" + i, "1.0", "foo" + i, true);
+			artifacts.add("com.example:foo" + i + ":1.0");
+		}
+		List<CompletableFuture<Integer>> futures = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			futures.add(CompletableFuture.supplyAsync(() -> fetcher.fetch(artifacts)));
+		}
+		for (CompletableFuture<Integer> future : futures) {
+			assertThat(future.get()).isEqualTo(0);
+		}
+		assertThat(fetcher.getDownloaded()).isEqualTo(20);
+	}
+
+	@Test
+	public void dependenciesFromJar() throws Exception {
+		assertThat(fetcher.dependencies(
+				new File("src/test/resources/app-with-db-in-lib-properties.jar")))
+						.contains("ch.qos.logback:logback-classic:jar:1.1.7")
+						.doesNotContain("com.example:app:jar:0.0.1-SNAPSHOT");
+		assertThat(fetcher.fetch(Collections.emptyList())).isEqualTo(0);
+	}
+
+	private void publish(String group, String artifact, String version, String content,
+			boolean valid) throws Exception {
+		File dir = new File(remote,
+				group.replace('.', '/') + "/" + artifact + "/" + version);
+		dir.mkdirs();
+		byte[] bytes = content.getBytes("UTF-8");
+		Files.write(new File(dir, artifact + "-" + version + ".jar").toPath(), bytes);
+		byte[] digest = MessageDigest.getInstance("SHA-1")
+				.digest(valid ? bytes : "other".getBytes("UTF-8"));
+		StringBuilder hex = new StringBuilder();
+		for (byte b : digest) {
+			hex.append(String.format("%02x", b));
+		}
+		Files.write(new File(dir, artifact + "-" + version + ".jar.sha1").toPath(),
+				hex.toString().getBytes("UTF-8"));
+	}
+
+}
@@ -0,0 +1,123 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.io.FileSystemResource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class AutoConfigurationPrunerTests {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private File jar = new File("src/test/resources/app-with-db-in-lib-properties.jar");
+
+	@Test
+	public void decisionDependsOnInputs() throws Exception {
+		AutoConfigurationPruner pruner = new AutoConfigurationPruner(
+				new ArchiveCache(temp.newFolder(), 1024));
+		File file = pruner.getFile(jar, "thin", new String[0],
+				Collections.singletonMap("foo", "bar"), Collections.emptyList());
+		assertThat(pruner.getFile(jar, "thin", new String[0],
+				Collections.singletonMap("foo", "bar"), Collections.emptyList()))
+						.isEqualTo(file);
+		assertThat(pruner.getFile(jar, "thin", new String[0],
+				Collections.singletonMap("foo", "spam"), Collections.emptyList()))
+						.isNotEqualTo(file);
+		assertThat(pruner.getFile(jar, "thin", new String[] { "test" },
+				Collections.singletonMap("foo", "bar"), Collections.emptyList()))
+						.isNotEqualTo(file);
+		assertThat(pruner.getFile(jar, "thin", new String[0],
+				Collections.singletonMap("foo", "bar"), Arrays.asList("--debug")))
+						.isNotEqualTo(file);
+	}
+
+	@Test
+	public void decisionIgnoresDeployerProperties() throws Exception {
+		AutoConfigurationPruner pruner = new AutoConfigurationPruner(
+				new ArchiveCache(temp.newFolder(), 1024));
+		Map<String, String> properties = new HashMap<>();
+		properties.put("foo", "bar");
+		File file = pruner.getFile(jar, "thin", new String[0], properties,
+				Collections.emptyList());
+		properties.put("server.port", "8081");
+		properties.put(AbstractThinJarSupport.MAX_THREADS_PROPERTY_KEY, "20");
+		assertThat(pruner.getFile(jar, "thin", new String[0], properties,
+				Collections.emptyList())).isEqualTo(file);
+	}
+
+	@Test
+	public void saveAndApply() throws Exception {
+		AutoConfigurationPruner pruner = new AutoConfigurationPruner(
+				new ArchiveCache(temp.newFolder(), 1024));
+		File file = pruner.getFile(jar, "thin", new String[0], Collections.emptyMap(),
+				Collections.emptyList());
+		assertThat(pruner.load(file)).isNull();
+		pruner.save(file, Arrays.asList("com.example.FooAutoConfiguration"), 1000L);
+		AutoConfigurationPruner.Decision decision = pruner.load(file);
+		assertThat(decision.getBaseline()).isEqualTo(1000L);
+		Map<String, String> properties = decision.apply(Collections.singletonMap(
+				AutoConfigurationPruner.EXCLUDE_PROPERTY, "com.example.Bar"));
+		assertThat(properties.get(AutoConfigurationPruner.EXCLUDE_PROPERTY))
+				.isEqualTo("com.example.Bar,com.example.FooAutoConfiguration");
+	}
+
+	@Test
+	public void secondDeploymentIsPruned() throws Exception {
+		ThinJarAppDeployer deployer = new ThinJarAppDeployer();
+		deployer.setArchiveCache(new ArchiveCache(temp.newFolder(), 512L * 1024 * 1024));
+		String id = deploy(deployer);
+		assertThat(deployer.getMetrics(id)).doesNotContainKey("autoconfig.excluded");
+		deployer.undeploy(id);
+		id = deploy(deployer);
+		Map<String, String> metrics = deployer.getMetrics(id);
+		assertThat(Integer.valueOf(metrics.get("autoconfig.excluded")))
+				.isGreaterThan(0);
+		deployer.undeploy(id);
+	}
+
+	private String deploy(ThinJarAppDeployer deployer) {
+		AppDefinition definition = new AppDefinition(jar.getName(),
+				Collections.emptyMap());
+		AppDeploymentRequest request = new AppDeploymentRequest(definition,
+				new FileSystemResource(jar),
+				Collections.singletonMap(
+						AbstractThinJarSupport.PRUNE_AUTOCONFIG_PROPERTY_KEY, "true"));
+		String id = deployer.deploy(request);
+		assertThat(deployer.status(id).getState()).isEqualTo(DeploymentState.deployed);
+		return id;
+	}
+
+}
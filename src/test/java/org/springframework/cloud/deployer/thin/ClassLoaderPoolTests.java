@@ -0,0 +1,134 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class ClassLoaderPoolTests {
+
+	private static final String RESOURCE = ClassLoaderPool.class.getName()
+			.replace('.', '/') + ".class";
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	private ArchiveCache cache;
+
+	private List<ClassLoaderPool> pools = new ArrayList<>();
+
+	@Before
+	public void init() throws Exception {
+		cache = new ArchiveCache(temp.newFolder("cache"), 1024 * 1024);
+	}
+
+	@After
+	public void close() {
+		for (ClassLoaderPool pool : pools) {
+			pool.clear();
+		}
+	}
+
+	@Test
+	public void takeWithSameKey() throws Exception {
+		ClassLoaderPool pool = pool(4, 60000L, 1.0);
+		ClassLoaderPool.Entry entry = entry();
+		assertThat(pool.offer("foo", entry)).isTrue();
+		assertThat(pool.size()).isEqualTo(1);
+		assertThat(pool.take("foo")).isSameAs(entry);
+		assertThat(pool.size()).isEqualTo(0);
+		assertThat(pool.take("foo")).isNull();
+		// Taken for exclusive use, so not closed
+		assertThat(entry.getClassLoader().getResource(RESOURCE)).isNotNull();
+	}
+
+	@Test
+	public void takeWithDifferentKey() throws Exception {
+		ClassLoaderPool pool = pool(4, 60000L, 1.0);
+		assertThat(pool.offer("foo", entry())).isTrue();
+		assertThat(pool.take("bar")).isNull();
+		assertThat(pool.size()).isEqualTo(1);
+	}
+
+	@Test
+	public void oldestEvictedWhenFull() throws Exception {
+		ClassLoaderPool pool = pool(1, 60000L, 1.0);
+		ClassLoaderPool.Entry first = entry();
+		assertThat(pool.offer("foo", first)).isTrue();
+		assertThat(pool.offer("bar", entry())).isTrue();
+		assertThat(pool.size()).isEqualTo(1);
+		assertThat(pool.take("foo")).isNull();
+		assertThat(first.getClassLoader().getResource(RESOURCE)).isNull();
+	}
+
+	@Test
+	public void sweeperEvictsIdleLoaders() throws Exception {
+		ClassLoaderPool pool = pool(4, 100L, 1.0);
+		ClassLoaderPool.Entry entry = entry();
+		assertThat(pool.offer("foo", entry)).isTrue();
+		// The sweeper runs every second at most
+		for (int i = 0; i < 50 && pool.size() > 0; i++) {
+			Thread.sleep(100L);
+		}
+		assertThat(pool.size()).isEqualTo(0);
+		assertThat(pool.take("foo")).isNull();
+		assertThat(entry.getClassLoader().getResource(RESOURCE)).isNull();
+	}
+
+	@Test
+	public void refusedAboveMemoryThreshold() throws Exception {
+		// Any usage at all is over the threshold
+		ClassLoaderPool pool = pool(4, 60000L, 0.0);
+		ClassLoaderPool.Entry entry = entry();
+		assertThat(pool.offer("foo", entry)).isFalse();
+		assertThat(pool.size()).isEqualTo(0);
+		// The caller still owns it
+		assertThat(entry.getClassLoader().getResource(RESOURCE)).isNotNull();
+		entry.getClassLoader().close();
+	}
+
+	private ClassLoaderPool pool(int maxSize, long maxIdleTime, double maxMemoryUsage) {
+		ClassLoaderPool pool = new ClassLoaderPool(maxSize, maxIdleTime, maxMemoryUsage);
+		pools.add(pool);
+		return pool;
+	}
+
+	private ClassLoaderPool.Entry entry() {
+		// A loader of its own for the deployer classes, so that cleaning up JDBC
+		// drivers when it closes does not touch the drivers of the test
+		URL classes = ClassLoaderPool.class.getProtectionDomain().getCodeSource()
+				.getLocation();
+		URLClassLoader loader = new URLClassLoader(new URL[] { classes },
+				ClassLoader.getSystemClassLoader().getParent());
+		return new ClassLoaderPool.Entry(loader, cache, new ArrayList<>());
+	}
+
+}
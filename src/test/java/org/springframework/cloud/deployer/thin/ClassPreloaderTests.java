@@ -0,0 +1,107 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.io.FileSystemResource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class ClassPreloaderTests {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void saveAndLoad() throws Exception {
+		ClassPreloader preloader = new ClassPreloader(2);
+		File dir = temp.newFolder();
+		assertThat(preloader.load(dir)).isEmpty();
+		preloader.save(dir, Arrays.asList("com.example.Foo", "com.example.Bar"));
+		assertThat(preloader.load(dir)).containsExactly("com.example.Foo",
+				"com.example.Bar");
+	}
+
+	@Test
+	public void recordAndPreload() throws Exception {
+		URL classes = getClass().getProtectionDomain().getCodeSource().getLocation();
+		List<String> names;
+		try (ThinJarClassLoader loader = new ThinJarClassLoader(new URL[] { classes },
+				getClass().getClassLoader().getParent())) {
+			loader.startRecording();
+			loader.loadClass(LogRingBuffer.class.getName());
+			names = loader.stopRecording();
+		}
+		assertThat(names).contains(LogRingBuffer.class.getName());
+		try (ThinJarClassLoader loader = new ThinJarClassLoader(new URL[] { classes },
+				getClass().getClassLoader().getParent())) {
+			ClassPreloader.Preload preload = new ClassPreloader(2).preload(loader,
+					names);
+			assertThat(preload.await(10, TimeUnit.SECONDS)).isTrue();
+			assertThat(preload.getLoaded()).isEqualTo(names.size());
+			assertThat(loader.getDefinedClassCount()).isEqualTo(names.size());
+		}
+	}
+
+	@Test
+	public void preloadedOnRedeploy() throws Exception {
+		ThinJarAppDeployer deployer = new ThinJarAppDeployer();
+		deployer.setArchiveCache(new ArchiveCache(temp.newFolder(), 512L * 1024 * 1024));
+		// First deployment records the classes
+		undeploy(deployer, deploy(deployer));
+		deployer.setClassPreloader(null);
+		String id = deploy(deployer);
+		assertThat(deployer.getMetrics(id)).doesNotContainKey("classes.preloaded");
+		undeploy(deployer, id);
+		deployer.setClassPreloader(ClassPreloader.withDefaults());
+		id = deploy(deployer);
+		assertThat(deployer.getMetrics(id)).containsKey("classes.preloaded");
+		undeploy(deployer, id);
+	}
+
+	private String deploy(ThinJarAppDeployer deployer) {
+		String jarName = "app-with-db-in-lib-properties.jar";
+		AppDefinition definition = new AppDefinition(jarName, Collections.emptyMap());
+		AppDeploymentRequest request = new AppDeploymentRequest(definition,
+				new FileSystemResource("src/test/resources/" + jarName));
+		String id = deployer.deploy(request);
+		assertThat(deployer.status(id).getState()).isEqualTo(DeploymentState.deployed);
+		return id;
+	}
+
+	private void undeploy(ThinJarAppDeployer deployer, String id) {
+		deployer.undeploy(id);
+	}
+
+}
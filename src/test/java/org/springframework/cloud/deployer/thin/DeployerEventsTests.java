@@ -0,0 +1,125 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Function;
+
+import org.apache.commons.logging.LogFactory;
+import org.junit.Assume;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.io.FileSystemResource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class DeployerEventsTests {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void recordsPhasesOfDeployment() throws Exception {
+		Assume.assumeTrue(DeployerEvents.isAvailable());
+		// JFR is only there on newer JVMs, so drive it reflectively
+		Class<?> type = Class.forName("jdk.jfr.Recording");
+		Object recording = type.newInstance();
+		type.getMethod("enable", String.class).invoke(recording,
+				DeployerEvents.EVENT_NAME);
+		type.getMethod("start").invoke(recording);
+		ThinJarAppDeployer deployer = new ThinJarAppDeployer();
+		String id;
+		try {
+			String jar = "app-with-cloud-in-lib-properties.jar";
+			AppDeploymentRequest request = new AppDeploymentRequest(
+					new AppDefinition(jar, Collections.emptyMap()),
+					new FileSystemResource("src/test/resources/" + jar));
+			id = deployer.deploy(request);
+			deployer.undeploy(id);
+		}
+		finally {
+			type.getMethod("stop").invoke(recording);
+		}
+		Path file = new File(temp.getRoot(), "deployer.jfr").toPath();
+		type.getMethod("dump", Path.class).invoke(recording, file);
+		type.getMethod("close").invoke(recording);
+		List<String> phases = new ArrayList<>();
+		Class<?> reader = Class.forName("jdk.jfr.consumer.RecordingFile");
+		for (Object event : (List<?>) reader.getMethod("readAllEvents", Path.class)
+				.invoke(null, file)) {
+			Method getString = event.getClass().getMethod("getString", String.class);
+			if (id.equals(getString.invoke(event, "deploymentId"))) {
+				phases.add((String) getString.invoke(event, "phase"));
+			}
+		}
+		assertThat(phases).contains("resolve", "class-loader", "main-class", "refresh",
+				"close", "leak-cleanup");
+	}
+
+	@Test
+	public void noopWithoutFlightRecorder() throws Exception {
+		// Load the class again where the JFR classes cannot be seen
+		URL classes = DeployerEvents.class.getProtectionDomain().getCodeSource()
+				.getLocation();
+		URL logging = LogFactory.class.getProtectionDomain().getCodeSource()
+				.getLocation();
+		ClassLoader parent = new ClassLoader(
+				ClassLoader.getSystemClassLoader().getParent()) {
+			@Override
+			protected Class<?> loadClass(String name, boolean resolve)
+					throws ClassNotFoundException {
+				if (name.startsWith("jdk.jfr.")) {
+					throw new ClassNotFoundException(name);
+				}
+				return super.loadClass(name, resolve);
+			}
+		};
+		try (URLClassLoader loader = new URLClassLoader(new URL[] { classes, logging },
+				parent)) {
+			Class<?> type = loader.loadClass(DeployerEvents.class.getName());
+			assertThat(type).isNotSameAs(DeployerEvents.class);
+			assertThat(type.getMethod("isAvailable").invoke(null)).isEqualTo(false);
+			Runnable end = (Runnable) type
+					.getMethod("begin", String.class, String.class, String.class)
+					.invoke(null, "refresh", "id", "resource");
+			end.run();
+			type.getMethod("classes", String.class, String.class, long.class)
+					.invoke(null, "id", "resource", 100L);
+			@SuppressWarnings("unchecked")
+			Function<String, Runnable> recorder = (Function<String, Runnable>) type
+					.getMethod("recorder", String.class, String.class)
+					.invoke(null, "id", "resource");
+			recorder.apply("close").run();
+		}
+	}
+
+}
@@ -0,0 +1,100 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.io.File;
+import java.net.URL;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.io.FileSystemResource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class DeploymentJournalTests {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void saveAndLoad() throws Exception {
+		DeploymentJournal journal = new DeploymentJournal(temp.newFolder());
+		journal.save(new DeploymentJournal.Entry("foo", new File("foo.jar"), "foo",
+				Collections.singletonMap("spring.application.name", "foo"),
+				Collections.singletonMap(ThinJarAppDeployer.LAZY_INIT_PROPERTY_KEY,
+						"true"),
+				Arrays.asList("--debug", "--foo=a,b"),
+				Arrays.asList(new URL("file:/tmp/bar.jar")), "com.example.Foo", "8081"));
+		List<DeploymentJournal.Entry> entries = journal.load();
+		assertThat(entries).hasSize(1);
+		DeploymentJournal.Entry entry = entries.get(0);
+		assertThat(entry.getId()).isEqualTo("foo");
+		assertThat(entry.getArgs()).containsExactly("--debug", "--foo=a,b");
+		assertThat(entry.getClasspath()).containsExactly(new URL("file:/tmp/bar.jar"));
+		assertThat(entry.getMainClass()).isEqualTo("com.example.Foo");
+		assertThat(entry.getDeploymentProperties())
+				.containsKey(ThinJarAppDeployer.LAZY_INIT_PROPERTY_KEY);
+		assertThat(entry.toRequest().getDefinition().getProperties())
+				.containsEntry("server.port", "8081")
+				.containsEntry("spring.application.name", "foo");
+		journal.remove("foo");
+		assertThat(journal.load()).isEmpty();
+	}
+
+	@Test
+	public void restore() throws Exception {
+		DeploymentJournal journal = new DeploymentJournal(temp.newFolder());
+		ThinJarAppDeployer deployer = new ThinJarAppDeployer();
+		deployer.setJournal(journal);
+		String deployed = deploy(deployer, "app-with-db-in-lib-properties.jar");
+		assertThat(deployer.status(deployed).getState())
+				.isEqualTo(DeploymentState.deployed);
+		assertThat(journal.load()).hasSize(1);
+		assertThat(journal.load().get(0).getClasspath()).isNotEmpty();
+		// Stop the app without taking it out of the journal (like a restart)
+		deployer.setJournal(null);
+		deployer.undeploy(deployed);
+		ThinJarAppDeployer restarted = new ThinJarAppDeployer();
+		restarted.setJournal(journal);
+		assertThat(restarted.restore()).containsExactly(deployed);
+		assertThat(restarted.status(deployed).getState())
+				.isEqualTo(DeploymentState.deployed);
+		assertThat(restarted.getRecoveryTime()).isGreaterThanOrEqualTo(0);
+		restarted.undeploy(deployed);
+		assertThat(journal.load()).isEmpty();
+	}
+
+	private String deploy(ThinJarAppDeployer deployer, String jarName) {
+		AppDefinition definition = new AppDefinition(jarName, Collections.emptyMap());
+		AppDeploymentRequest request = new AppDeploymentRequest(definition,
+				new FileSystemResource("src/test/resources/" + jarName));
+		return deployer.deploy(request);
+	}
+
+}
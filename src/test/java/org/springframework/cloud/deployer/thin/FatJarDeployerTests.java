@@ -0,0 +1,133 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.Set;
+import java.util.jar.Attributes;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.autoconfigure.EnableAutoConfiguration;
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.io.FileSystemResource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class FatJarDeployerTests {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void fatJar() throws Exception {
+		File jar = createFatJar();
+		ThinJarAppDeployer deployer = new ThinJarAppDeployer();
+		AppDefinition definition = new AppDefinition("fat",
+				Collections.singletonMap("spring.main.web-environment", "false"));
+		AppDeploymentRequest request = new AppDeploymentRequest(definition,
+				new FileSystemResource(jar));
+		String deployed = deployer.deploy(request);
+		assertThat(deployer.status(deployed).getState())
+				.isEqualTo(DeploymentState.deployed);
+		deployer.undeploy(deployed);
+	}
+
+	/**
+	 * A fat jar with a minimal app and just enough libraries (from the test classpath)
+	 * to run it.
+	 */
+	private File createFatJar() throws Exception {
+		Set<File> libs = new LinkedHashSet<>();
+		for (String type : new String[] { "org.springframework.boot.SpringApplication",
+				"org.springframework.boot.autoconfigure.EnableAutoConfiguration",
+				"org.springframework.context.ApplicationContext",
+				"org.springframework.beans.factory.BeanFactory",
+				"org.springframework.core.SpringVersion",
+				"org.springframework.aop.framework.AopProxy",
+				"org.springframework.expression.ExpressionParser",
+				"org.apache.commons.logging.LogFactory", "org.slf4j.LoggerFactory",
+				"ch.qos.logback.classic.Logger", "ch.qos.logback.core.Appender",
+				"org.yaml.snakeyaml.Yaml" }) {
+			libs.add(new File(Class.forName(type).getProtectionDomain().getCodeSource()
+					.getLocation().toURI()));
+		}
+		File file = temp.newFile("fat.jar");
+		Manifest manifest = new Manifest();
+		manifest.getMainAttributes().put(Attributes.Name.MANIFEST_VERSION, "1.0");
+		manifest.getMainAttributes().putValue("Start-Class",
+				TestApplication.class.getName());
+		try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(file),
+				manifest)) {
+			jar.putNextEntry(new JarEntry("BOOT-INF/classes/"));
+			jar.closeEntry();
+			String name = TestApplication.class.getName().replace('.', '/') + ".class";
+			jar.putNextEntry(new JarEntry("BOOT-INF/classes/" + name));
+			jar.write(Files.readAllBytes(new File(
+					TestApplication.class.getProtectionDomain().getCodeSource()
+							.getLocation().toURI()).toPath().resolve(name)));
+			jar.closeEntry();
+			for (File lib : libs) {
+				// Nested jars have to be stored (not compressed)
+				byte[] bytes = Files.readAllBytes(lib.toPath());
+				JarEntry entry = new JarEntry("BOOT-INF/lib/" + lib.getName());
+				entry.setMethod(ZipEntry.STORED);
+				entry.setSize(bytes.length);
+				CRC32 crc = new CRC32();
+				crc.update(bytes);
+				entry.setCrc(crc.getValue());
+				jar.putNextEntry(entry);
+				jar.write(bytes);
+				jar.closeEntry();
+			}
+		}
+		return file;
+	}
+
+	@Configuration
+	@EnableAutoConfiguration
+	public static class TestApplication {
+
+		public static void main(String[] args) {
+			ApplicationContext context = SpringApplication.run(TestApplication.class,
+					args);
+			assertThat(context).isNotNull();
+		}
+
+	}
+
+}
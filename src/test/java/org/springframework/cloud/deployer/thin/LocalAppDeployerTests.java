@@ -108,7 +108,7 @@ public class LocalAppDeployerTests {
 
 	public static void main(String[] args) {
 		// Use this main method for leak detection (heap and non-heap, including classes
-		// loaded should be variable but stable)
+		// loaded should be variable but stable), or SoakTests for a report
 		LocalAppDeployerTests deployer = new LocalAppDeployerTests();
 		while (true) {
 			String deployed = deployer.deploy("app-with-cloud-in-lib-properties.jar",
@@ -0,0 +1,167 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class LocalChannelRegistryTests {
+
+	private static final int COUNT = 100000;
+
+	private LocalChannelRegistry registry = new LocalChannelRegistry(1024, 10000L);
+
+	@Test
+	public void payloadPassedByReference() throws Exception {
+		List<Object> received = new ArrayList<>();
+		CountDownLatch latch = new CountDownLatch(1);
+		Runnable unsubscribe = registry.subscribe("output", payload -> {
+			received.add(payload);
+			latch.countDown();
+		});
+		byte[] payload = "Hello".getBytes();
+		assertThat(registry.send("output", payload)).isTrue();
+		assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(received.get(0)).isSameAs(payload);
+		unsubscribe.run();
+	}
+
+	@Test
+	public void everySubscriberGetsMessages() throws Exception {
+		CountDownLatch latch = new CountDownLatch(2);
+		registry.subscribe("output", payload -> latch.countDown());
+		registry.subscribe("output", payload -> latch.countDown());
+		registry.send("output", "Hello");
+		assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+	}
+
+	@Test
+	public void subscriptionsCancelledTogether() throws Exception {
+		LocalChannelRegistry.Subscriptions subscriptions = registry.subscriptions();
+		CountDownLatch latch = new CountDownLatch(1);
+		subscriptions.apply("output", payload -> latch.countDown());
+		subscriptions.apply("other", payload -> {
+		});
+		assertThat(subscriptions.size()).isEqualTo(2);
+		registry.send("output", "Hello");
+		assertThat(latch.await(5, TimeUnit.SECONDS)).isTrue();
+		subscriptions.cancel();
+		assertThat(subscriptions.size()).isEqualTo(0);
+		registry.send("output", "Hello");
+		assertThat(registry.getBacklog("output")).isEqualTo(0);
+	}
+
+	@Test
+	public void noSubscribers() throws Exception {
+		assertThat(registry.send("input", "Hello")).isTrue();
+		assertThat(registry.getBacklog("input")).isEqualTo(0);
+	}
+
+	@Test
+	public void benchmarkAgainstLocalBroker() throws Exception {
+		byte[] payload = new byte[128];
+		// In-memory channel
+		long[] latency = new long[1];
+		CountDownLatch latch = new CountDownLatch(COUNT);
+		Runnable unsubscribe = registry.subscribe("bench", message -> {
+			latency[0] += System.nanoTime() - (Long) ((Object[]) message)[0];
+			latch.countDown();
+		});
+		long start = System.nanoTime();
+		for (int i = 0; i < COUNT; i++) {
+			registry.send("bench", new Object[] { System.nanoTime(), payload });
+		}
+		assertThat(latch.await(30, TimeUnit.SECONDS)).isTrue();
+		long local = System.nanoTime() - start;
+		unsubscribe.run();
+		// Broker stand-in: every message goes through a socket to a relay and back
+		long[] brokerLatency = new long[1];
+		long broker = relay(payload, brokerLatency);
+		assertThat(local).isLessThan(broker);
+		assertThat(latency[0]).isLessThan(brokerLatency[0]);
+	}
+
+	private long relay(byte[] payload, long[] latency) throws Exception {
+		try (ServerSocket server = new ServerSocket(0, 1,
+				InetAddress.getLoopbackAddress())) {
+			Thread relay = new Thread(() -> {
+				try (Socket socket = server.accept()) {
+					DataInputStream input = new DataInputStream(socket.getInputStream());
+					DataOutputStream output = new DataOutputStream(
+							socket.getOutputStream());
+					byte[] buffer = new byte[payload.length];
+					for (int i = 0; i < COUNT; i++) {
+						long time = input.readLong();
+						input.readFully(buffer);
+						output.writeLong(time);
+						output.write(buffer);
+					}
+					output.flush();
+				}
+				catch (IOException e) {
+					throw new IllegalStateException(e);
+				}
+			});
+			relay.start();
+			try (Socket socket = new Socket(server.getInetAddress(),
+					server.getLocalPort())) {
+				DataOutputStream output = new DataOutputStream(socket.getOutputStream());
+				DataInputStream input = new DataInputStream(socket.getInputStream());
+				Thread consumer = new Thread(() -> {
+					byte[] buffer = new byte[payload.length];
+					try {
+						for (int i = 0; i < COUNT; i++) {
+							latency[0] += System.nanoTime() - input.readLong();
+							input.readFully(buffer);
+						}
+					}
+					catch (IOException e) {
+						throw new IllegalStateException(e);
+					}
+				});
+				consumer.start();
+				long start = System.nanoTime();
+				for (int i = 0; i < COUNT; i++) {
+					output.writeLong(System.nanoTime());
+					output.write(payload);
+					output.flush();
+				}
+				consumer.join(30000L);
+				long elapsed = System.nanoTime() - start;
+				relay.join(30000L);
+				return elapsed;
+			}
+		}
+	}
+
+}
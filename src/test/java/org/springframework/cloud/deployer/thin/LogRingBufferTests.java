@@ -0,0 +1,110 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import org.springframework.cloud.deployer.thin.LogRingBuffer.Overflow;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class LogRingBufferTests {
+
+	@Test
+	public void dropsWhenFull() throws Exception {
+		LogRingBuffer buffer = new LogRingBuffer("app", 4, Overflow.DROP);
+		for (int i = 0; i < 6; i++) {
+			buffer.accept("line" + i);
+		}
+		List<String> lines = new ArrayList<>();
+		assertThat(buffer.drain(lines::add, 10)).isEqualTo(4);
+		assertThat(lines).containsExactly("line0", "line1", "line2", "line3");
+		assertThat(buffer.getEvents()).isEqualTo(6L);
+		assertThat(buffer.getDropped()).isEqualTo(2L);
+	}
+
+	@Test
+	public void concurrentProducersBlockWhenFull() throws Exception {
+		LogRingBuffer buffer = new LogRingBuffer("app", 16, Overflow.BLOCK);
+		List<Thread> threads = new ArrayList<>();
+		for (int i = 0; i < 4; i++) {
+			Thread thread = new Thread(() -> {
+				for (int j = 0; j < 1000; j++) {
+					buffer.accept("line");
+				}
+			});
+			threads.add(thread);
+			thread.start();
+		}
+		int count = 0;
+		long timeout = System.currentTimeMillis() + 10000L;
+		while (count < 4000 && System.currentTimeMillis() < timeout) {
+			count += buffer.drain(line -> {
+			}, 100);
+		}
+		for (Thread thread : threads) {
+			thread.join();
+		}
+		assertThat(count).isEqualTo(4000);
+		assertThat(buffer.getDropped()).isEqualTo(0L);
+	}
+
+	@Test
+	public void pipelineTagsLines() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		AppLogPipeline pipeline = new AppLogPipeline(new PrintStream(bytes, true));
+		LogRingBuffer buffer = pipeline.register("app", 16, Overflow.DROP);
+		buffer.accept("Hello\n");
+		pipeline.unregister(buffer);
+		long timeout = System.currentTimeMillis() + 10000L;
+		while (!bytes.toString().contains("Hello")
+				&& System.currentTimeMillis() < timeout) {
+			Thread.sleep(10L);
+		}
+		assertThat(bytes.toString()).isEqualTo("[app] Hello\n");
+	}
+
+	@Test
+	public void pipelineWakesUpForLines() throws Exception {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		AppLogPipeline pipeline = new AppLogPipeline(new PrintStream(bytes, true));
+		LogRingBuffer buffer = pipeline.register("app", 16, Overflow.DROP);
+		for (int i = 0; i < 3; i++) {
+			// Let the writer go idle before every line
+			Thread.sleep(100L);
+			buffer.accept("Hello" + i + "\n");
+			long timeout = System.currentTimeMillis() + 10000L;
+			while (!bytes.toString().contains("Hello" + i)
+					&& System.currentTimeMillis() < timeout) {
+				Thread.sleep(10L);
+			}
+		}
+		pipeline.unregister(buffer);
+		assertThat(bytes.toString())
+				.isEqualTo("[app] Hello0\n[app] Hello1\n[app] Hello2\n");
+	}
+
+}
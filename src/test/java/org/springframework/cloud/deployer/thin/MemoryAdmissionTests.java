@@ -0,0 +1,92 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.cloud.deployer.thin.MemoryAdmission.Policy;
+import org.springframework.core.io.FileSystemResource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class MemoryAdmissionTests {
+
+	@Test
+	public void admitAndMeasure() throws Exception {
+		MemoryAdmission admission = new MemoryAdmission(0, 0);
+		MemoryAdmission.Ticket ticket = admission.admit("foo", "digest", Policy.REJECT);
+		byte[][] garbage = new byte[16][1024];
+		ticket.started();
+		assertThat(garbage).isNotEmpty();
+		assertThat(admission.getFootprint("digest")).isNotNull();
+		assertThat(admission.getFootprint("other")).isNull();
+	}
+
+	@Test
+	public void reject() throws Exception {
+		// All of the heap is headroom, so nothing fits
+		MemoryAdmission admission = new MemoryAdmission(1, 0);
+		try {
+			admission.admit("foo", "digest", Policy.REJECT);
+			fail("Expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage()).contains("Not enough memory to deploy foo");
+		}
+	}
+
+	@Test
+	public void queueTimesOut() throws Exception {
+		MemoryAdmission admission = new MemoryAdmission(1, 200);
+		long start = System.currentTimeMillis();
+		try {
+			admission.admit("foo", "digest", Policy.QUEUE);
+			fail("Expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage()).contains("heap");
+		}
+		assertThat(System.currentTimeMillis() - start).isGreaterThanOrEqualTo(200);
+	}
+
+	@Test
+	public void deploymentFails() throws Exception {
+		ThinJarAppDeployer deployer = new ThinJarAppDeployer();
+		deployer.setMemoryAdmission(new MemoryAdmission(1, 0));
+		String jarName = "app-with-db-in-lib-properties.jar";
+		AppDefinition definition = new AppDefinition(jarName, Collections.emptyMap());
+		AppDeploymentRequest request = new AppDeploymentRequest(definition,
+				new FileSystemResource("src/test/resources/" + jarName),
+				Collections.singletonMap(ThinJarAppDeployer.MEMORY_POLICY_PROPERTY_KEY,
+						"reject"));
+		String deployed = deployer.deploy(request);
+		assertThat(deployer.status(deployed).getState())
+				.isEqualTo(DeploymentState.failed);
+		deployer.undeploy(deployed);
+	}
+
+}
@@ -0,0 +1,101 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Files;
+import java.util.Collections;
+import java.util.jar.JarEntry;
+import java.util.jar.JarOutputStream;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class MetaInfIndexTests {
+
+	@Rule
+	public TemporaryFolder temp = new TemporaryFolder();
+
+	@Test
+	public void sameResourcesAsUrlClassLoader() throws Exception {
+		File dir = temp.newFolder("classes");
+		new File(dir, "META-INF/services").mkdirs();
+		Files.write(new File(dir, "META-INF/spring.factories").toPath(),
+				"foo=bar".getBytes());
+		Files.write(new File(dir, "META-INF/services/com.example.Foo").toPath(),
+				"com.example.FooImpl".getBytes());
+		File jar = jar("lib.jar", "META-INF/spring.factories", "bar=spam");
+		URL[] urls = new URL[] { dir.toURI().toURL(), jar.toURI().toURL() };
+		MetaInfIndex index = MetaInfIndex.forClasspath(urls);
+		try (URLClassLoader loader = new URLClassLoader(urls, null)) {
+			for (String name : new String[] { "META-INF/spring.factories",
+					"META-INF/services/com.example.Foo",
+					"META-INF/spring.handlers" }) {
+				assertThat(MetaInfIndex.isIndexed(name)).isTrue();
+				assertThat(Collections.list(index.getResources(name)))
+						.isEqualTo(Collections.list(loader.findResources(name)));
+			}
+		}
+		assertThat(MetaInfIndex.forClasspath(urls)).isSameAs(index);
+	}
+
+	@Test
+	public void directoryChangesScannedAgain() throws Exception {
+		File dir = temp.newFolder("classes");
+		new File(dir, "META-INF/services").mkdirs();
+		URL[] urls = new URL[] { dir.toURI().toURL() };
+		String name = "META-INF/services/com.example.Foo";
+		MetaInfIndex index = MetaInfIndex.forClasspath(urls);
+		assertThat(Collections.list(index.getResources(name))).isEmpty();
+		Files.write(new File(dir, name).toPath(), "com.example.FooImpl".getBytes());
+		index = MetaInfIndex.forClasspath(urls);
+		assertThat(Collections.list(index.getResources(name))).hasSize(1);
+	}
+
+	@Test
+	public void classLoaderUsesIndex() throws Exception {
+		File jar = jar("lib.jar", "META-INF/spring.factories", "bar=spam");
+		try (ThinJarClassLoader loader = new ThinJarClassLoader(
+				new URL[] { jar.toURI().toURL() }, null)) {
+			assertThat(Collections.list(loader.getResources("META-INF/spring.factories")))
+					.hasSize(1);
+			assertThat(MetaInfIndex.isIndexed("META-INF/foo.properties")).isFalse();
+			assertThat(loader.getResource("META-INF/spring.factories")).isNotNull();
+		}
+	}
+
+	private File jar(String name, String entry, String content) throws Exception {
+		File file = temp.newFile(name);
+		try (JarOutputStream jar = new JarOutputStream(new FileOutputStream(file))) {
+			jar.putNextEntry(new JarEntry(entry));
+			jar.write(content.getBytes("UTF-8"));
+			jar.closeEntry();
+		}
+		return file;
+	}
+
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.io.FileSystemResource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class ShardedAppDeployerTests {
+
+	private ShardedAppDeployer deployer = new ShardedAppDeployer(2);
+
+	@After
+	public void close() {
+		deployer.destroy();
+	}
+
+	@Test
+	public void placeAndMigrate() throws Exception {
+		String first = deploy("app-with-db-in-lib-properties.jar");
+		String second = deploy("app-with-cloud-in-lib-properties.jar");
+		assertThat(deployer.status(first).getState())
+				.isEqualTo(DeploymentState.deployed);
+		assertThat(deployer.status(second).getState())
+				.isEqualTo(DeploymentState.deployed);
+		// Two workers and two apps: one each
+		assertThat(deployer.getWorker(first)).isNotEqualTo(deployer.getWorker(second));
+		first = deployer.migrate(first);
+		assertThat(deployer.getWorker(first)).isEqualTo(2);
+		assertThat(deployer.status(first).getState())
+				.isEqualTo(DeploymentState.deployed);
+		// Moving it again leaves the first dedicated worker empty, so it stops
+		first = deployer.migrate(first);
+		assertThat(deployer.getWorker(first)).isEqualTo(3);
+		assertThat(deployer.status(first).getState())
+				.isEqualTo(DeploymentState.deployed);
+		deployer.undeploy(first);
+		deployer.undeploy(second);
+		assertThat(deployer.status(first).getState())
+				.isEqualTo(DeploymentState.unknown);
+	}
+
+	@Test
+	public void replaceDeadWorker() throws Exception {
+		String first = deploy("app-with-db-in-lib-properties.jar");
+		String second = deploy("app-with-cloud-in-lib-properties.jar");
+		int worker = deployer.getWorker(first);
+		Process process = deployer.getProcess(first);
+		process.destroyForcibly();
+		process.waitFor(30, TimeUnit.SECONDS);
+		assertThat(deployer.recover()).containsExactly(first);
+		assertThat(deployer.getWorker(first)).isNotEqualTo(worker);
+		assertThat(deployer.status(first).getState())
+				.isEqualTo(DeploymentState.deployed);
+		assertThat(deployer.status(second).getState())
+				.isEqualTo(DeploymentState.deployed);
+		deployer.undeploy(first);
+		deployer.undeploy(second);
+	}
+
+	private String deploy(String jarName) {
+		AppDefinition definition = new AppDefinition(jarName, Collections.emptyMap());
+		AppDeploymentRequest request = new AppDeploymentRequest(definition,
+				new FileSystemResource("src/test/resources/" + jarName));
+		return deployer.deploy(request);
+	}
+
+}
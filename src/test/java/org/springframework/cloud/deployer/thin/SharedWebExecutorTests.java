@@ -0,0 +1,130 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.junit.Test;
+
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.util.SocketUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class SharedWebExecutorTests {
+
+	@Test
+	public void threadsNotTiedToCaller() throws Exception {
+		SharedWebExecutor executor = new SharedWebExecutor(2, 1000L);
+		ThreadGroup group = new ThreadGroup("app");
+		AtomicReference<Thread> worker = new AtomicReference<>();
+		try (URLClassLoader loader = new URLClassLoader(new URL[0])) {
+			// Grow the pool from a thread that looks like it belongs to an app
+			Thread caller = new Thread(group, () -> {
+				Thread.currentThread().setContextClassLoader(loader);
+				CountDownLatch latch = new CountDownLatch(1);
+				executor.getExecutor().execute(() -> {
+					worker.set(Thread.currentThread());
+					latch.countDown();
+				});
+				await(latch);
+			});
+			caller.start();
+			caller.join(10000L);
+		}
+		assertThat(worker.get().getThreadGroup())
+				.isSameAs(executor.getThreadGroup());
+		assertThat(worker.get().getContextClassLoader())
+				.isSameAs(SharedWebExecutor.class.getClassLoader());
+	}
+
+	@Test
+	public void rejectsWhenQueueIsFull() throws Exception {
+		SharedWebExecutor executor = new SharedWebExecutor(1, 1000L, 1);
+		CountDownLatch busy = new CountDownLatch(1);
+		executor.getExecutor().execute(() -> await(busy));
+		executor.getExecutor().execute(() -> {
+		});
+		try {
+			executor.getExecutor().execute(() -> {
+			});
+			fail("Expected RejectedExecutionException");
+		}
+		catch (RejectedExecutionException e) {
+			// expected
+		}
+		finally {
+			busy.countDown();
+		}
+		assertThat(executor.getQueued()).isLessThanOrEqualTo(1);
+	}
+
+	@Test
+	public void appProcessesRequestsInSharedPool() throws Exception {
+		SharedWebExecutor executor = new SharedWebExecutor(4, 1000L);
+		ThinJarAppDeployer deployer = new ThinJarAppDeployer();
+		deployer.setSharedWebExecutor(executor);
+		int port = SocketUtils.findAvailableTcpPort();
+		String jarName = "app-with-db-in-lib-properties.jar";
+		Map<String, String> properties = new HashMap<>();
+		properties.put(ThinJarAppDeployer.SHARED_WEB_EXECUTOR_PROPERTY_KEY, "true");
+		AppDeploymentRequest request = new AppDeploymentRequest(
+				new AppDefinition(jarName,
+						Collections.singletonMap("server.port", String.valueOf(port))),
+				new FileSystemResource("src/test/resources/" + jarName), properties);
+		String deployed = deployer.deploy(request);
+		try {
+			assertThat(deployer.status(deployed).getState())
+					.isEqualTo(DeploymentState.deployed);
+			HttpURLConnection connection = (HttpURLConnection) new URL(
+					"http://localhost:" + port + "/health").openConnection();
+			assertThat(connection.getResponseCode()).isEqualTo(200);
+			connection.disconnect();
+			assertThat(executor.getPoolSize()).isGreaterThan(0);
+		}
+		finally {
+			deployer.undeploy(deployed);
+		}
+	}
+
+	private void await(CountDownLatch latch) {
+		try {
+			latch.await(10, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
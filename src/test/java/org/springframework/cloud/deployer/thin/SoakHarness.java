@@ -0,0 +1,421 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.cloud.deployer.spi.app.AppDeployer;
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.io.FileSystemResource;
+
+/**
+ * Deploys and undeploys apps over and over again, sampling the heap, metaspace, loaded
+ * classes and threads of the JVM, and the latency of each cycle. When it finishes it
+ * writes a report and lists any thresholds that were exceeded. Growth is measured
+ * between the end of a warm up period and the end of the run (after a GC each time), so
+ * a leak shows up as growth that is proportional to the number of cycles.
+ * <p>
+ * All the settings can be provided as system properties (prefixed with "soak.") so the
+ * same harness can be used from a test with a few iterations or from the command line
+ * for hours, e.g.
+ *
+ * <pre>
+ * -Dsoak.duration=3600000 -Dsoak.mix=cycle:2,redeploy:1,pair:1 -Dsoak.max-metaspace-growth=8
+ * </pre>
+ *
+ * @author Dave Syer
+ *
+ */
+public class SoakHarness {
+
+	/**
+	 * The kinds of cycle that can be mixed in a run.
+	 */
+	public enum Operation {
+
+		/**
+		 * Deploy an app and undeploy it.
+		 */
+		CYCLE,
+
+		/**
+		 * Deploy an app and undeploy it twice in a row (the same jar and name).
+		 */
+		REDEPLOY,
+
+		/**
+		 * Deploy two apps side by side and undeploy them both.
+		 */
+		PAIR;
+
+	}
+
+	private final AppDeployer deployer;
+
+	private List<String> jars = Arrays.asList("app-with-db-in-lib-properties.jar",
+			"app-with-cloud-in-lib-properties.jar");
+
+	private List<Operation> mix = Arrays.asList(Operation.CYCLE);
+
+	private int iterations = 10;
+
+	private long duration = 0;
+
+	private int warmup = 2;
+
+	private double maxHeapGrowth = 64;
+
+	private double maxMetaspaceGrowth = 16;
+
+	private int maxClassGrowth = 2000;
+
+	private int maxThreadGrowth = 10;
+
+	private long maxP99 = 30000;
+
+	private File report = new File("target/soak-report.txt");
+
+	private final List<Long> latencies = new ArrayList<>();
+
+	private final List<Sample> samples = new ArrayList<>();
+
+	private final List<String> violations = new ArrayList<>();
+
+	private int failures;
+
+	public SoakHarness(AppDeployer deployer) {
+		this.deployer = deployer;
+		configure();
+	}
+
+	/**
+	 * @param iterations the number of cycles to run (if there is no duration)
+	 */
+	public void setIterations(int iterations) {
+		this.iterations = iterations;
+	}
+
+	/**
+	 * @param duration how long (millis) to keep running cycles (overrides the number of
+	 * iterations if positive)
+	 */
+	public void setDuration(long duration) {
+		this.duration = duration;
+	}
+
+	/**
+	 * @param warmup the number of cycles to run before taking the baseline sample
+	 */
+	public void setWarmup(int warmup) {
+		this.warmup = warmup;
+	}
+
+	/**
+	 * @param mix the operations to run in turn (repeat an operation to make it more
+	 * frequent)
+	 */
+	public void setMix(Operation... mix) {
+		this.mix = Arrays.asList(mix);
+	}
+
+	public void setJars(String... jars) {
+		this.jars = Arrays.asList(jars);
+	}
+
+	public void setMaxHeapGrowth(double maxHeapGrowth) {
+		this.maxHeapGrowth = maxHeapGrowth;
+	}
+
+	public void setMaxMetaspaceGrowth(double maxMetaspaceGrowth) {
+		this.maxMetaspaceGrowth = maxMetaspaceGrowth;
+	}
+
+	public void setMaxClassGrowth(int maxClassGrowth) {
+		this.maxClassGrowth = maxClassGrowth;
+	}
+
+	public void setMaxThreadGrowth(int maxThreadGrowth) {
+		this.maxThreadGrowth = maxThreadGrowth;
+	}
+
+	public void setMaxP99(long maxP99) {
+		this.maxP99 = maxP99;
+	}
+
+	public void setReport(File report) {
+		this.report = report;
+	}
+
+	/**
+	 * Run the cycles, write the report and check the thresholds.
+	 *
+	 * @return the thresholds that were exceeded (empty if the run passed)
+	 */
+	public List<String> run() throws IOException {
+		this.latencies.clear();
+		this.samples.clear();
+		this.violations.clear();
+		this.failures = 0;
+		long end = this.duration > 0 ? System.currentTimeMillis() + this.duration
+				: Long.MAX_VALUE;
+		int total = this.duration > 0 ? Integer.MAX_VALUE
+				: this.iterations + this.warmup;
+		for (int i = 0; i < total && System.currentTimeMillis() < end; i++) {
+			if (i == this.warmup) {
+				this.samples.add(Sample.take(i));
+				this.latencies.clear();
+			}
+			long start = System.nanoTime();
+			if (!cycle(this.mix.get(i % this.mix.size()),
+					this.jars.get(i % this.jars.size()))) {
+				this.failures++;
+			}
+			this.latencies.add(TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+			if (i > this.warmup && (i - this.warmup) % 10 == 0) {
+				this.samples.add(Sample.take(i));
+			}
+		}
+		this.samples.add(Sample.take(this.warmup + this.latencies.size()));
+		check();
+		write();
+		return this.violations;
+	}
+
+	private boolean cycle(Operation operation, String jar) {
+		switch (operation) {
+		case REDEPLOY:
+			return deployAndUndeploy(jar) && deployAndUndeploy(jar);
+		case PAIR:
+			String first = deploy(jar);
+			String second = deploy(other(jar));
+			boolean ok = isDeployed(first) && isDeployed(second);
+			undeploy(first);
+			undeploy(second);
+			return ok;
+		default:
+			return deployAndUndeploy(jar);
+		}
+	}
+
+	private boolean deployAndUndeploy(String jar) {
+		String id = deploy(jar);
+		boolean ok = isDeployed(id);
+		undeploy(id);
+		return ok;
+	}
+
+	private String other(String jar) {
+		return this.jars.get((this.jars.indexOf(jar) + 1) % this.jars.size());
+	}
+
+	private String deploy(String jar) {
+		AppDefinition definition = new AppDefinition(jar,
+				Collections.singletonMap("server.port", "0"));
+		return this.deployer.deploy(new AppDeploymentRequest(definition,
+				new FileSystemResource("src/test/resources/" + jar)));
+	}
+
+	private boolean isDeployed(String id) {
+		DeploymentState state = this.deployer.status(id).getState();
+		// Some deployers are not blocking
+		for (int i = 0; i < 600 && state == DeploymentState.deploying; i++) {
+			sleep(100L);
+			state = this.deployer.status(id).getState();
+		}
+		return state == DeploymentState.deployed;
+	}
+
+	private void undeploy(String id) {
+		this.deployer.undeploy(id);
+	}
+
+	private void check() {
+		if (this.failures > 0) {
+			this.violations.add(this.failures + " cycles failed");
+		}
+		if (this.samples.size() < 2) {
+			return;
+		}
+		Sample first = this.samples.get(0);
+		Sample last = this.samples.get(this.samples.size() - 1);
+		exceeds("heap growth (MB)", mb(last.heap - first.heap), this.maxHeapGrowth);
+		exceeds("metaspace growth (MB)", mb(last.metaspace - first.metaspace),
+				this.maxMetaspaceGrowth);
+		exceeds("loaded class growth", last.classes - first.classes,
+				this.maxClassGrowth);
+		exceeds("thread growth", last.threads - first.threads, this.maxThreadGrowth);
+		exceeds("p99 cycle latency (ms)", percentile(99), this.maxP99);
+	}
+
+	private void exceeds(String name, double value, double max) {
+		if (value > max) {
+			this.violations.add(String.format("%s %.1f exceeds %.1f", name, value, max));
+		}
+	}
+
+	private long percentile(int percentile) {
+		if (this.latencies.isEmpty()) {
+			return 0;
+		}
+		List<Long> sorted = new ArrayList<>(this.latencies);
+		Collections.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.size()) - 1;
+		return sorted.get(Math.max(0, index));
+	}
+
+	private void write() throws IOException {
+		StringWriter text = new StringWriter();
+		PrintWriter writer = new PrintWriter(text);
+		writer.println("Soak test of " + this.deployer.getClass().getSimpleName());
+		writer.println("mix=" + this.mix + " jars=" + this.jars);
+		writer.println("cycles=" + this.latencies.size() + " warmup=" + this.warmup
+				+ " failures=" + this.failures);
+		writer.println(String.format(
+				"latency (ms): p50=%d p90=%d p99=%d max=%d", percentile(50),
+				percentile(90), percentile(99), percentile(100)));
+		writer.println();
+		writer.println(String.format("%8s %10s %10s %8s %8s", "cycle", "heap(MB)",
+				"meta(MB)", "classes", "threads"));
+		for (Sample sample : this.samples) {
+			writer.println(String.format("%8d %10.1f %10.1f %8d %8d", sample.cycle,
+					mb(sample.heap), mb(sample.metaspace), sample.classes,
+					sample.threads));
+		}
+		writer.println();
+		if (this.violations.isEmpty()) {
+			writer.println("PASSED");
+		}
+		else {
+			writer.println("FAILED");
+			for (String violation : this.violations) {
+				writer.println("  " + violation);
+			}
+		}
+		writer.flush();
+		if (this.report.getParentFile() != null) {
+			this.report.getParentFile().mkdirs();
+		}
+		Files.write(this.report.toPath(),
+				text.toString().getBytes(StandardCharsets.UTF_8));
+		System.err.println(text);
+	}
+
+	private void configure() {
+		this.iterations = Integer.getInteger("soak.iterations", this.iterations);
+		this.duration = Long.getLong("soak.duration", this.duration);
+		this.warmup = Integer.getInteger("soak.warmup", this.warmup);
+		String mix = System.getProperty("soak.mix");
+		if (mix != null) {
+			List<Operation> operations = new ArrayList<>();
+			for (String item : mix.split(",")) {
+				String[] parts = item.trim().split(":");
+				int weight = parts.length > 1 ? Integer.parseInt(parts[1]) : 1;
+				for (int i = 0; i < weight; i++) {
+					operations.add(Operation.valueOf(parts[0].trim().toUpperCase()));
+				}
+			}
+			this.mix = operations;
+		}
+		String jars = System.getProperty("soak.jars");
+		if (jars != null) {
+			this.jars = Arrays.asList(jars.split(","));
+		}
+		this.maxHeapGrowth = Double.parseDouble(System.getProperty(
+				"soak.max-heap-growth", String.valueOf(this.maxHeapGrowth)));
+		this.maxMetaspaceGrowth = Double.parseDouble(System.getProperty(
+				"soak.max-metaspace-growth", String.valueOf(this.maxMetaspaceGrowth)));
+		this.maxClassGrowth = Integer.getInteger("soak.max-class-growth",
+				this.maxClassGrowth);
+		this.maxThreadGrowth = Integer.getInteger("soak.max-thread-growth",
+				this.maxThreadGrowth);
+		this.maxP99 = Long.getLong("soak.max-p99", this.maxP99);
+		String report = System.getProperty("soak.report");
+		if (report != null) {
+			this.report = new File(report);
+		}
+	}
+
+	private static double mb(long bytes) {
+		return bytes / (1024.0 * 1024.0);
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private static class Sample {
+
+		private final int cycle;
+
+		private final long heap;
+
+		private final long metaspace;
+
+		private final int classes;
+
+		private final int threads;
+
+		private Sample(int cycle, long heap, long metaspace, int classes, int threads) {
+			this.cycle = cycle;
+			this.heap = heap;
+			this.metaspace = metaspace;
+			this.classes = classes;
+			this.threads = threads;
+		}
+
+		static Sample take(int cycle) {
+			// Only count what survives a collection (class loaders need a few)
+			for (int i = 0; i < 3; i++) {
+				System.gc();
+				sleep(50L);
+			}
+			long metaspace = 0;
+			for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+				if (pool.getName().contains("Metaspace")
+						|| pool.getName().contains("Perm Gen")) {
+					metaspace += pool.getUsage().getUsed();
+				}
+			}
+			return new Sample(cycle,
+					ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed(),
+					metaspace,
+					ManagementFactory.getClassLoadingMXBean().getLoadedClassCount(),
+					ManagementFactory.getThreadMXBean().getThreadCount());
+		}
+
+	}
+
+}
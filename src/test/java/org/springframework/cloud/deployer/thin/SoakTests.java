@@ -0,0 +1,61 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import org.junit.Test;
+
+import org.springframework.cloud.deployer.thin.SoakHarness.Operation;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * A short soak test by default. Run the main method (or set the number of iterations or
+ * a duration as system properties) for a longer one.
+ *
+ * @author Dave Syer
+ *
+ */
+public class SoakTests {
+
+	@Test
+	public void shortSoak() throws Exception {
+		SoakHarness harness = new SoakHarness(new ThinJarAppDeployer());
+		if (System.getProperty("soak.mix") == null) {
+			harness.setMix(Operation.CYCLE, Operation.REDEPLOY, Operation.PAIR);
+		}
+		assertThat(harness.run()).isEmpty();
+		File report = new File(
+				System.getProperty("soak.report", "target/soak-report.txt"));
+		assertThat(new String(Files.readAllBytes(report.toPath()))).contains("PASSED",
+				"p99=");
+	}
+
+	public static void main(String[] args) throws Exception {
+		// e.g. -Dsoak.duration=3600000 (an hour)
+		SoakHarness harness = new SoakHarness(new ThinJarAppDeployer());
+		if (Integer.getInteger("soak.iterations") == null) {
+			harness.setIterations(500);
+		}
+		if (!harness.run().isEmpty()) {
+			System.exit(1);
+		}
+	}
+
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class TaskExecutionEngineTests {
+
+	private TaskExecutionEngine engine;
+
+	@After
+	public void close() {
+		if (engine != null) {
+			engine.shutdown();
+		}
+	}
+
+	@Test
+	public void limitsConcurrentExecutionsPerTask() throws Exception {
+		engine = new TaskExecutionEngine(4, 10, 1, 0L);
+		CountDownLatch latch = new CountDownLatch(1);
+		CountDownLatch done = new CountDownLatch(3);
+		AtomicInteger max = new AtomicInteger();
+		AtomicInteger running = new AtomicInteger();
+		for (int i = 0; i < 3; i++) {
+			engine.submit("foo", () -> {
+				max.accumulateAndGet(running.incrementAndGet(), Math::max);
+				await(latch);
+				running.decrementAndGet();
+				done.countDown();
+			});
+		}
+		assertThat(engine.getRunning("foo")).isEqualTo(1);
+		assertThat(engine.getPending("foo")).isEqualTo(2);
+		latch.countDown();
+		assertThat(done.await(5, TimeUnit.SECONDS)).isTrue();
+		assertThat(max.get()).isEqualTo(1);
+	}
+
+	@Test
+	public void rejectsWhenQueueIsFull() throws Exception {
+		engine = new TaskExecutionEngine(1, 1, 1, 10L);
+		CountDownLatch latch = new CountDownLatch(1);
+		engine.submit("foo", () -> await(latch));
+		try {
+			engine.submit("foo", () -> await(latch));
+			// Still waiting for the first to start (or queued behind it)
+			engine.submit("foo", () -> await(latch));
+			fail("Expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage()).contains("queue is full");
+		}
+		finally {
+			latch.countDown();
+		}
+	}
+
+	private void await(CountDownLatch latch) {
+		try {
+			latch.await(5, TimeUnit.SECONDS);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}
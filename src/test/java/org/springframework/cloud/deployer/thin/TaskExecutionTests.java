@@ -0,0 +1,87 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.util.Collections;
+
+import org.junit.Test;
+
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.cloud.deployer.spi.task.LaunchState;
+import org.springframework.core.io.FileSystemResource;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class TaskExecutionTests {
+
+	@Test
+	public void finishedExecutionIsCompact() throws Exception {
+		TaskExecution execution = new TaskExecution("foo", wrapper());
+		assertThat(execution.start()).isTrue();
+		execution.finish(LaunchState.failed, 1,
+				"java.lang.IllegalStateException: "
+						+ new String(new char[10000]).replace('\0', 'x'));
+		assertThat(execution.getWrapper()).isNull();
+		assertThat(execution.getState()).isEqualTo(LaunchState.failed);
+		assertThat(execution.getError()).hasSize(TaskExecution.MAX_ERROR_LENGTH);
+		assertThat(execution.getRetainedSize()).isLessThan(1024L);
+		assertThat(execution.getAttributes()).containsEntry("exitStatus", "1");
+	}
+
+	@Test
+	public void cancelledWhileQueued() throws Exception {
+		TaskExecution execution = new TaskExecution("foo", wrapper());
+		execution.cancel();
+		assertThat(execution.start()).isFalse();
+		assertThat(execution.getState()).isEqualTo(LaunchState.cancelled);
+		assertThat(execution.getWrapper()).isNull();
+	}
+
+	@Test
+	public void finishedExecutionExpires() throws Exception {
+		ThinJarTaskLauncher launcher = new ThinJarTaskLauncher();
+		launcher.setRetentionTime(500L);
+		// Fails fast, and no other task finishes after it
+		String id = launcher.launch(new AppDeploymentRequest(
+				new AppDefinition("missing", Collections.emptyMap()),
+				new FileSystemResource("src/test/resources/missing.jar")));
+		for (int i = 0; i < 1000; i++) {
+			if (launcher.status(id).getState() == LaunchState.failed) {
+				break;
+			}
+			Thread.sleep(10L);
+		}
+		assertThat(launcher.status(id).getState()).isEqualTo(LaunchState.failed);
+		assertThat(launcher.getRetainedExecutions()).isEqualTo(1);
+		Thread.sleep(600L);
+		assertThat(launcher.status(id)).isNull();
+		assertThat(launcher.getRetainedExecutions()).isEqualTo(0);
+	}
+
+	private ThinJarAppWrapper wrapper() {
+		return new ThinJarAppWrapper("id",
+				new FileSystemResource(
+						"src/test/resources/app-with-db-in-lib-properties.jar"),
+				"thin", new String[0], ArchiveCache.getInstance());
+	}
+
+}
@@ -16,9 +16,14 @@
 
 package org.springframework.cloud.deployer.thin;
 
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
 
 import org.junit.Test;
 import org.junit.runner.RunWith;
@@ -27,8 +32,10 @@ import org.junit.runners.Parameterized;
 import org.springframework.cloud.deployer.spi.app.DeploymentState;
 import org.springframework.cloud.deployer.spi.core.AppDefinition;
 import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.env.Environment;
 import org.springframework.core.io.FileSystemResource;
 import org.springframework.core.io.Resource;
+import org.springframework.util.ReflectionUtils;
 
 import static org.assertj.core.api.Assertions.assertThat;
 
@@ -76,6 +83,154 @@ public class ThinJarAppDeployerTests {
 		deployer.undeploy(deployed);
 	}
 
+	@Test
+	public void appWithLazyInit() throws Exception {
+		String jarName = "app-with-db-in-lib-properties.jar";
+		AppDefinition definition = new AppDefinition(jarName, Collections.emptyMap());
+		AppDeploymentRequest request = new AppDeploymentRequest(definition,
+				new FileSystemResource("src/test/resources/" + jarName),
+				Collections.singletonMap(ThinJarAppDeployer.LAZY_INIT_PROPERTY_KEY,
+						"true"));
+		// A deployer of its own so the result does not depend on the other tests
+		ThinJarAppDeployer deployer = new ThinJarAppDeployer();
+		String deployed = deployer.deploy(request);
+		assertThat(deployer.status(deployed).getState())
+				.isEqualTo(DeploymentState.deployed);
+		for (int i = 0; i < 100
+				&& !deployer.getMetrics(deployed).containsKey("warmup.time"); i++) {
+			Thread.sleep(100L);
+		}
+		assertThat(deployer.getMetrics(deployed)).containsKeys("startup.time",
+				"warmup.time");
+		deployer.undeploy(deployed);
+	}
+
+	@Test
+	public void concurrentDeploymentsOfSameApp() throws Exception {
+		String jarName = "app-with-db-in-lib-properties.jar";
+		AppDeploymentRequest request = new AppDeploymentRequest(
+				new AppDefinition(jarName, Collections.emptyMap()),
+				new FileSystemResource("src/test/resources/" + jarName));
+		ThinJarAppDeployer deployer = new ThinJarAppDeployer();
+		CompletableFuture<String> first = CompletableFuture
+				.supplyAsync(() -> deployer.deploy(request));
+		CompletableFuture<String> second = CompletableFuture
+				.supplyAsync(() -> deployer.deploy(request));
+		String deployed = first.get(60, TimeUnit.SECONDS);
+		assertThat(second.get(60, TimeUnit.SECONDS)).isEqualTo(deployed);
+		// The one that lost the race did not tear down the other one
+		for (int i = 0; i < 100 && deployer.status(deployed)
+				.getState() != DeploymentState.deployed; i++) {
+			Thread.sleep(100L);
+		}
+		assertThat(deployer.status(deployed).getState())
+				.isEqualTo(DeploymentState.deployed);
+		assertThat(deployer.getHealth(deployed)).containsEntry("status", "UP");
+		deployer.undeploy(deployed);
+	}
+
+	@Test
+	public void update() throws Exception {
+		String deployed = deploy("app-with-db-in-lib-properties.jar");
+		assertThat(deployer.update(deployed, Collections.singletonMap("foo", "bar")))
+				.isFalse();
+		Object environment = deployer.getBean(deployed, Environment.class);
+		assertThat(ReflectionUtils.invokeMethod(ReflectionUtils.findMethod(
+				environment.getClass(), "getProperty", String.class), environment, "foo"))
+						.isEqualTo("bar");
+		// Needs a restart
+		assertThat(deployer.update(deployed,
+				Collections.singletonMap("spring.jmx.enabled", "false"))).isTrue();
+		assertThat(deployer.status(deployed).getState())
+				.isEqualTo(DeploymentState.deployed);
+		deployer.undeploy(deployed);
+	}
+
+	@Test
+	public void health() throws Exception {
+		String deployed = deploy("app-with-db-in-lib-properties.jar");
+		assertThat(deployer.getHealth(deployed)).containsEntry("status", "UP");
+		InMemoryAppInstanceStatus status = (InMemoryAppInstanceStatus) deployer
+				.status(deployed).getInstances().values().iterator().next();
+		assertThat(status.getReadiness()).isEqualTo("UP");
+		assertThat(status.getAttributes()).containsEntry("readiness", "UP");
+		deployer.undeploy(deployed);
+		assertThat(deployer.getHealth(deployed)).containsEntry("status", "UNKNOWN");
+	}
+
+	@Test
+	public void profile() throws Exception {
+		String jarName = "app-with-db-in-lib-properties.jar";
+		AppDefinition definition = new AppDefinition(jarName, Collections.emptyMap());
+		Map<String, String> properties = new HashMap<>();
+		properties.put(ThinJarAppDeployer.PROFILE_PROPERTY_KEY, "true");
+		properties.put(ThinJarAppDeployer.PROFILE_TOP_PROPERTY_KEY, "3");
+		AppDeploymentRequest request = new AppDeploymentRequest(definition,
+				new FileSystemResource("src/test/resources/" + jarName), properties);
+		ThinJarAppDeployer deployer = new ThinJarAppDeployer();
+		String deployed = deployer.deploy(request);
+		Map<String, Object> profile = deployer.getStartupProfile(deployed);
+		assertThat((Map<?, ?>) profile.get("phases")).containsKeys("environment",
+				"prepare", "refresh", "ready", "beans", "total");
+		assertThat((List<?>) profile.get("beans")).isNotEmpty();
+		assertThat(deployer.getMetrics(deployed)).containsKeys("startup.beans",
+				"startup.phase.refresh", "startup.bean.0", "startup.bean.2")
+				.doesNotContainKey("startup.bean.3");
+		deployer.undeploy(deployed);
+		assertThat(deployer.getStartupProfile(deployed)).isEmpty();
+	}
+
+	@Test
+	public void notProfiled() throws Exception {
+		String deployed = deploy("app-with-db-in-lib-properties.jar");
+		assertThat(deployer.getStartupProfile(deployed)).isEmpty();
+		assertThat(deployer.getMetrics(deployed)).doesNotContainKey("startup.beans");
+		deployer.undeploy(deployed);
+	}
+
+	@Test
+	public void statusAll() throws Exception {
+		String deployed = deploy("app-with-db-in-lib-properties.jar");
+		DeploymentSnapshot snapshot = deployer.statusAll();
+		assertThat(snapshot.getState(deployed)).isEqualTo(DeploymentState.deployed);
+		// Nothing changed so it's the same snapshot
+		assertThat(deployer.statusAll()).isSameAs(snapshot);
+		deployer.undeploy(deployed);
+		DeploymentSnapshot next = deployer.statusAll();
+		assertThat(next.getVersion()).isGreaterThan(snapshot.getVersion());
+		assertThat(next.changes(snapshot)).containsEntry(deployed,
+				DeploymentState.undeployed);
+	}
+
+	@Test
+	public void statusAllWhileDeploying() throws Exception {
+		ThinJarAppDeployer deployer = new ThinJarAppDeployer();
+		String jarName = "app-with-db-in-lib-properties.jar";
+		AppDeploymentRequest request = new AppDeploymentRequest(
+				new AppDefinition(jarName, Collections.emptyMap()),
+				new FileSystemResource("src/test/resources/" + jarName));
+		CompletableFuture<String> deploying = CompletableFuture
+				.supplyAsync(() -> deployer.deploy(request));
+		List<DeploymentState> seen = new ArrayList<>();
+		while (!deploying.isDone()) {
+			// Polling must not disturb an app that is starting
+			for (DeploymentState state : deployer.statusAll().getStates().values()) {
+				if (seen.isEmpty() || seen.get(seen.size() - 1) != state) {
+					seen.add(state);
+				}
+			}
+			Thread.sleep(10L);
+		}
+		String deployed = deploying.get();
+		assertThat(deployer.status(deployed).getState())
+				.isEqualTo(DeploymentState.deployed);
+		assertThat(deployer.statusAll().getState(deployed))
+				.isEqualTo(DeploymentState.deployed);
+		assertThat(seen).doesNotContain(DeploymentState.undeployed,
+				DeploymentState.failed);
+		deployer.undeploy(deployed);
+	}
+
 	String deploy(String jarName, String... args) {
 		Resource resource = new FileSystemResource("src/test/resources/" + jarName);
 		AppDefinition definition = new AppDefinition(jarName, Collections.emptyMap());
@@ -87,7 +242,7 @@ public class ThinJarAppDeployerTests {
 
 	public static void main(String[] args) {
 		// Use this main method for leak detection (heap and non-heap, including classes
-		// loaded should be variable but stable)
+		// loaded should be variable but stable), or SoakTests for a report
 		ThinJarAppDeployerTests deployer = new ThinJarAppDeployerTests();
 		while (true) {
 			String deployed = deployer.deploy("app-with-cloud-in-lib-properties.jar");
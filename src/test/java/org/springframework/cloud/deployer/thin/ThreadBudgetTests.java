@@ -0,0 +1,64 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import org.junit.Test;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.fail;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class ThreadBudgetTests {
+
+	@Test
+	public void unlimited() {
+		ThreadBudget budget = new ThreadBudget(0);
+		assertThat(budget.reserve("foo", 200)).isEqualTo(200);
+		assertThat(budget.reserve("bar", 200)).isEqualTo(200);
+		assertThat(budget.getUsed()).isEqualTo(400);
+	}
+
+	@Test
+	public void grantsWhatIsLeft() {
+		ThreadBudget budget = new ThreadBudget(250);
+		assertThat(budget.reserve("foo", 200)).isEqualTo(200);
+		assertThat(budget.reserve("bar", 200)).isEqualTo(50);
+		assertThat(budget.getReserved("bar")).isEqualTo(50);
+		try {
+			budget.reserve("spam", 10);
+			fail("Expected IllegalStateException");
+		}
+		catch (IllegalStateException e) {
+			assertThat(e.getMessage()).contains("exhausted");
+		}
+		budget.release("foo");
+		assertThat(budget.reserve("spam", 10)).isEqualTo(10);
+		assertThat(budget.getReservations()).containsOnlyKeys("bar", "spam");
+	}
+
+	@Test
+	public void reserveAgainReplaces() {
+		ThreadBudget budget = new ThreadBudget(100);
+		budget.reserve("foo", 100);
+		assertThat(budget.reserve("foo", 80)).isEqualTo(80);
+		assertThat(budget.getUsed()).isEqualTo(80);
+	}
+
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2016-2017 the original author or authors.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package org.springframework.cloud.deployer.thin;
+
+import java.lang.management.ManagementFactory;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Supplier;
+
+import org.junit.Assume;
+import org.junit.Test;
+
+import org.springframework.cloud.deployer.spi.app.DeploymentState;
+import org.springframework.cloud.deployer.spi.core.AppDefinition;
+import org.springframework.cloud.deployer.spi.core.AppDeploymentRequest;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.util.SocketUtils;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+/**
+ * @author Dave Syer
+ *
+ */
+public class VirtualThreadsTests {
+
+	@Test
+	public void fallsBackToPlatformThread() throws Exception {
+		ThreadGroup group = new ThreadGroup("test");
+		AtomicReference<Thread> current = new AtomicReference<>();
+		Thread thread = VirtualThreads.newThread(group, "test",
+				() -> current.set(Thread.currentThread()));
+		thread.start();
+		thread.join();
+		assertThat(current.get()).isSameAs(thread);
+		assertThat(thread.getName()).isEqualTo("test");
+		if (!VirtualThreads.isAvailable()) {
+			assertThat(VirtualThreads.newExecutor()).isNull();
+		}
+	}
+
+	@Test
+	public void appServesRequestsOnVirtualThreads() throws Exception {
+		Assume.assumeTrue(VirtualThreads.isAvailable());
+		ThinJarAppDeployer deployer = new ThinJarAppDeployer();
+		int port = SocketUtils.findAvailableTcpPort();
+		String jarName = "app-with-db-in-lib-properties.jar";
+		AppDeploymentRequest request = new AppDeploymentRequest(
+				new AppDefinition(jarName,
+						Collections.singletonMap("server.port", String.valueOf(port))),
+				new FileSystemResource("src/test/resources/" + jarName),
+				Collections.singletonMap(
+						ThinJarAppDeployer.VIRTUAL_THREADS_PROPERTY_KEY, "true"));
+		String deployed = deployer.deploy(request);
+		try {
+			assertThat(deployer.status(deployed).getState())
+					.isEqualTo(DeploymentState.deployed);
+			HttpURLConnection connection = (HttpURLConnection) new URL(
+					"http://localhost:" + port + "/health").openConnection();
+			assertThat(connection.getResponseCode()).isEqualTo(200);
+			connection.disconnect();
+			// The connector has platform threads (e.g. the acceptor) but Tomcat did
+			// not start any request processing threads of its own
+			List<String> names = new ArrayList<>();
+			for (Thread thread : Thread.getAllStackTraces().keySet()) {
+				if (thread.getName().contains("-" + port + "-")) {
+					names.add(thread.getName());
+				}
+			}
+			assertThat(names).isNotEmpty();
+			for (String name : names) {
+				assertThat(name).doesNotContain("-exec-");
+			}
+		}
+		finally {
+			deployer.undeploy(deployed);
+		}
+	}
+
+	public static void main(String[] args) throws Exception {
+		// Use this main method to compare platform and virtual threads: 40 mostly idle
+		// apps, each with 20 requests waiting (e.g. long polling) and a burst of short
+		// requests
+		if (!VirtualThreads.isAvailable()) {
+			System.err.println("Virtual threads are not available");
+			return;
+		}
+		int apps = 40;
+		VirtualThreadsTests tests = new VirtualThreadsTests();
+		tests.report("platform", apps, () -> Executors.newFixedThreadPool(50));
+		tests.report("virtual", apps, VirtualThreads::newExecutor);
+	}
+
+	private void report(String name, int apps, Supplier<ExecutorService> factory)
+			throws Exception {
+		System.gc();
+		long memory = usedMemory();
+		int threads = ManagementFactory.getThreadMXBean().getThreadCount();
+		CountDownLatch idle = new CountDownLatch(1);
+		List<ExecutorService> executors = new ArrayList<>();
+		for (int i = 0; i < apps; i++) {
+			ExecutorService executor = factory.get();
+			executors.add(executor);
+			for (int j = 0; j < 20; j++) {
+				executor.execute(() -> await(idle));
+			}
+		}
+		int requests = 20000;
+		CountDownLatch done = new CountDownLatch(requests);
+		long start = System.nanoTime();
+		for (int i = 0; i < requests; i++) {
+			executors.get(i % apps).execute(() -> {
+				sleep(1);
+				done.countDown();
+			});
+		}
+		assertThat(done.await(60, TimeUnit.SECONDS)).isTrue();
+		long elapsed = System.nanoTime() - start;
+		System.gc();
+		System.err.println(String.format(
+				"%s: %d requests/s, %d extra threads, %dKB extra heap", name,
+				requests * 1000000000L / elapsed,
+				ManagementFactory.getThreadMXBean().getThreadCount() - threads,
+				(usedMemory() - memory) / 1024));
+		idle.countDown();
+		for (ExecutorService executor : executors) {
+			executor.shutdown();
+			executor.awaitTermination(10, TimeUnit.SECONDS);
+		}
+	}
+
+	private long usedMemory() {
+		return Runtime.getRuntime().totalMemory() - Runtime.getRuntime().freeMemory();
+	}
+
+	private void await(CountDownLatch latch) {
+		try {
+			latch.await();
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	private void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		}
+		catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+}